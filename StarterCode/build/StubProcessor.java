@@ -0,0 +1,370 @@
+package build;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/** Generates stubs and skeleton dispatchers for remote interfaces.
+
+    <p>
+    This build tool is an annotation processor, run by the Makefile over the
+    sources of the principal packages before they are compiled. For each
+    public top-level interface among the sources whose methods are all marked
+    as throwing <code>RMIException</code>, it writes two classes to the
+    interface's package: <code>I_Stub</code>, extending
+    <code>rmi.GeneratedStub</code> and implementing the interface, and
+    <code>I_Dispatcher</code>, extending <code>rmi.GeneratedDispatcher</code>.
+    The <code>rmi</code> package uses these classes, when they are present and
+    match the interface, in place of proxies and method handles.
+
+    <p>
+    Both classes list the signatures of the interface's methods, in the form
+    used by the <code>rmi</code> package to compute method IDs, and refer to
+    each method by its index in this list. Parameter, result and exception
+    types are written as their erasures.
+ */
+@SupportedAnnotationTypes("*")
+public class StubProcessor extends AbstractProcessor
+{
+    private static final String REMOTE_EXCEPTION = "rmi.RMIException";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+                           RoundEnvironment round)
+    {
+        for (Element element : round.getRootElements()) {
+            if (element.getKind() != ElementKind.INTERFACE) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            List<ExecutableElement> methods = remoteMethods(type);
+            if (methods == null) {
+                continue;
+            }
+            try {
+                writeStub(type, methods);
+                writeDispatcher(type, methods);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write generated classes: " + e.getMessage(), type);
+            }
+        }
+        return false;
+    }
+
+    /** Returns the methods of a remote interface, one for each signature, or
+        <code>null</code> if the interface is not one for which classes are
+        generated. */
+    private List<ExecutableElement> remoteMethods(TypeElement type)
+    {
+        if (!type.getModifiers().contains(Modifier.PUBLIC)
+            || type.getEnclosingElement().getKind() != ElementKind.PACKAGE
+            || !type.getTypeParameters().isEmpty()) {
+            return null;
+        }
+        Elements elements = processingEnv.getElementUtils();
+        Map<String, ExecutableElement> methods = new LinkedHashMap<>();
+        for (Element member : elements.getAllMembers(type)) {
+            if (member.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) member;
+            TypeElement owner = (TypeElement) method.getEnclosingElement();
+            if (owner.getQualifiedName().contentEquals("java.lang.Object")) {
+                continue;
+            }
+            if (method.getModifiers().contains(Modifier.STATIC)
+                || !throwsRemoteException(method)) {
+                return null;
+            }
+            methods.putIfAbsent(signature(method), method);
+        }
+        return methods.isEmpty() ? null : new ArrayList<>(methods.values());
+    }
+
+    private static boolean throwsRemoteException(ExecutableElement method)
+    {
+        for (TypeMirror exception : method.getThrownTypes()) {
+            if (exception.toString().equals(REMOTE_EXCEPTION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Writes the stub class of an interface. */
+    private void writeStub(TypeElement type, List<ExecutableElement> methods)
+        throws IOException
+    {
+        String name = type.getSimpleName() + "_Stub";
+        try (PrintWriter out = open(type, name)) {
+            out.println("/** Stub for <code>" + type.getSimpleName() + "</code>, generated by");
+            out.println("    <code>build.StubProcessor</code>. Do not edit. */");
+            out.println("@javax.annotation.processing.Generated(\"build.StubProcessor\")");
+            out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("public final class " + name + " extends rmi.GeneratedStub implements "
+                        + type.getSimpleName());
+            out.println("{");
+            out.println("    private static final long serialVersionUID = 1L;");
+            out.println();
+            writeSignatures(out, methods);
+            out.println();
+            out.println("    public " + name + "(rmi.StubInvocationHandler handler)");
+            out.println("    {");
+            out.println("        super(handler);");
+            out.println("    }");
+            for (int i = 0; i < methods.size(); i++) {
+                ExecutableElement method = methods.get(i);
+                List<? extends VariableElement> parameters = method.getParameters();
+                TypeMirror result = erasure(method.getReturnType());
+
+                StringBuilder declaration = new StringBuilder("    public ")
+                    .append(sourceName(result)).append(' ')
+                    .append(method.getSimpleName()).append('(');
+                StringBuilder arguments = new StringBuilder();
+                for (int j = 0; j < parameters.size(); j++) {
+                    if (j > 0) {
+                        declaration.append(", ");
+                        arguments.append(", ");
+                    }
+                    declaration.append(sourceName(erasure(parameters.get(j).asType())))
+                               .append(" p").append(j);
+                    arguments.append('p').append(j);
+                }
+                declaration.append(')');
+                List<TypeMirror> thrown = new ArrayList<>();
+                for (TypeMirror exception : method.getThrownTypes()) {
+                    thrown.add(erasure(exception));
+                }
+                if (!thrown.isEmpty()) {
+                    declaration.append(" throws ");
+                    for (int j = 0; j < thrown.size(); j++) {
+                        if (j > 0) {
+                            declaration.append(", ");
+                        }
+                        declaration.append(sourceName(thrown.get(j)));
+                    }
+                }
+
+                String call = "invoke(" + i + ", new Object[] {" + arguments + "})";
+                if (result.getKind() != TypeKind.VOID) {
+                    call = "return (" + sourceName(boxed(result)) + ") " + call;
+                }
+
+                out.println();
+                out.println("    @Override");
+                out.println(declaration);
+                out.println("    {");
+                List<TypeMirror> rethrown = rethrown(thrown);
+                if (rethrown == null) {
+                    out.println("        " + call + ";");
+                } else {
+                    StringBuilder alternatives = new StringBuilder();
+                    for (TypeMirror exception : rethrown) {
+                        if (alternatives.length() > 0) {
+                            alternatives.append(" | ");
+                        }
+                        alternatives.append(sourceName(exception));
+                    }
+                    out.println("        try {");
+                    out.println("            " + call + ";");
+                    out.println("        } catch (" + alternatives + " e) {");
+                    out.println("            throw e;");
+                    out.println("        } catch (Throwable t) {");
+                    out.println("            throw new java.lang.reflect.UndeclaredThrowableException(t);");
+                    out.println("        }");
+                }
+                out.println("    }");
+            }
+            out.println("}");
+        }
+    }
+
+    /** Writes the skeleton dispatcher class of an interface. */
+    private void writeDispatcher(TypeElement type, List<ExecutableElement> methods)
+        throws IOException
+    {
+        String name = type.getSimpleName() + "_Dispatcher";
+        try (PrintWriter out = open(type, name)) {
+            out.println("/** Skeleton dispatcher for <code>" + type.getSimpleName()
+                        + "</code>, generated by");
+            out.println("    <code>build.StubProcessor</code>. Do not edit. */");
+            out.println("@javax.annotation.processing.Generated(\"build.StubProcessor\")");
+            out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("public final class " + name + " extends rmi.GeneratedDispatcher<"
+                        + type.getSimpleName() + ">");
+            out.println("{");
+            writeSignatures(out, methods);
+            out.println();
+            out.println("    @Override");
+            out.println("    protected Object invoke(" + type.getSimpleName()
+                        + " server, int method, Object[] arguments) throws Throwable");
+            out.println("    {");
+            out.println("        switch (method) {");
+            for (int i = 0; i < methods.size(); i++) {
+                ExecutableElement method = methods.get(i);
+                List<? extends VariableElement> parameters = method.getParameters();
+                StringBuilder call = new StringBuilder("server.")
+                    .append(method.getSimpleName()).append('(');
+                for (int j = 0; j < parameters.size(); j++) {
+                    if (j > 0) {
+                        call.append(", ");
+                    }
+                    call.append('(')
+                        .append(sourceName(boxed(erasure(parameters.get(j).asType()))))
+                        .append(") arguments[").append(j).append(']');
+                }
+                call.append(')');
+                out.println("        case " + i + ":");
+                if (method.getReturnType().getKind() == TypeKind.VOID) {
+                    out.println("            " + call + ";");
+                    out.println("            return null;");
+                } else {
+                    out.println("            return " + call + ";");
+                }
+            }
+            out.println("        default:");
+            out.println("            throw new IllegalArgumentException(\"No method with index \" + method);");
+            out.println("        }");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /** Opens a generated source file in the package of an interface, and
+        writes its package declaration. */
+    private PrintWriter open(TypeElement type, String name) throws IOException
+    {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type)
+                                          .getQualifiedName().toString();
+        String qualified = packageName.isEmpty() ? name : packageName + "." + name;
+        PrintWriter out = new PrintWriter(processingEnv.getFiler()
+                                          .createSourceFile(qualified, type)
+                                          .openWriter());
+        if (!packageName.isEmpty()) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        return out;
+    }
+
+    private void writeSignatures(PrintWriter out, List<ExecutableElement> methods)
+    {
+        out.println("    public static final String[] SIGNATURES = {");
+        for (ExecutableElement method : methods) {
+            out.println("        \"" + signature(method) + "\",");
+        }
+        out.println("    };");
+    }
+
+    /** Returns the exception types a stub method catches and rethrows:
+        those it declares, and unchecked exceptions, without any type which
+        is a subtype of another. Returns <code>null</code> if the method
+        declares <code>Throwable</code>, and so needs no catch clause. */
+    private List<TypeMirror> rethrown(List<TypeMirror> thrown)
+    {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        List<TypeMirror> candidates = new ArrayList<>(thrown);
+        candidates.add(elements.getTypeElement("java.lang.RuntimeException").asType());
+        candidates.add(elements.getTypeElement("java.lang.Error").asType());
+        TypeMirror throwable = elements.getTypeElement("java.lang.Throwable").asType();
+        List<TypeMirror> rethrown = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            TypeMirror candidate = candidates.get(i);
+            if (types.isSameType(candidate, throwable)) {
+                return null;
+            }
+            boolean covered = false;
+            for (int j = 0; j < candidates.size() && !covered; j++) {
+                TypeMirror other = candidates.get(j);
+                covered = j != i && types.isSubtype(candidate, other)
+                    && (!types.isSameType(candidate, other) || j < i);
+            }
+            if (!covered) {
+                rethrown.add(candidate);
+            }
+        }
+        return rethrown;
+    }
+
+    /** Returns the signature of a method, as computed by the
+        <code>rmi</code> package: its name followed by the binary names of
+        the erasures of its parameter types. */
+    private String signature(ExecutableElement method)
+    {
+        StringBuilder signature = new StringBuilder(method.getSimpleName()).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            signature.append(binaryName(erasure(parameters.get(i).asType())));
+        }
+        return signature.append(')').toString();
+    }
+
+    private String binaryName(TypeMirror type)
+    {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return binaryName(((ArrayType) type).getComponentType()) + "[]";
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            return processingEnv.getElementUtils().getBinaryName(element).toString();
+        }
+        return type.toString();
+    }
+
+    private String sourceName(TypeMirror type)
+    {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return sourceName(((ArrayType) type).getComponentType()) + "[]";
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    private TypeMirror erasure(TypeMirror type)
+    {
+        return processingEnv.getTypeUtils().erasure(type);
+    }
+
+    private TypeMirror boxed(TypeMirror type)
+    {
+        if (!type.getKind().isPrimitive()) {
+            return type;
+        }
+        Types types = processingEnv.getTypeUtils();
+        return types.boxedClass(types.getPrimitiveType(type.getKind())).asType();
+    }
+}
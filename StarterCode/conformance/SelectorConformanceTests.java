@@ -0,0 +1,29 @@
+package conformance;
+
+import rmi.Skeleton;
+import rmi.SkeletonTransport;
+
+/** Runs all conformance tests with skeletons using the selector transport.
+
+    <p>
+    The tests are those run by {@link ConformanceTests}. Every skeleton they
+    create serves its connections with
+    <code>SkeletonTransport.SELECTOR</code> instead of the default blocking
+    transport, so that the selector transport is checked against the same
+    specifications: calls, exceptions from server objects, starting, stopping
+    and restarting, and the reporting of errors through
+    <code>listen_error</code>, <code>service_error</code> and
+    <code>stopped</code>.
+ */
+public class SelectorConformanceTests
+{
+    /** Runs the tests.
+
+        @param arguments Ignored.
+     */
+    public static void main(String[] arguments)
+    {
+        Skeleton.setDefaultTransport(SkeletonTransport.SELECTOR);
+        ConformanceTests.main(arguments);
+    }
+}
@@ -188,8 +188,9 @@ public class NamingServer implements Service, Registration
         } else {
             Path parent = file.parent();
             if (parent.isRoot() && clientStubs.size() > 0) {
-                this.fileMap.put(file, new StorageServerManager(commandStubs.get(0), clientStubs.get(0), false));
-                return ((Command)commandStubs.get(0)).create(file);
+                int storage = chooseStorage(false);
+                this.fileMap.put(file, new StorageServerManager(commandStubs.get(storage), clientStubs.get(storage), false));
+                return ((Command)commandStubs.get(storage)).create(file);
             }
             if (this.fileMap.containsKey(parent) && this.fileMap.get(parent).isDir()) {
                 StorageServerManager storageServerManager = this.fileMap.get(parent);
@@ -210,7 +211,7 @@ public class NamingServer implements Service, Registration
             if (storageServerNum == 0) {
                 throw new FileNotFoundException("No storage server is registered yet.");
             }
-            int randomStorage = rn.nextInt(storageServerNum);
+            int randomStorage = chooseStorage(true);
             Path parent = directory.parent();
             if (parent.isRoot()) {
                 this.fileMap.put(directory, new StorageServerManager(commandStubs.get(randomStorage), clientStubs.get(randomStorage), true));
@@ -225,6 +226,39 @@ public class NamingServer implements Service, Registration
         }
     }
 
+    /** Chooses a storage server for a new object, among the servers whose
+        command stubs are not failing calls at once because their circuit
+        breaker is open. If every server's breaker is open, any server may be
+        chosen.
+
+        @param random <code>true</code> to choose a server at random,
+                      <code>false</code> to choose the first server that
+                      registered.
+        @return The index of the server in the stub lists.
+     */
+    private int chooseStorage(boolean random)
+    {
+        ArrayList<Integer> available = new ArrayList<>();
+        for (int i = 0; i < commandStubs.size(); i++) {
+            if (isAvailable(commandStubs.get(i))) {
+                available.add(i);
+            }
+        }
+        if (available.isEmpty()) {
+            return random ? rn.nextInt(commandStubs.size()) : 0;
+        }
+        return random ? available.get(rn.nextInt(available.size())) : available.get(0);
+    }
+
+    private static boolean isAvailable(Object stub)
+    {
+        try {
+            return Stub.isAvailable(stub);
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
     @Override
     public boolean delete(Path path) throws FileNotFoundException
     {
@@ -2,6 +2,7 @@ package naming;
 
 import java.io.*;
 import common.*;
+import rmi.Idempotent;
 import rmi.RMIException;
 import storage.Storage;
 
@@ -13,6 +14,10 @@ import storage.Storage;
     <p>
     The term <em>object</em> in the documentation below refers to any filesystem
     object: either a file or a directory.
+
+    <p>
+    The queries of this interface are idempotent, so stubs may safely send them
+    again when they fail to reach the server.
  */
 public interface Service
 {
@@ -26,6 +31,7 @@ public interface Service
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public boolean isDirectory(Path path)
         throws RMIException, FileNotFoundException;
 
@@ -39,6 +45,7 @@ public interface Service
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public String[] list(Path directory)
         throws RMIException, FileNotFoundException;
 
@@ -91,6 +98,7 @@ public interface Service
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public Storage getStorage(Path file)
         throws RMIException, FileNotFoundException;
 }
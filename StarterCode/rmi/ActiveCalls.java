@@ -0,0 +1,118 @@
+package rmi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** Calls received on one connection and not yet answered.
+
+    <p>
+    A call is registered when its request is received, together with the
+    deadline derived from the request's timeout, and removed once it has
+    finished. A call can be cancelled, either by the stub or because the
+    connection has closed. A call that is cancelled, or whose deadline has
+    passed, before a worker thread gets to it is not started at all. A call
+    that is cancelled while running has its worker thread interrupted, so that
+    server methods performing interruptible operations return early.
+ */
+class ActiveCalls
+{
+    private final ConcurrentHashMap<Long, Call> calls;
+
+    ActiveCalls()
+    {
+        this.calls = new ConcurrentHashMap<>();
+    }
+
+    /** Registers a call.
+
+        @param id The correlation ID of the request.
+        @param timeout The timeout carried by the request, in milliseconds, or
+                       zero if it has none.
+     */
+    Call register(long id, int timeout)
+    {
+        Call call = new Call(id, timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0);
+        calls.put(id, call);
+        return call;
+    }
+
+    /** Cancels the call with the given correlation ID, if it has not
+        finished. */
+    void cancel(long id)
+    {
+        Call call = calls.get(id);
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    /** Cancels every call that has not finished. */
+    void cancelAll()
+    {
+        for (Call call : calls.values()) {
+            call.cancel();
+        }
+    }
+
+    /** One registered call. */
+    final class Call
+    {
+        private final long id;
+        private final long deadline;
+        private Thread thread;
+        private boolean cancelled;
+
+        private Call(long id, long deadline)
+        {
+            this.id = id;
+            this.deadline = deadline;
+            this.thread = null;
+            this.cancelled = false;
+        }
+
+        /** Called by the worker thread before running the call.
+
+            @return <code>false</code> if the call has been cancelled or its
+                    deadline has passed, in which case it must not be run.
+         */
+        synchronized boolean start()
+        {
+            if (cancelled || (deadline != 0 && System.nanoTime() - deadline >= 0)) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        /** Called by the worker thread once the call has finished, or has been
+            skipped. Clears any interrupt caused by cancelling the call, so
+            that it does not affect the next task run by the thread. */
+        synchronized void finish()
+        {
+            if (thread != null) {
+                thread = null;
+                Thread.interrupted();
+            }
+            calls.remove(id, this);
+        }
+
+        private synchronized void cancel()
+        {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        /** Returns the response sent for a call that was not started. */
+        MessagePackage skipped()
+        {
+            boolean wasCancelled;
+            synchronized (this) {
+                wasCancelled = cancelled;
+            }
+            return new MessagePackage<>(MessageType.INVOKE_FAILED, new CallTimeoutException(
+                wasCancelled ? "Call cancelled before it was started" : "Call deadline passed before it was started"));
+        }
+    }
+}
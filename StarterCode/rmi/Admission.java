@@ -0,0 +1,157 @@
+package rmi;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/** Admission control for the calls of a started skeleton.
+
+    <p>
+    At most a fixed number of calls run at the same time. Further calls wait in
+    a bounded queue, in the order in which they arrived, and are run by the
+    worker thread of a call that completes. A call arriving when the queue is
+    full as well is refused, so that the skeleton answers it at once rather
+    than letting work pile up. So is a call for which the worker executor
+    refuses to start a thread, whether it has just arrived or was queued.
+ */
+class Admission
+{
+    private final Executor workers;
+    private final int maxRunning;
+    private final int maxQueued;
+    private final ArrayDeque<Queued> queue;
+    private int running;
+
+    Admission(Executor workers, int maxRunning, int maxQueued)
+    {
+        this.workers = workers;
+        this.maxRunning = maxRunning;
+        this.maxQueued = maxQueued;
+        this.queue = new ArrayDeque<>();
+        this.running = 0;
+    }
+
+    /** Runs a call on a worker thread, or queues it if the maximum number of
+        calls is already running.
+
+        @param task The call.
+        @param refusal Answers the call without running it. Run instead of
+                       <code>task</code>, on the calling thread, if the queue
+                       is full or the worker executor rejects the call. For a
+                       queued call, that may happen on the thread of another
+                       call, once it completes.
+     */
+    void execute(Runnable task, Runnable refusal)
+    {
+        synchronized (this) {
+            if (running >= maxRunning) {
+                if (queue.size() < maxQueued) {
+                    queue.add(new Queued(task, refusal));
+                    return;
+                }
+                task = null;
+            } else {
+                running++;
+            }
+        }
+        if (task == null) {
+            refusal.run();
+            return;
+        }
+        Runnable admitted = task;
+        try {
+            workers.execute(() -> run(admitted));
+        } catch (RuntimeException e) {
+            exit();
+            refusal.run();
+        }
+    }
+
+    /** Reserves a slot for a call run on the calling thread, if one is free.
+        Calls which find no free slot are not queued.
+
+        @return <code>true</code> if the call may run, in which case
+                <code>exit</code> must be called once it has completed.
+     */
+    synchronized boolean tryEnter()
+    {
+        if (running >= maxRunning) {
+            return false;
+        }
+        running++;
+        return true;
+    }
+
+    /** Releases the slot of a call admitted by <code>tryEnter</code>. The slot
+        passes to the first queued call, if there is one. Queued calls which
+        the worker executor rejects are refused, and the slot passes on.
+     */
+    void exit()
+    {
+        while (true) {
+            Queued next;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            try {
+                workers.execute(() -> run(next.task));
+                return;
+            } catch (RuntimeException e) {
+                next.refusal.run();
+            }
+        }
+    }
+
+    /** Runs a call, then the calls queued behind it, on the current worker
+        thread. */
+    private void run(Runnable task)
+    {
+        Runnable next = task;
+        try {
+            while (next != null) {
+                next.run();
+                synchronized (this) {
+                    Queued queued = queue.poll();
+                    next = queued == null ? null : queued.task;
+                    if (next == null) {
+                        running--;
+                    }
+                }
+            }
+        } finally {
+            if (next != null) {
+                synchronized (this) {
+                    running--;
+                }
+            }
+        }
+    }
+
+    /** Returns the number of calls running. */
+    synchronized int running()
+    {
+        return running;
+    }
+
+    /** Returns the number of calls waiting to run. */
+    synchronized int queued()
+    {
+        return queue.size();
+    }
+
+    /** A call waiting to run, and how to refuse it. */
+    private static final class Queued
+    {
+        final Runnable task;
+        final Runnable refusal;
+
+        Queued(Runnable task, Runnable refusal)
+        {
+            this.task = task;
+            this.refusal = refusal;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package rmi;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+/** Invocation handler of asynchronous stubs.
+
+    <p>
+    Each method of the asynchronous interface corresponds to the method of the
+    remote interface with the same name and parameter types. Calling it sends
+    the request on a pooled connection and returns at once with a future for
+    the result. Timeouts apply as for synchronous stubs; a call that times out
+    completes its future with a <code>CallTimeoutException</code>. The future
+    is completed on a thread of the common fork-join pool, so dependent stages
+    may block without holding up the connection.
+ */
+class AsyncStubInvocationHandler implements InvocationHandler, Serializable
+{
+    private static final long serialVersionUID = 1L;
+    private final InetSocketAddress ia;
+    private final Class<?> c;
+    private final Class<?> asyncInterface;
+    private final long timeout;
+    private transient HashMap<Method, MethodTable.Entry> entries;
+
+    AsyncStubInvocationHandler(InetSocketAddress ia, Class<?> c, Class<?> asyncInterface, long timeout)
+    {
+        this.ia = ia;
+        this.c = c;
+        this.asyncInterface = asyncInterface;
+        this.timeout = timeout;
+        this.entries = bind(c, asyncInterface);
+    }
+
+    /** Maps each method of an asynchronous interface to the table entry of
+        the corresponding remote method.
+
+        @throws Error If a method of the asynchronous interface does not return
+                      a type to which a <code>CompletableFuture</code> can be
+                      assigned, or has no counterpart in the remote interface.
+     */
+    static HashMap<Method, MethodTable.Entry> bind(Class<?> c, Class<?> asyncInterface)
+    {
+        MethodTable table = MethodTable.of(c);
+        HashMap<Method, MethodTable.Entry> entries = new HashMap<>();
+        for (Method method : asyncInterface.getMethods()) {
+            if (!method.getReturnType().isAssignableFrom(CompletableFuture.class)) {
+                throw new Error("Method " + method.getName() + " of " + asyncInterface.getName() + " must return a CompletableFuture");
+            }
+            Method remote;
+            try {
+                remote = c.getMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                throw new Error("Method " + method.getName() + " of " + asyncInterface.getName() + " has no counterpart in " + c.getName());
+            }
+            entries.put(method, table.entryOf(remote));
+        }
+        return entries;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    if (args[0] == null || !Proxy.isProxyClass(args[0].getClass())) {
+                        return false;
+                    }
+                    InvocationHandler handler = Proxy.getInvocationHandler(args[0]);
+                    if (!(handler instanceof AsyncStubInvocationHandler)) {
+                        return false;
+                    }
+                    AsyncStubInvocationHandler other = (AsyncStubInvocationHandler) handler;
+                    return ia.equals(other.ia) && c.equals(other.c) && asyncInterface.equals(other.asyncInterface);
+                case "hashCode":
+                    return (ia.hashCode() * 17 + c.hashCode()) * 31 + asyncInterface.hashCode();
+                default:
+                    return "Interface Name: " + asyncInterface.getName() + " (" + c.getName() + ") Remote Address: " + ia.getHostName() + ":" + ia.getPort();
+            }
+        }
+
+        if (entries == null) {
+            entries = bind(c, asyncInterface);
+        }
+        MethodTable.Entry entry = entries.get(method);
+        MethodPack methodPack = new MethodPack(entry.id, args == null ? new Object[0] : args);
+        MessagePackage request = new MessagePackage<>(MessageType.METHOD_INVOKE, methodPack);
+        request.setTimeout(StubInvocationHandler.timeoutOf(entry, timeout));
+        request.setInterfaceId(MethodTable.of(c).interfaceId);
+        Tracing.Active span = Tracing.startClient(request, entry.signature);
+
+        CompletableFuture<MessagePackage> response = ConnectionPool.getDefault().call(ia, entry.priority, request, entry.idempotent);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        response.whenCompleteAsync((message, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else if (message.getMessageType() == MessageType.INVOKE_SUCCESS) {
+                result.complete(message.getData());
+            } else if (message.getMessageType() == MessageType.INVOKE_FAILED) {
+                result.completeExceptionally((Throwable) message.getData());
+            } else {
+                result.completeExceptionally(new RMIException("Unexpected response " + message.getMessageType()));
+            }
+        });
+        result.whenComplete((value, failure) -> {
+            if (result.isCancelled()) {
+                response.cancel(false);
+            }
+            if (span != null) {
+                span.finish(failure != null);
+            }
+        });
+        return result;
+    }
+}
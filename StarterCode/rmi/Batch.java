@@ -0,0 +1,299 @@
+package rmi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/** Batch of remote calls sent to a skeleton in a single round trip.
+
+    <p>
+    Calls are added to a batch by passing a function that makes one call on the
+    stub it is given. The call is recorded rather than sent, and a
+    <code>Result</code> is returned for it. When the batch is executed, all
+    recorded calls are sent in one request, run by the skeleton one after
+    another in the order in which they were added, and their outcomes returned
+    in one response. For example, a directory can be listed and each of its
+    entries checked with two round trips:
+
+    <pre>
+    String[] names = service.list(directory);
+
+    Batch&lt;Service&gt; batch = Stub.batch(Service.class, service);
+    ArrayList&lt;Batch.Result&lt;Boolean&gt;&gt; results = new ArrayList&lt;&gt;();
+    for (String name : names) {
+        Path child = new Path(directory, name);
+        results.add(batch.add(s -&gt; s.isDirectory(child)));
+    }
+    batch.execute();
+    </pre>
+
+    <p>
+    Each call succeeds or fails on its own. If one call throws an exception,
+    for example a <code>FileNotFoundException</code>, the exception is
+    rethrown by the <code>get</code> method of that call's result, and the
+    other calls of the batch are unaffected.
+
+    <p>
+    The batch as a whole is subject to the default timeout of the stub it was
+    created from; <code>Timeout</code> annotations of the batched methods do
+    not apply. A batch containing any call to a method in the
+    <code>BULK</code> priority class is sent and run as a bulk call.
+
+    <p>
+    A batch is executed once. It is not safe for use by several threads at the
+    same time.
+ */
+public class Batch<T>
+{
+    private final InetSocketAddress address;
+    private final long timeout;
+    private final MethodTable table;
+    private final T recorder;
+    private final ArrayList<MethodPack> calls;
+    private final ArrayList<Result<?>> results;
+    private MethodPack recorded;
+    private PriorityClass priority;
+    private boolean executed;
+
+    Batch(Class<T> c, InetSocketAddress address, long timeout)
+    {
+        this.address = address;
+        this.timeout = timeout;
+        this.table = MethodTable.of(c);
+        this.calls = new ArrayList<>();
+        this.results = new ArrayList<>();
+        this.recorder = c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class[]{c}, new Recorder()));
+        this.priority = PriorityClass.CONTROL;
+        this.executed = false;
+    }
+
+    /** A function making one call on a stub. */
+    public interface Call<T, R>
+    {
+        R invoke(T stub) throws Exception;
+    }
+
+    /** Adds a call to the batch.
+
+        @param call A function making exactly one call on the stub it is given
+                    and returning its result. The value returned by the stub
+                    during recording is a placeholder and must not be used.
+        @return The result of the call, available once the batch has been
+                executed.
+        @throws IllegalStateException If the batch has already been executed.
+        @throws IllegalArgumentException If <code>call</code> does not make
+                                         exactly one call on the stub.
+     */
+    public <R> Result<R> add(Call<T, R> call)
+    {
+        if (executed) {
+            throw new IllegalStateException("Batch has already been executed.");
+        }
+        recorded = null;
+        try {
+            call.invoke(recorder);
+        } catch (IllegalArgumentException e) {
+            recorded = null;
+            throw e;
+        } catch (Exception e) {
+            recorded = null;
+            throw new IllegalArgumentException("Call failed while being recorded", e);
+        }
+        if (recorded == null) {
+            throw new IllegalArgumentException("Call does not invoke a remote method.");
+        }
+        calls.add(recorded);
+        Result<R> result = new Result<>();
+        results.add(result);
+        recorded = null;
+        return result;
+    }
+
+    /** Returns the number of calls in the batch. */
+    public int size()
+    {
+        return calls.size();
+    }
+
+    /** Sends the batch and waits for the outcomes of all calls.
+
+        @throws RMIException If the batch cannot be sent or its response cannot
+                             be received, or an <code>OverloadException</code>
+                             if the skeleton refused the batch. In this case
+                             the result of every call rethrows the same
+                             exception.
+        @throws IllegalStateException If the batch has already been executed.
+     */
+    public void execute() throws RMIException
+    {
+        if (executed) {
+            throw new IllegalStateException("Batch has already been executed.");
+        }
+        executed = true;
+        if (calls.isEmpty()) {
+            return;
+        }
+
+        BatchPack batchPack = new BatchPack(calls.toArray(new MethodPack[0]));
+        MessagePackage request = new MessagePackage<>(MessageType.BATCH_INVOKE, batchPack);
+        request.setTimeout((int) Math.min(Integer.MAX_VALUE, timeout));
+        request.setInterfaceId(table.interfaceId);
+        Tracing.Active span = Tracing.startClient(request, "batch");
+        boolean idempotent = true;
+        for (MethodPack call : calls) {
+            idempotent &= table.get(call.getMethodId()).idempotent;
+        }
+        CompletableFuture<MessagePackage> future = ConnectionPool.getDefault().call(address, priority, request, idempotent);
+        MessagePackage response;
+        try {
+            response = future.get();
+        } catch (ExecutionException e) {
+            if (span != null) {
+                span.finish(true);
+            }
+            failAll((RMIException) e.getCause());
+            throw (RMIException) e.getCause();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            if (span != null) {
+                span.finish(true);
+            }
+            RMIException failure = new RMIException("Interrupted while waiting for response", e);
+            failAll(failure);
+            throw failure;
+        }
+        if (span != null) {
+            span.finish(response.getMessageType() != MessageType.BATCH_RESULT);
+        }
+
+        if (response.getMessageType() != MessageType.BATCH_RESULT) {
+            RMIException failure = response.getData() instanceof RMIException
+                ? (RMIException) response.getData()
+                : response.getData() instanceof Throwable
+                ? new RMIException("Batch failed", (Throwable) response.getData())
+                : new RMIException("Unexpected response " + response.getMessageType());
+            failAll(failure);
+            throw failure;
+        }
+
+        BatchResult batchResult = (BatchResult) response.getData();
+        Object[] values = batchResult.getValues();
+        boolean[] failed = batchResult.getFailed();
+        if (values.length != results.size()) {
+            RMIException failure = new RMIException("Batch response has " + values.length + " results for " + results.size() + " calls");
+            failAll(failure);
+            throw failure;
+        }
+        for (int i = 0; i < values.length; i++) {
+            results.get(i).set(values[i], failed[i]);
+        }
+    }
+
+    private void failAll(RMIException failure)
+    {
+        for (Result<?> result : results) {
+            result.set(failure, true);
+        }
+    }
+
+    /** Result of one call in a batch. */
+    public static class Result<R>
+    {
+        private Object value;
+        private boolean failed;
+        private boolean done;
+
+        private Result()
+        {
+            this.done = false;
+        }
+
+        private void set(Object value, boolean failed)
+        {
+            this.value = value;
+            this.failed = failed;
+            this.done = true;
+        }
+
+        /** Returns <code>true</code> once the batch has been executed. */
+        public boolean isDone()
+        {
+            return done;
+        }
+
+        /** Returns the value returned by the call.
+
+            @throws Exception The exception thrown by the remote method, or an
+                              <code>RMIException</code> if the batch could not
+                              be executed.
+            @throws IllegalStateException If the batch has not been executed.
+         */
+        public R get() throws Exception
+        {
+            if (!done) {
+                throw new IllegalStateException("Batch has not been executed.");
+            }
+            if (failed) {
+                if (value instanceof Error) {
+                    throw (Error) value;
+                }
+                throw (Exception) value;
+            }
+            // The value was returned by the call recorded for this result,
+            // whose return type is R.
+            @SuppressWarnings("unchecked")
+            R result = (R) value;
+            return result;
+        }
+    }
+
+    /** Records the calls made on the recording stub. */
+    private class Recorder implements InvocationHandler
+    {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if (method.getDeclaringClass() == Object.class) {
+                throw new IllegalArgumentException("Only remote methods can be batched.");
+            }
+            if (recorded != null) {
+                throw new IllegalArgumentException("Only one remote method can be called per batched call.");
+            }
+            MethodTable.Entry entry = table.entryOf(method);
+            recorded = new MethodPack(entry.id, args == null ? new Object[0] : args);
+            if (entry.priority == PriorityClass.BULK) {
+                priority = PriorityClass.BULK;
+            }
+            return placeholder(method.getReturnType());
+        }
+    }
+
+    /** Returns a value of the given type to return from a recorded call. */
+    private static Object placeholder(Class<?> type)
+    {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else {
+            return 0d;
+        }
+    }
+}
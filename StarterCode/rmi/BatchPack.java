@@ -0,0 +1,20 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** Ordered list of method invocations sent in one request. */
+public class BatchPack implements Serializable {
+    private MethodPack[] calls;
+
+    public BatchPack(MethodPack[] calls) {
+        this.calls = calls;
+    }
+
+    public MethodPack[] getCalls() {
+        return calls;
+    }
+
+    public void setCalls(MethodPack[] calls) {
+        this.calls = calls;
+    }
+}
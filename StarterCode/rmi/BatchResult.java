@@ -0,0 +1,39 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** Outcomes of the invocations in a batch, in the order they were sent.
+
+    <p>
+    For each invocation the result carries either the value it returned, or
+    the exception it threw. The invocations of a batch are independent: an
+    exception thrown by one does not prevent the others from running.
+ */
+public class BatchResult implements Serializable {
+    private Object[] values;
+    private boolean[] failed;
+
+    public BatchResult(Object[] values, boolean[] failed) {
+        this.values = values;
+        this.failed = failed;
+    }
+
+    /** Returns the value returned by each invocation, or, for invocations
+        that failed, the exception thrown. */
+    public Object[] getValues() {
+        return values;
+    }
+
+    public void setValues(Object[] values) {
+        this.values = values;
+    }
+
+    /** Returns, for each invocation, whether it threw an exception. */
+    public boolean[] getFailed() {
+        return failed;
+    }
+
+    public void setFailed(boolean[] failed) {
+        this.failed = failed;
+    }
+}
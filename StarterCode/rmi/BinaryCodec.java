@@ -0,0 +1,446 @@
+package rmi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+import common.Path;
+
+/** Compact binary codec.
+
+    <p>
+    A message is written as its type, its correlation ID, its timeout, its
+    trace context, request token and interface ID, and its payload. The
+    trace context, token and interface ID take one byte for messages that
+    have none of them. The payload, and every value inside it, is written as a one-byte
+    tag followed by a compact encoding of the value. Method invocations and batches of them,
+    <code>Path</code> objects, strings, boxed primitives and the arrays commonly
+    passed through the filesystem interfaces - <code>byte[]</code>,
+    <code>String[]</code> and <code>Path[]</code> - have dedicated tags and are
+    written without class descriptors. Any other value, such as an exception or a stub, is written
+    with Java serialization, as by <code>SerializationCodec</code>.
+
+    <p>
+    When a message is written as a frame, <code>byte[]</code> values of at
+    least the attachment threshold are not copied into the message. Only their
+    length is written, and the arrays themselves are sent as attachments of
+    the frame. On a connection with compression, arrays of at least the
+    compression threshold are written compressed instead, when that makes them
+    smaller.
+ */
+public class BinaryCodec implements Codec
+{
+    /** Codec ID used in the connection handshake. */
+    public static final byte ID = 2;
+
+    /** Shared instance of the codec. */
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte PATH = 10;
+    private static final byte BYTE_ARRAY = 11;
+    private static final byte STRING_ARRAY = 12;
+    private static final byte PATH_ARRAY = 13;
+    private static final byte OBJECT_ARRAY = 14;
+    private static final byte METHOD_PACK = 15;
+    private static final byte SERIALIZED = 16;
+    private static final byte BATCH_PACK = 17;
+    private static final byte BATCH_RESULT = 18;
+    private static final byte ATTACHED_BYTE_ARRAY = 19;
+    private static final byte COMPRESSED_BYTE_ARRAY = 20;
+
+    /** Flag set on messages carrying a trace context. */
+    static final int TRACED = 1;
+    /** Flag set on messages carrying a request token. */
+    static final int TOKEN = 2;
+    /** Flag set on messages carrying an interface ID. */
+    static final int INTERFACE = 4;
+
+    private static final MessageType[] messageTypes = MessageType.values();
+
+    @Override
+    public byte getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public void writeMessage(DataOutputStream output, MessagePackage message)
+        throws IOException
+    {
+        output.writeByte(message.getMessageType().ordinal());
+        output.writeLong(message.getId());
+        output.writeInt(message.getTimeout());
+        writeContext(output, message);
+        writeValue(output, message.getData());
+    }
+
+    @Override
+    public MessagePackage readMessage(DataInputStream input) throws IOException
+    {
+        MessageType type = readMessageType(input);
+        long id = input.readLong();
+        int timeout = input.readInt();
+        int flags = input.readUnsignedByte();
+        long traceId = 0;
+        long spanId = 0;
+        long token = 0;
+        int interfaceId = 0;
+        if ((flags & TRACED) != 0) {
+            traceId = input.readLong();
+            spanId = input.readLong();
+        }
+        if ((flags & TOKEN) != 0) {
+            token = input.readLong();
+        }
+        if ((flags & INTERFACE) != 0) {
+            interfaceId = input.readInt();
+        }
+        MessagePackage message = new MessagePackage<>(type, (Serializable) readValue(input));
+        message.setId(id);
+        message.setTimeout(timeout);
+        message.setTraceId(traceId);
+        message.setSpanId(spanId);
+        message.setToken(token);
+        message.setInterfaceId(interfaceId);
+        return message;
+    }
+
+    /** Writes the trace context, request token and interface ID of a
+        message: a byte of flags, followed by the trace and span IDs if the
+        message is traced, by the token if it has one, and by the interface
+        ID if it has one. */
+    static void writeContext(DataOutputStream output, MessagePackage message)
+        throws IOException
+    {
+        int flags = (message.getTraceId() != 0 ? TRACED : 0)
+            | (message.getToken() != 0 ? TOKEN : 0)
+            | (message.getInterfaceId() != 0 ? INTERFACE : 0);
+        output.writeByte(flags);
+        if (message.getTraceId() != 0) {
+            output.writeLong(message.getTraceId());
+            output.writeLong(message.getSpanId());
+        }
+        if (message.getToken() != 0) {
+            output.writeLong(message.getToken());
+        }
+        if (message.getInterfaceId() != 0) {
+            output.writeInt(message.getInterfaceId());
+        }
+    }
+
+    /** Writes a tagged value. */
+    static void writeValue(DataOutputStream output, Object value)
+        throws IOException
+    {
+        if (value == null) {
+            output.writeByte(NULL);
+            return;
+        }
+
+        Class<?> type = value.getClass();
+        if (type == Path.class) {
+            output.writeByte(PATH);
+            writeString(output, value.toString());
+        } else if (type == String.class) {
+            output.writeByte(STRING);
+            writeString(output, (String) value);
+        } else if (type == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            if (output instanceof Frames.Output && ((Frames.Output) output).compresses()
+                    && bytes.length >= Compression.getThreshold()) {
+                byte[] compressed = new byte[bytes.length];
+                int length = Compression.compress(bytes, compressed);
+                if (length >= 0) {
+                    output.writeByte(COMPRESSED_BYTE_ARRAY);
+                    output.writeInt(bytes.length);
+                    output.writeInt(length);
+                    output.write(compressed, 0, length);
+                    return;
+                }
+            }
+            if (output instanceof Frames.Output && bytes.length >= Frames.getAttachmentThreshold()) {
+                output.writeByte(ATTACHED_BYTE_ARRAY);
+                output.writeInt(bytes.length);
+                ((Frames.Output) output).attach(bytes);
+            } else {
+                output.writeByte(BYTE_ARRAY);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+        } else if (type == Integer.class) {
+            output.writeByte(INT);
+            output.writeInt((Integer) value);
+        } else if (type == Long.class) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (type == Boolean.class) {
+            output.writeByte(BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (type == MethodPack.class) {
+            MethodPack methodPack = (MethodPack) value;
+            output.writeByte(METHOD_PACK);
+            output.writeInt(methodPack.getMethodId());
+            writeValues(output, methodPack.getParas());
+        } else if (type == BatchPack.class) {
+            MethodPack[] calls = ((BatchPack) value).getCalls();
+            output.writeByte(BATCH_PACK);
+            output.writeInt(calls.length);
+            for (MethodPack call : calls) {
+                output.writeInt(call.getMethodId());
+                writeValues(output, call.getParas());
+            }
+        } else if (type == BatchResult.class) {
+            BatchResult result = (BatchResult) value;
+            output.writeByte(BATCH_RESULT);
+            output.writeInt(result.getValues().length);
+            for (int i = 0; i < result.getValues().length; i++) {
+                output.writeBoolean(result.getFailed()[i]);
+                writeValue(output, result.getValues()[i]);
+            }
+        } else if (type == Path[].class) {
+            Path[] paths = (Path[]) value;
+            output.writeByte(PATH_ARRAY);
+            output.writeInt(paths.length);
+            for (Path path : paths) {
+                writeString(output, path == null ? null : path.toString());
+            }
+        } else if (type == String[].class) {
+            String[] strings = (String[]) value;
+            output.writeByte(STRING_ARRAY);
+            output.writeInt(strings.length);
+            for (String string : strings) {
+                writeString(output, string);
+            }
+        } else if (type == Object[].class) {
+            output.writeByte(OBJECT_ARRAY);
+            writeValues(output, (Object[]) value);
+        } else if (type == Byte.class) {
+            output.writeByte(BYTE);
+            output.writeByte((Byte) value);
+        } else if (type == Short.class) {
+            output.writeByte(SHORT);
+            output.writeShort((Short) value);
+        } else if (type == Character.class) {
+            output.writeByte(CHAR);
+            output.writeChar((Character) value);
+        } else if (type == Float.class) {
+            output.writeByte(FLOAT);
+            output.writeFloat((Float) value);
+        } else if (type == Double.class) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else {
+            output.writeByte(SERIALIZED);
+            SerializationCodec.writeObject(output, value);
+        }
+    }
+
+    /** Reads a value written by <code>writeValue</code>. */
+    static Object readValue(DataInputStream input) throws IOException
+    {
+        byte tag = input.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return input.readBoolean();
+            case BYTE:
+                return input.readByte();
+            case SHORT:
+                return input.readShort();
+            case CHAR:
+                return input.readChar();
+            case INT:
+                return input.readInt();
+            case LONG:
+                return input.readLong();
+            case FLOAT:
+                return input.readFloat();
+            case DOUBLE:
+                return input.readDouble();
+            case STRING:
+                return readString(input);
+            case PATH:
+                return toPath(readString(input));
+            case BYTE_ARRAY: {
+                byte[] bytes = new byte[readLength(input)];
+                input.readFully(bytes);
+                return bytes;
+            }
+            case ATTACHED_BYTE_ARRAY: {
+                int length = input.readInt();
+                if (!(input instanceof Frames.Input)) {
+                    throw new IOException("Attached array outside a frame");
+                }
+                return ((Frames.Input) input).expect(length);
+            }
+            case COMPRESSED_BYTE_ARRAY: {
+                int length = readLength(input, Integer.MAX_VALUE);
+                return Compression.decompress(input, readLength(input), length);
+            }
+            case STRING_ARRAY: {
+                String[] strings = new String[readLength(input)];
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = readString(input);
+                }
+                return strings;
+            }
+            case PATH_ARRAY: {
+                Path[] paths = new Path[readLength(input)];
+                for (int i = 0; i < paths.length; i++) {
+                    String path = readString(input);
+                    paths[i] = path == null ? null : toPath(path);
+                }
+                return paths;
+            }
+            case OBJECT_ARRAY:
+                return readValues(input);
+            case METHOD_PACK: {
+                int methodId = input.readInt();
+                return new MethodPack(methodId, readValues(input));
+            }
+            case BATCH_PACK: {
+                MethodPack[] calls = new MethodPack[readLength(input)];
+                for (int i = 0; i < calls.length; i++) {
+                    int methodId = input.readInt();
+                    calls[i] = new MethodPack(methodId, readValues(input));
+                }
+                return new BatchPack(calls);
+            }
+            case BATCH_RESULT: {
+                int length = readLength(input);
+                Object[] values = new Object[length];
+                boolean[] failed = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    failed[i] = input.readBoolean();
+                    values[i] = readValue(input);
+                }
+                return new BatchResult(values, failed);
+            }
+            case SERIALIZED:
+                return SerializationCodec.readObject(input);
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static void writeValues(DataOutputStream output, Object[] values)
+        throws IOException
+    {
+        if (values == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(values.length);
+        for (Object value : values) {
+            writeValue(output, value);
+        }
+    }
+
+    private static Object[] readValues(DataInputStream input) throws IOException
+    {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        } else if (length < 0) {
+            throw new IOException("Negative array length");
+        } else if (length > Frames.envelopeLength(input)) {
+            throw new IOException("Array length exceeds the message");
+        }
+        Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readValue(input);
+        }
+        return values;
+    }
+
+    /** Writes a string as its UTF-8 length and bytes. A <code>null</code>
+        string is written as length -1. */
+    private static void writeString(DataOutputStream output, String string)
+        throws IOException
+    {
+        if (string == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException
+    {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        } else if (length < 0) {
+            throw new IOException("Negative string length");
+        } else if (length > Frames.envelopeLength(input)) {
+            throw new IOException("String length exceeds the message");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Rebuilds a path from its string form. The root directory is created
+        with the <code>Path()</code> constructor, which other paths are built
+        from. */
+    private static Path toPath(String path) throws IOException
+    {
+        if (path == null) {
+            throw new IOException("Missing path string");
+        }
+        if (path.equals("/")) {
+            return new Path();
+        }
+        try {
+            return new Path(path);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed path " + path, e);
+        }
+    }
+
+    /** Reads the length or element count of a value stored in the envelope
+        being decoded. Neither can exceed the length of the envelope itself,
+        so a larger one is refused before anything is allocated for it. */
+    static int readLength(DataInputStream input) throws IOException
+    {
+        return readLength(input, Frames.envelopeLength(input));
+    }
+
+    /** Reads a non-negative length of at most <code>limit</code>. */
+    static int readLength(DataInputStream input, int limit) throws IOException
+    {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("Negative length");
+        }
+        if (length > limit) {
+            throw new IOException("Length " + length + " exceeds the message");
+        }
+        return length;
+    }
+
+    /** Reads a message type written as its ordinal. */
+    static MessageType readMessageType(DataInputStream input) throws IOException
+    {
+        int ordinal = input.readUnsignedByte();
+        if (ordinal >= messageTypes.length) {
+            throw new IOException("Unknown message type " + ordinal);
+        }
+        return messageTypes[ordinal];
+    }
+}
@@ -0,0 +1,17 @@
+package rmi;
+
+/** Thrown when a remote call does not complete before its deadline.
+
+    <p>
+    The stub throws this exception once it has given up on a call. The call
+    may still have been executed by the skeleton, in whole or in part.
+ */
+public class CallTimeoutException extends RMIException
+{
+    /** Creates a <code>CallTimeoutException</code> with the given message
+        string. */
+    public CallTimeoutException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,71 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Count of the requests a skeleton has received and not yet answered.
+
+    <p>
+    Every request accepted by a skeleton's handler is entered, and exited once
+    its response has been written or dropped. A stopping skeleton waits on the
+    tracker, and is woken by the exit of the last outstanding request rather
+    than by polling.
+ */
+class CallTracker
+{
+    private final AtomicInteger calls;
+    private volatile boolean draining;
+
+    CallTracker()
+    {
+        this.calls = new AtomicInteger();
+        this.draining = false;
+    }
+
+    /** Called when a request is received. */
+    void enter()
+    {
+        calls.incrementAndGet();
+    }
+
+    /** Called when the response to a request has been written or dropped. */
+    void exit()
+    {
+        if (calls.decrementAndGet() == 0 && draining) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /** Returns the number of outstanding requests. */
+    int outstanding()
+    {
+        return calls.get();
+    }
+
+    /** Waits until there are no outstanding requests.
+
+        @param timeout Maximum time to wait, in milliseconds.
+        @return <code>true</code> if there are no outstanding requests, and
+                <code>false</code> if the timeout expired or the thread was
+                interrupted first.
+     */
+    synchronized boolean awaitIdle(long timeout)
+    {
+        draining = true;
+        long deadline = System.currentTimeMillis() + timeout;
+        while (calls.get() > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+
+/** Circuit breaker of the calls a JVM makes to one skeleton address.
+
+    <p>
+    A breaker starts <em>closed</em>, and lets every call through. When a
+    number of consecutive calls to the address fail to connect, or lose their
+    connection before the response arrives, the breaker <em>opens</em>: calls
+    made while it is open fail at once with a
+    <code>CircuitOpenException</code>, instead of each waiting for a connection
+    attempt to a skeleton which is most likely gone. Once the breaker has been
+    open for the cool-down time, it is <em>half-open</em>: a single trial call
+    is let through, while other calls still fail at once. The breaker closes
+    if the trial call is answered, and opens again for another cool-down if
+    it fails.
+
+    <p>
+    Any answer from the skeleton counts as success, including an exception
+    thrown by the server object or a refusal of an overloaded skeleton. Calls
+    which time out waiting for the response, after having connected, count
+    neither way.
+
+    <p>
+    The state of a breaker may be read at any time, so that callers can
+    choose another server instead of calling one whose breaker is open.
+ */
+public final class CircuitBreaker
+{
+    /** State of a circuit breaker. */
+    public enum State
+    {
+        /** Calls are let through. */
+        CLOSED,
+        /** Calls fail at once. */
+        OPEN,
+        /** A trial call is let through to find out whether the skeleton is
+            back. */
+        HALF_OPEN
+    }
+
+    private final InetSocketAddress address;
+    private int threshold;
+    private long coolDown;
+    private State state;
+    private int failures;
+    private long openedAt;
+    private boolean trial;
+    private long rejected;
+
+    CircuitBreaker(InetSocketAddress address, int threshold, long coolDown)
+    {
+        this.address = address;
+        this.threshold = threshold;
+        this.coolDown = coolDown;
+        this.state = State.CLOSED;
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return address;
+    }
+
+    /** Returns the state of the breaker. A breaker whose cool-down has
+        elapsed is reported as half-open, even if no call has been made
+        since. */
+    public synchronized State getState()
+    {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= coolDown) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /** Returns <code>true</code> unless the breaker is open. A half-open
+        breaker is reported as available, so that callers choosing among
+        servers eventually send it the trial call. */
+    public boolean isAvailable()
+    {
+        return getState() != State.OPEN;
+    }
+
+    /** Returns the number of consecutive calls which have failed to reach
+        the skeleton. */
+    public synchronized int getConsecutiveFailures()
+    {
+        return failures;
+    }
+
+    /** Returns the number of calls failed at once by the breaker. */
+    public synchronized long getRejected()
+    {
+        return rejected;
+    }
+
+    /** Applies the settings of the pool. */
+    synchronized void configure(int threshold, long coolDown)
+    {
+        this.threshold = threshold;
+        this.coolDown = coolDown;
+    }
+
+    /** Decides whether a call may be made.
+
+        @return <code>true</code> if the call is a trial call, whose outcome
+                decides whether the breaker closes.
+        @throws CircuitOpenException If the call must fail at once.
+     */
+    synchronized boolean allow() throws CircuitOpenException
+    {
+        if (state == State.CLOSED) {
+            return false;
+        }
+        if (!trial && System.currentTimeMillis() - openedAt >= coolDown) {
+            state = State.HALF_OPEN;
+            trial = true;
+            return true;
+        }
+        rejected++;
+        throw new CircuitOpenException("Circuit to " + address + " is open after "
+                                       + failures + " failed calls");
+    }
+
+    /** Records a call which the skeleton answered. */
+    synchronized void succeeded(boolean trial)
+    {
+        if (trial) {
+            this.trial = false;
+        }
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    /** Records a call which failed to connect or lost its connection. */
+    synchronized void failed(boolean trial)
+    {
+        if (trial) {
+            this.trial = false;
+        }
+        failures++;
+        if (trial || (state == State.CLOSED && threshold > 0 && failures >= threshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /** Records a call whose outcome says nothing about the skeleton. */
+    synchronized void abandoned(boolean trial)
+    {
+        if (trial) {
+            this.trial = false;
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return address + ": " + getState() + " failures=" + failures
+            + " rejected=" + rejected;
+    }
+}
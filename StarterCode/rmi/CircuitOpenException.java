@@ -0,0 +1,22 @@
+package rmi;
+
+/** Thrown by a stub when a call is failed at once because the circuit
+    breaker of the skeleton's address is open.
+
+    <p>
+    The breaker opens after several consecutive calls to the address have
+    failed to connect or lost their connection. The call has not been sent,
+    so it is safe to make it elsewhere, or to retry it once the breaker lets
+    calls through again.
+
+    @see CircuitBreaker
+ */
+public class CircuitOpenException extends RMIException
+{
+    /** Creates a <code>CircuitOpenException</code> with the given message
+        string. */
+    public CircuitOpenException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,48 @@
+package rmi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** Wire codec for RMI messages.
+
+    <p>
+    A codec turns a <code>MessagePackage</code> into bytes on a connection and
+    back. Codecs are stateless: a single instance may be shared by any number of
+    connections, and one message is encoded or decoded in each call. Callers
+    serialize writes to one stream themselves.
+
+    <p>
+    The codec used on a connection is chosen by the stub. When a connection is
+    opened, the stub sends a short handshake carrying the ID of its codec, and
+    the skeleton then decodes requests and encodes responses on that connection
+    with the codec registered under the same ID in <code>Codecs</code>. Custom
+    codecs can therefore be added without changing either the remote interfaces
+    or the skeleton.
+ */
+public interface Codec
+{
+    /** Returns the ID by which the codec is identified in the connection
+        handshake. IDs must be unique among registered codecs. */
+    byte getId();
+
+    /** Writes one message to the stream. The stream is not flushed.
+
+        @param output The stream to write to.
+        @param message The message to encode.
+        @throws IOException If the message cannot be written, or contains a
+                            value that the codec cannot encode.
+     */
+    void writeMessage(DataOutputStream output, MessagePackage message)
+        throws IOException;
+
+    /** Reads one message from the stream, blocking until it has been read in
+        full.
+
+        @param input The stream to read from.
+        @return The decoded message.
+        @throws IOException If the stream fails or ends, or if the bytes read
+                            do not form a valid message.
+     */
+    MessagePackage readMessage(DataInputStream input) throws IOException;
+}
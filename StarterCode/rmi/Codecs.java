@@ -0,0 +1,179 @@
+package rmi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Registry of wire codecs, and the connection handshake that selects one.
+
+    <p>
+    Every connection starts with a handshake sent by the stub: a magic number
+    identifying the RMI protocol, followed by the ID of the codec the stub will
+    use and a byte of flags. The skeleton looks the ID up in this registry and
+    uses the same codec for the remainder of the connection. Connections
+    carrying an unknown magic number or codec ID are refused. The flags tell
+    the skeleton whether the stub asks for compressed responses.
+
+    <p>
+    The compact <code>BinaryCodec</code> and the Java serialization based
+    <code>SerializationCodec</code> are always registered. New stubs use the
+    binary codec unless another default is set.
+
+    @see Compression
+ */
+public final class Codecs
+{
+    /** Magic number sent at the start of every connection. */
+    static final int MAGIC = 0x524d4931;
+
+    /** Length of the handshake. */
+    static final int HANDSHAKE_LENGTH = 6;
+
+    /** Handshake flag asking for compression. */
+    private static final int COMPRESSION = 1;
+
+    private static final ConcurrentHashMap<Byte, Codec> codecs =
+        new ConcurrentHashMap<>();
+    private static volatile Codec defaultCodec;
+
+    static {
+        register(SerializationCodec.INSTANCE);
+        register(BinaryCodec.INSTANCE);
+        defaultCodec = BinaryCodec.INSTANCE;
+    }
+
+    private Codecs()
+    {
+    }
+
+    /** Registers a codec, so that skeletons accept connections using it.
+
+        @param codec The codec to register.
+        @throws NullPointerException If <code>codec</code> is
+                                     <code>null</code>.
+        @throws IllegalArgumentException If a different codec is already
+                                         registered under the same ID.
+     */
+    public static void register(Codec codec)
+    {
+        if (codec == null) {
+            throw new NullPointerException("Codec should not be null");
+        }
+        Codec existing = codecs.putIfAbsent(codec.getId(), codec);
+        if (existing != null && existing != codec) {
+            throw new IllegalArgumentException("Codec ID " + codec.getId() + " is already registered");
+        }
+    }
+
+    /** Returns the codec registered under the given ID, or <code>null</code>
+        if there is none. */
+    public static Codec get(byte id)
+    {
+        return codecs.get(id);
+    }
+
+    /** Returns the codec used by connections opened from now on. */
+    public static Codec getDefault()
+    {
+        return defaultCodec;
+    }
+
+    /** Sets the codec used by stub connections opened from now on. Connections
+        already open keep the codec they were opened with. The codec is
+        registered if it is not already.
+
+        @throws NullPointerException If <code>codec</code> is
+                                     <code>null</code>.
+     */
+    public static void setDefault(Codec codec)
+    {
+        register(codec);
+        defaultCodec = codec;
+    }
+
+    /** Returns the size, in bytes, from which <code>byte[]</code> values are
+        sent as frame attachments. */
+    public static int getAttachmentThreshold()
+    {
+        return Frames.getAttachmentThreshold();
+    }
+
+    /** Sets the size, in bytes, from which <code>byte[]</code> values are
+        sent as frame attachments rather than copied into the message. The
+        setting applies to messages written from now on, by stubs and
+        skeletons alike. <code>Integer.MAX_VALUE</code> disables attachments.
+
+        @throws IllegalArgumentException If <code>threshold</code> is
+                                         negative.
+     */
+    public static void setAttachmentThreshold(int threshold)
+    {
+        Frames.setAttachmentThreshold(threshold);
+    }
+
+    /** Returns the maximum length, in bytes, of a message received, including
+        its attachments. */
+    public static int getMaxFrameLength()
+    {
+        return Frames.getMaxFrameLength();
+    }
+
+    /** Sets the maximum length, in bytes, of a message received, including
+        its attachments. A stub or skeleton receiving a longer message closes
+        the connection it arrived on without reading it. The setting applies
+        to messages received from now on, by stubs and skeletons alike. The
+        default is 64 MiB.
+
+        @throws IllegalArgumentException If <code>length</code> is less than
+                                         the length of a frame header.
+     */
+    public static void setMaxFrameLength(int length)
+    {
+        Frames.setMaxFrameLength(length);
+    }
+
+    /** Writes the handshake selecting <code>codec</code>. The stream is not
+        flushed. */
+    static void writeHandshake(DataOutputStream output, Handshake handshake)
+        throws IOException
+    {
+        output.writeInt(MAGIC);
+        output.writeByte(handshake.codec.getId());
+        output.writeByte(handshake.compression ? COMPRESSION : 0);
+    }
+
+    /** Reads a handshake.
+
+        @throws IOException If the stream fails, or if the handshake is
+                            malformed or names an unknown codec.
+     */
+    static Handshake readHandshake(DataInputStream input) throws IOException
+    {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not an RMI connection");
+        }
+        byte id = input.readByte();
+        Codec codec = get(id);
+        if (codec == null) {
+            throw new IOException("Unknown codec " + id);
+        }
+        int flags = input.readUnsignedByte();
+        return new Handshake(codec, (flags & COMPRESSION) != 0);
+    }
+
+    /** Settings a stub chooses for a connection. */
+    static final class Handshake
+    {
+        /** Codec of every message on the connection. */
+        final Codec codec;
+        /** Whether the stub asks for compression. */
+        final boolean compression;
+
+        Handshake(Codec codec, boolean compression)
+        {
+            this.codec = codec;
+            this.compression = compression;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package rmi;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** Compression of large <code>byte[]</code> values, and its statistics.
+
+    <p>
+    Compression is negotiated per connection. When compression is enabled in
+    the stub's JVM, new connections announce it in their handshake, and the
+    stub compresses the requests it sends on them. A skeleton compresses its
+    responses on a connection only if the stub asked for compression and
+    compression is enabled in the skeleton's JVM as well. Either side can
+    always decode compressed values.
+
+    <p>
+    Only <code>byte[]</code> values of at least the compression threshold are
+    compressed, so small calls never pay for it. Values are compressed with
+    Deflate at its fastest level, and sent uncompressed if that does not make
+    them smaller, as is the case for data which is already compressed. Only
+    the binary codec compresses values.
+
+    <p>
+    The counters kept by this class cover every value that this JVM has
+    considered for compression, by stubs and skeletons alike.
+ */
+public final class Compression
+{
+    /** Default size, in bytes, from which arrays are compressed. */
+    public static final int DEFAULT_THRESHOLD = 8192;
+
+    private static volatile boolean enabled = false;
+    private static volatile int threshold = DEFAULT_THRESHOLD;
+
+    private static final AtomicLong compressedValues = new AtomicLong();
+    private static final AtomicLong skippedValues = new AtomicLong();
+    private static final AtomicLong rawBytes = new AtomicLong();
+    private static final AtomicLong compressedBytes = new AtomicLong();
+
+    private static final ThreadLocal<Deflater> deflaters =
+        ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters =
+        ThreadLocal.withInitial(Inflater::new);
+
+    private Compression()
+    {
+    }
+
+    /** Returns <code>true</code> if connections opened from now on ask for
+        compression, and skeletons compress responses for stubs that ask. */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /** Enables or disables compression. Stub connections already open keep
+        the setting they were opened with. Compression is disabled by
+        default. */
+    public static void setEnabled(boolean enabled)
+    {
+        Compression.enabled = enabled;
+    }
+
+    /** Returns the size from which arrays are compressed. */
+    public static int getThreshold()
+    {
+        return threshold;
+    }
+
+    /** Sets the size, in bytes, from which arrays are compressed.
+
+        @throws IllegalArgumentException If <code>threshold</code> is not
+                                         positive.
+     */
+    public static void setThreshold(int threshold)
+    {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Compression threshold must be positive.");
+        }
+        Compression.threshold = threshold;
+    }
+
+    /** Returns the number of arrays sent compressed. */
+    public static long getCompressedValues()
+    {
+        return compressedValues.get();
+    }
+
+    /** Returns the number of arrays of at least the threshold that were sent
+        uncompressed, because compressing them did not make them smaller. */
+    public static long getSkippedValues()
+    {
+        return skippedValues.get();
+    }
+
+    /** Returns the total size of the arrays sent compressed, before
+        compression. */
+    public static long getRawBytes()
+    {
+        return rawBytes.get();
+    }
+
+    /** Returns the total size of the arrays sent compressed, after
+        compression. */
+    public static long getCompressedBytes()
+    {
+        return compressedBytes.get();
+    }
+
+    /** Returns the ratio of the size of the arrays sent compressed before
+        compression to their size after it, or 1 if none has been sent. */
+    public static double getRatio()
+    {
+        long compressed = compressedBytes.get();
+        return compressed == 0 ? 1.0 : (double) rawBytes.get() / compressed;
+    }
+
+    /** Compresses an array.
+
+        @param data The array.
+        @param buffer Array of at least the length of <code>data</code> to
+                      receive the compressed bytes.
+        @return The length of the compressed data, or -1 if compression would
+                not make the array smaller.
+     */
+    static int compress(byte[] data, byte[] buffer)
+    {
+        Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            int length = deflater.deflate(buffer, 0, data.length);
+            if (!deflater.finished() || length >= data.length) {
+                skippedValues.incrementAndGet();
+                return -1;
+            }
+            compressedValues.incrementAndGet();
+            rawBytes.addAndGet(data.length);
+            compressedBytes.addAndGet(length);
+            return length;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /** Reads compressed data from a stream and decompresses it.
+
+        @param input The stream.
+        @param compressedLength The number of compressed bytes to read.
+        @param length The length of the data once decompressed.
+        @return The decompressed data.
+        @throws IOException If the stream fails, the data is corrupt or does
+                            not have the given length, or the length is
+                            greater than the maximum frame length.
+     */
+    static byte[] decompress(DataInputStream input, int compressedLength,
+                             int length) throws IOException
+    {
+        // A few bytes of compressed data can claim to expand to any length,
+        // so it is held to the same maximum as a frame.
+        int max = Frames.getMaxFrameLength();
+        if (length > max) {
+            throw new IOException("Compressed array of " + length + " bytes exceeds the maximum of " + max);
+        }
+        byte[] compressed = new byte[compressedLength];
+        input.readFully(compressed);
+        byte[] data = new byte[length];
+        Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(compressed);
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int count = inflater.inflate(data, inflated, length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != length) {
+                throw new IOException("Compressed array does not match its length");
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed array", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+}
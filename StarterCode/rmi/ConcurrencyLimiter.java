@@ -0,0 +1,257 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/** Adaptive bound on the number of calls a JVM has in flight to one
+    skeleton.
+
+    <p>
+    The connection pool keeps a limiter for each address and priority class it
+    sends calls to, when adaptive limiting is enabled. A call is sent only
+    while fewer calls than the current limit are in flight to its address;
+    otherwise it is queued until a call completes, or fails at once with an
+    <code>OverloadException</code> if as many calls as the pool allows are
+    already queued. Queued calls do not hold the calling thread, so that
+    asynchronous stubs never block on the limit; they are sent in the order
+    in which they were queued. A queued call whose timeout elapses, or which
+    is cancelled, leaves the queue.
+
+    <p>
+    The limit is adjusted by additive increase and multiplicative decrease,
+    driven by the latency of completed calls. The limiter tracks the lowest
+    latency seen recently as the latency of the skeleton without load. A call
+    which takes more than the tolerance times as long, or which times out or
+    is refused by the skeleton as overloaded, is taken as a sign that the
+    skeleton is congested, and the limit is cut by a tenth, at most once per
+    such latency. A call completing faster while at least half the limit is
+    in use raises the limit by one call per limit's worth of calls. The limit
+    thus grows while the skeleton keeps up, and shrinks as soon as latency
+    builds up, instead of letting queued calls pile up on the skeleton.
+
+    <p>
+    The getters of this class return live values, and may be read at any time
+    as metrics.
+ */
+public final class ConcurrencyLimiter
+{
+    /** Number of calls after which the no-load latency is re-estimated. */
+    private static final int BASELINE_WINDOW = 500;
+    /** Factor by which the limit is cut on congestion. */
+    private static final double BACKOFF = 0.9;
+
+    private final InetSocketAddress address;
+    private final PriorityClass priority;
+    private double limit;
+    private int minLimit;
+    private int maxLimit;
+    private int maxQueued;
+    private double tolerance;
+    private int inFlight;
+    private final ArrayDeque<CompletableFuture<Void>> queue;
+    private long rejected;
+    private long baseline;
+    private long windowMin;
+    private int samples;
+    private long lastDecrease;
+
+    ConcurrencyLimiter(InetSocketAddress address, PriorityClass priority,
+                       int initialLimit, int minLimit, int maxLimit,
+                       int maxQueued, double tolerance)
+    {
+        this.address = address;
+        this.priority = priority;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.maxQueued = maxQueued;
+        this.tolerance = tolerance;
+        this.queue = new ArrayDeque<>();
+        this.windowMin = Long.MAX_VALUE;
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return address;
+    }
+
+    public PriorityClass getPriority()
+    {
+        return priority;
+    }
+
+    /** Returns the number of calls that may currently be in flight. */
+    public synchronized int getLimit()
+    {
+        return (int) limit;
+    }
+
+    /** Returns the number of calls in flight. */
+    public synchronized int getInFlight()
+    {
+        return inFlight;
+    }
+
+    /** Returns the number of calls waiting for the number of calls in flight
+        to drop below the limit. */
+    public synchronized int getQueued()
+    {
+        return queue.size();
+    }
+
+    /** Returns the number of calls failed at once because too many calls
+        were queued already. */
+    public synchronized long getRejected()
+    {
+        return rejected;
+    }
+
+    /** Returns the estimated latency, in nanoseconds, of a call to the
+        skeleton without load, or zero if no call has completed yet. */
+    public synchronized long getBaselineLatency()
+    {
+        return baseline;
+    }
+
+    /** Applies the settings of the pool. */
+    void configure(int minLimit, int maxLimit, int maxQueued, double tolerance)
+    {
+        ArrayList<CompletableFuture<Void>> admitted;
+        synchronized (this) {
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.maxQueued = maxQueued;
+            this.tolerance = tolerance;
+            this.limit = Math.max(minLimit, Math.min(maxLimit, limit));
+            admitted = admit();
+        }
+        grant(admitted);
+    }
+
+    /** Takes a place for a call, or queues the call for one if the limit has
+        been reached.
+
+        @return A future completed once the call has its place: at once if a
+                place is free, or otherwise when a call ahead of it gives its
+                place back. The place must be given back with
+                <code>release</code> once the call completes. A queued call
+                is abandoned by completing the future, exceptionally or by
+                cancelling it, which removes it from the queue.
+        @throws OverloadException If too many calls are queued already.
+     */
+    CompletableFuture<Void> acquire() throws OverloadException
+    {
+        CompletableFuture<Void> place = new CompletableFuture<>();
+        synchronized (this) {
+            if (queue.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                place.complete(null);
+                return place;
+            }
+            if (queue.size() >= maxQueued) {
+                rejected++;
+                throw new OverloadException("Concurrency limit of " + (int) limit
+                                            + " calls to " + address + " reached");
+            }
+            queue.add(place);
+        }
+        place.whenComplete((granted, failure) -> {
+            if (failure != null) {
+                leave(place);
+            }
+        });
+        return place;
+    }
+
+    /** Removes an abandoned call from the queue. */
+    private synchronized void leave(CompletableFuture<Void> place)
+    {
+        queue.remove(place);
+    }
+
+    /** Gives back the place of a completed call, and adjusts the limit.
+
+        @param nanos The latency of the call.
+        @param congested <code>true</code> if the call timed out or was refused
+                         by the skeleton as overloaded.
+        @param measured <code>false</code> if the call failed in a way that
+                        says nothing about the skeleton's load, such as a
+                        broken connection.
+     */
+    void release(long nanos, boolean congested, boolean measured)
+    {
+        ArrayList<CompletableFuture<Void>> admitted;
+        synchronized (this) {
+            boolean saturated = inFlight * 2 >= limit;
+            inFlight--;
+            if (measured) {
+                if (!congested) {
+                    sample(nanos);
+                }
+                long now = System.nanoTime();
+                if (congested || nanos > baseline * tolerance) {
+                    if (now - lastDecrease >= nanos) {
+                        limit = Math.max(minLimit, limit * BACKOFF);
+                        lastDecrease = now;
+                    }
+                } else if (saturated) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+            admitted = admit();
+        }
+        grant(admitted);
+    }
+
+    /** Takes places for queued calls, oldest first, while the limit allows.
+
+        @return The calls given a place, which must be passed to
+                <code>grant</code> once the lock is released.
+     */
+    private ArrayList<CompletableFuture<Void>> admit()
+    {
+        ArrayList<CompletableFuture<Void>> admitted = new ArrayList<>();
+        while (inFlight < (int) limit && !queue.isEmpty()) {
+            inFlight++;
+            admitted.add(queue.poll());
+        }
+        return admitted;
+    }
+
+    /** Tells queued calls that they have a place. The place of a call which
+        was abandoned meanwhile is given back at once. Calls are told outside
+        the lock, since they go on to send their requests. */
+    private void grant(ArrayList<CompletableFuture<Void>> admitted)
+    {
+        for (CompletableFuture<Void> place : admitted) {
+            if (!place.complete(null)) {
+                release(0, false, false);
+            }
+        }
+    }
+
+    /** Records the latency of a call in the estimate of the no-load
+        latency. */
+    private void sample(long nanos)
+    {
+        windowMin = Math.min(windowMin, nanos);
+        if (baseline == 0 || nanos < baseline) {
+            baseline = nanos;
+        }
+        if (++samples >= BASELINE_WINDOW) {
+            baseline = windowMin;
+            windowMin = Long.MAX_VALUE;
+            samples = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return address + "/" + priority + ": limit=" + (int) limit
+            + " inFlight=" + inFlight + " queued=" + queue.size()
+            + " rejected=" + rejected + " baseline=" + baseline + "ns";
+    }
+}
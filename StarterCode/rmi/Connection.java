@@ -0,0 +1,268 @@
+package rmi;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Long-lived, multiplexed client connection to a skeleton.
+
+    <p>
+    A connection owns one socket and the buffered stream pair layered over it.
+    Connections to a local skeleton with a Unix domain socket use that
+    socket; all others, and those for which the Unix domain socket cannot be
+    connected to or the handshake cannot be sent through it, use TCP.
+    When the connection is opened it sends the handshake selecting its codec
+    and whether it uses compression, and every message sent or received on it
+    afterwards is encoded with that codec.
+
+    <p>
+    Any number of calls may be in flight on a connection at the same time. Each
+    request is tagged with a correlation ID unique to the connection, and the
+    skeleton tags its response with the same ID. A reader thread owned by the
+    connection receives responses in whatever order the skeleton completes them
+    and hands each one to the call waiting for it.
+ */
+class Connection implements Closeable {
+
+    private final InetSocketAddress address;
+    private final PriorityClass priority;
+    private final ConnectionPool pool;
+    private final Closeable socket;
+    private final Codec codec;
+    private final boolean compress;
+    private final DataOutputStream output;
+    private final Frames.Input input;
+    private final ConcurrentHashMap<Long, CompletableFuture<MessagePackage>> pending;
+    private final AtomicLong nextId;
+    private volatile boolean closed;
+    private volatile boolean answered;
+
+    // Pool bookkeeping, guarded by the pool's lock.
+    int inFlight;
+    long lastUsed;
+    boolean retired;
+
+    /** Opens a connection.
+
+        @param connectTimeout Timeout, in milliseconds, for establishing the
+                              TCP connection, or zero for none.
+     */
+    Connection(InetSocketAddress address, PriorityClass priority, ConnectionPool pool, Codecs.Handshake handshake, int connectTimeout) throws IOException {
+        this.address = address;
+        this.priority = priority;
+        this.pool = pool;
+        this.codec = handshake.codec;
+        this.compress = handshake.compression;
+        Closeable socket = UnixSockets.connect(address);
+        DataOutputStream output = null;
+        if (socket != null) {
+            try {
+                output = open(socket, handshake);
+            } catch (IOException e) {
+                // Fall back to TCP, as if the skeleton had no Unix domain
+                // socket.
+                socket.close();
+                socket = null;
+            }
+        }
+        if (socket == null) {
+            Socket tcp = new Socket();
+            try {
+                tcp.setTcpNoDelay(true);
+                tcp.connect(address, connectTimeout);
+                output = open(tcp, handshake);
+            } catch (IOException e) {
+                tcp.close();
+                throw e;
+            }
+            socket = tcp;
+        }
+        this.socket = socket;
+        this.output = output;
+        try {
+            this.input = new Frames.Input(new BufferedInputStream(UnixSockets.input(socket)));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.pending = new ConcurrentHashMap<>();
+        this.nextId = new AtomicLong();
+        this.closed = false;
+        this.answered = false;
+        this.lastUsed = System.currentTimeMillis();
+
+        Reader reader = new Reader();
+        reader.start();
+    }
+
+    /** Returns the output stream of a connected socket, after sending the
+        handshake through it. */
+    private static DataOutputStream open(Closeable socket, Codecs.Handshake handshake) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(UnixSockets.output(socket)));
+        Codecs.writeHandshake(output, handshake);
+        output.flush();
+        return output;
+    }
+
+    /** Sends a request without waiting for the response.
+
+        <p>
+        The request is assigned a fresh correlation ID and written with the
+        connection's codec. Writes from concurrent callers are serialized.
+
+        <p>
+        The request is encoded before it is written, so that a request which
+        cannot be encoded fails on its own, and leaves the connection and the
+        other calls on it unaffected.
+
+        @return A future completed with the response, or completed
+                exceptionally with an <code>IOException</code> if the
+                connection fails before the response arrives. The
+                exception is an <code>UnsentException</code> if the request
+                was not completely written, and so cannot have been run. If
+                the request cannot be encoded, the future is completed
+                exceptionally with an <code>RMIException</code>.
+     */
+    CompletableFuture<MessagePackage> send(MessagePackage request) {
+        CompletableFuture<MessagePackage> response = new CompletableFuture<>();
+        long id = nextId.incrementAndGet();
+        request.setId(id);
+        ByteBuffer[] frame;
+        try {
+            frame = Frames.encode(codec, request, compress);
+        } catch (IOException e) {
+            response.completeExceptionally(new RMIException("Unable to encode request", e));
+            return response;
+        }
+        pending.put(id, response);
+        if (closed) {
+            pending.remove(id);
+            response.completeExceptionally(new UnsentException(new EOFException("Connection closed")));
+            return response;
+        }
+
+        try {
+            synchronized (output) {
+                Frames.write(output, frame);
+                output.flush();
+            }
+        } catch (IOException e) {
+            // The end of the frame never reached the socket, so the skeleton
+            // cannot have decoded the request.
+            if (pending.remove(id) != null) {
+                response.completeExceptionally(new UnsentException(e));
+            }
+            fail(e);
+        }
+        return response;
+    }
+
+    /** Abandons a call that is no longer waited for, and asks the skeleton to
+        cancel it. No response is expected to the cancellation. */
+    void cancel(long id) {
+        pending.remove(id);
+        if (closed) {
+            return;
+        }
+        MessagePackage cancel = new MessagePackage(MessageType.CANCEL);
+        cancel.setId(id);
+        try {
+            synchronized (output) {
+                Frames.write(output, codec, cancel, false);
+                output.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /** Returns the priority class of the calls the connection carries. */
+    PriorityClass getPriority() {
+        return priority;
+    }
+
+    /** Returns <code>true</code> once the connection has delivered at least
+        one response. A failure on such a connection may be due to the skeleton
+        having closed it while it sat in the pool, rather than to the request
+        that was sent on it. */
+    boolean hasAnswered() {
+        return answered;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        fail(new EOFException("Connection closed"));
+    }
+
+    /** Closes the connection and fails every call still waiting on it. */
+    private void fail(IOException cause) {
+        synchronized (pending) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+        for (Long id : pending.keySet()) {
+            CompletableFuture<MessagePackage> response = pending.remove(id);
+            if (response != null) {
+                response.completeExceptionally(cause);
+            }
+        }
+        pool.discard(this);
+    }
+
+    /** Failure of a request which was not completely written to the
+        connection. The skeleton cannot have received it, so it may be sent
+        again whatever the method. */
+    static class UnsentException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsentException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /** Reads responses and completes the matching calls. */
+    private class Reader extends Thread {
+
+        Reader() {
+            super("rmi-connection-" + address);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    MessagePackage message = Frames.read(input, codec);
+                    answered = true;
+                    CompletableFuture<MessagePackage> response = pending.remove(message.getId());
+                    if (response != null) {
+                        response.complete(message);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException("Malformed response", e));
+            }
+        }
+    }
+}
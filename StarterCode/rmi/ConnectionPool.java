@@ -0,0 +1,835 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Pool of persistent stub connections.
+
+    <p>
+    Stubs do not open a new TCP connection for every remote call. Instead, they
+    take a connection to the skeleton's address from the pool and send the
+    request on it. Connections are multiplexed: many calls, from any number of
+    threads, may be in flight on one connection at the same time, and their
+    responses may arrive in any order.
+
+    <p>
+    Calls are placed on the least loaded connection to the address. A new
+    connection is opened only when every open connection already carries the
+    maximum number of concurrent calls. The number of connections open to each
+    address is also bounded; when that bound is reached as well, callers wait
+    for a call to complete. Connections which carry no calls for longer than the
+    idle timeout are closed by a background thread.
+
+    <p>
+    Calls of each priority class use their own connections to an address,
+    with their own bounds, so that small control calls are not queued behind
+    bulk transfers on a shared socket.
+
+    <p>
+    The pool can also bound the number of calls in flight to each address and
+    priority class with an adaptive limit, which follows the latency of the
+    skeleton, so that a slow skeleton is not sent ever more concurrent calls.
+    Calls over the limit are queued without holding the calling thread, or
+    fail at once when too many are queued already. Adaptive limiting is
+    disabled by default; see
+    <code>ConcurrencyLimiter</code>.
+
+    <p>
+    Calls to each address go through a circuit breaker, which fails calls at
+    once, for a while, after several consecutive calls to the address have
+    failed to connect or lost their connection; see
+    <code>CircuitBreaker</code>.
+
+    <p>
+    All stubs in a JVM share the pool returned by <code>getDefault</code>.
+ */
+public class ConnectionPool {
+
+    /** Default bound on the number of connections open to one address. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+    /** Default bound on the number of calls in flight on one connection. */
+    public static final int DEFAULT_MAX_CALLS_PER_CONNECTION = 32;
+    /** Default time, in milliseconds, after which an idle connection is
+        closed. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    /** Limit with which adaptive limiting starts for each address. */
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    /** Default upper bound of the adaptive limit. */
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+    /** Default factor by which a call's latency must exceed the no-load
+        latency to be taken as a sign of congestion. */
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    /** Default number of consecutive failed calls after which the circuit
+        breaker of an address opens. */
+    public static final int DEFAULT_BREAKER_THRESHOLD = 5;
+    /** Default time, in milliseconds, for which an open circuit breaker
+        fails calls before letting a trial call through. */
+    public static final long DEFAULT_BREAKER_COOL_DOWN = 5000;
+
+    private static final ConnectionPool defaultPool = new ConnectionPool();
+
+    /** Completes calls whose deadline has passed. */
+    private static final ScheduledThreadPoolExecutor deadlines = deadlineTimer();
+
+    private final HashMap<Route, Endpoint> endpoints;
+    private int maxConnections;
+    private int maxCallsPerConnection;
+    private long idleTimeout;
+    private final HashMap<Route, ConcurrencyLimiter> limiters;
+    private boolean adaptiveLimiting;
+    private int minLimit;
+    private int maxLimit;
+    private int maxQueuedCalls;
+    private double latencyTolerance;
+    private final HashMap<InetSocketAddress, CircuitBreaker> breakers;
+    private int breakerThreshold;
+    private long breakerCoolDown;
+    private Reaper reaper;
+
+    /** Creates a connection pool with the default bounds. */
+    public ConnectionPool() {
+        this.endpoints = new HashMap<>();
+        this.maxConnections = DEFAULT_MAX_CONNECTIONS;
+        this.maxCallsPerConnection = DEFAULT_MAX_CALLS_PER_CONNECTION;
+        this.idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        this.limiters = new HashMap<>();
+        this.adaptiveLimiting = false;
+        this.minLimit = 1;
+        this.maxLimit = DEFAULT_MAX_LIMIT;
+        this.maxQueuedCalls = Integer.MAX_VALUE;
+        this.latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+        this.breakers = new HashMap<>();
+        this.breakerThreshold = DEFAULT_BREAKER_THRESHOLD;
+        this.breakerCoolDown = DEFAULT_BREAKER_COOL_DOWN;
+    }
+
+    /** Returns the pool shared by all stubs in this JVM. */
+    public static ConnectionPool getDefault() {
+        return defaultPool;
+    }
+
+    /** Sets the maximum number of connections open to any one address.
+
+        @param maxConnections The new bound.
+        @throws IllegalArgumentException If <code>maxConnections</code> is not
+                                         positive.
+     */
+    public synchronized void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("Connection bound must be positive.");
+        }
+        this.maxConnections = maxConnections;
+        notifyAll();
+    }
+
+    public synchronized int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /** Sets the number of calls that may be in flight on one connection before
+        another connection to the same address is opened.
+
+        @param maxCallsPerConnection The new bound.
+        @throws IllegalArgumentException If <code>maxCallsPerConnection</code>
+                                         is not positive.
+     */
+    public synchronized void setMaxCallsPerConnection(int maxCallsPerConnection) {
+        if (maxCallsPerConnection <= 0) {
+            throw new IllegalArgumentException("Call bound must be positive.");
+        }
+        this.maxCallsPerConnection = maxCallsPerConnection;
+        notifyAll();
+    }
+
+    public synchronized int getMaxCallsPerConnection() {
+        return maxCallsPerConnection;
+    }
+
+    /** Sets the time after which an idle connection is closed.
+
+        @param idleTimeout Timeout in milliseconds.
+        @throws IllegalArgumentException If <code>idleTimeout</code> is not
+                                         positive.
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be positive.");
+        }
+        this.idleTimeout = idleTimeout;
+        if (reaper != null) {
+            reaper.interrupt();
+        }
+    }
+
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /** Enables or disables adaptive limiting of the calls in flight to each
+        address. The limits already learned are kept while limiting is
+        disabled. Calls already waiting for the limit are not affected.
+
+        @see ConcurrencyLimiter
+     */
+    public synchronized void setAdaptiveLimiting(boolean adaptiveLimiting) {
+        this.adaptiveLimiting = adaptiveLimiting;
+    }
+
+    public synchronized boolean isAdaptiveLimiting() {
+        return adaptiveLimiting;
+    }
+
+    /** Sets the bounds between which the adaptive limit of each address
+        moves.
+
+        @param minLimit The lowest limit.
+        @param maxLimit The highest limit.
+        @throws IllegalArgumentException If <code>minLimit</code> is not
+                                         positive, or is greater than
+                                         <code>maxLimit</code>.
+     */
+    public synchronized void setLimitBounds(int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("Limit bounds must be positive and ordered.");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        configureLimiters();
+    }
+
+    public synchronized int getMinLimit() {
+        return minLimit;
+    }
+
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /** Sets the number of calls to each address and priority class that may
+        wait for the adaptive limit. Calls beyond these fail at once with an
+        <code>OverloadException</code>. By default the number is unlimited.
+
+        @param maxQueuedCalls The bound, or zero for calls over the limit to
+                              fail at once.
+        @throws IllegalArgumentException If <code>maxQueuedCalls</code> is
+                                         negative.
+     */
+    public synchronized void setMaxQueuedCalls(int maxQueuedCalls) {
+        if (maxQueuedCalls < 0) {
+            throw new IllegalArgumentException("Queued call bound must not be negative.");
+        }
+        this.maxQueuedCalls = maxQueuedCalls;
+        configureLimiters();
+    }
+
+    public synchronized int getMaxQueuedCalls() {
+        return maxQueuedCalls;
+    }
+
+    /** Sets the factor by which the latency of a call must exceed the
+        no-load latency of the skeleton for the adaptive limit to be lowered.
+
+        @throws IllegalArgumentException If <code>latencyTolerance</code> is
+                                         not greater than one.
+     */
+    public synchronized void setLatencyTolerance(double latencyTolerance) {
+        if (!(latencyTolerance > 1)) {
+            throw new IllegalArgumentException("Latency tolerance must be greater than one.");
+        }
+        this.latencyTolerance = latencyTolerance;
+        configureLimiters();
+    }
+
+    public synchronized double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /** Returns the adaptive limiter of the calls of one priority class to
+        the given address, or <code>null</code> if no call has been limited
+        yet. The limiter's current limit and queue are live metrics.
+     */
+    public synchronized ConcurrencyLimiter getLimiter(InetSocketAddress address, PriorityClass priority) {
+        return limiters.get(new Route(address, priority));
+    }
+
+    private void configureLimiters() {
+        for (ConcurrencyLimiter limiter : limiters.values()) {
+            limiter.configure(minLimit, maxLimit, maxQueuedCalls, latencyTolerance);
+        }
+    }
+
+    /** Returns the limiter for a route, or <code>null</code> if adaptive
+        limiting is disabled. */
+    private synchronized ConcurrencyLimiter limiterOf(Route route) {
+        if (!adaptiveLimiting) {
+            return null;
+        }
+        return limiters.computeIfAbsent(route, r -> new ConcurrencyLimiter(
+            r.address, r.priority, DEFAULT_INITIAL_LIMIT, minLimit, maxLimit,
+            maxQueuedCalls, latencyTolerance));
+    }
+
+    /** Sets the number of consecutive calls to an address which must fail
+        to connect, or lose their connection, for its circuit breaker to
+        open.
+
+        @param breakerThreshold The number of calls, or zero to disable the
+                                circuit breakers.
+        @throws IllegalArgumentException If <code>breakerThreshold</code> is
+                                         negative.
+     */
+    public synchronized void setBreakerThreshold(int breakerThreshold) {
+        if (breakerThreshold < 0) {
+            throw new IllegalArgumentException("Breaker threshold must not be negative.");
+        }
+        this.breakerThreshold = breakerThreshold;
+        configureBreakers();
+    }
+
+    public synchronized int getBreakerThreshold() {
+        return breakerThreshold;
+    }
+
+    /** Sets the time for which an open circuit breaker fails calls before it
+        lets a trial call through.
+
+        @param breakerCoolDown The time in milliseconds.
+        @throws IllegalArgumentException If <code>breakerCoolDown</code> is
+                                         negative.
+     */
+    public synchronized void setBreakerCoolDown(long breakerCoolDown) {
+        if (breakerCoolDown < 0) {
+            throw new IllegalArgumentException("Breaker cool-down must not be negative.");
+        }
+        this.breakerCoolDown = breakerCoolDown;
+        configureBreakers();
+    }
+
+    public synchronized long getBreakerCoolDown() {
+        return breakerCoolDown;
+    }
+
+    /** Returns the circuit breaker of an address, or <code>null</code> if no
+        call has been made to the address yet. The breaker's state is live.
+     */
+    public synchronized CircuitBreaker getCircuitBreaker(InetSocketAddress address) {
+        return breakers.get(address);
+    }
+
+    private void configureBreakers() {
+        for (CircuitBreaker breaker : breakers.values()) {
+            breaker.configure(breakerThreshold, breakerCoolDown);
+        }
+    }
+
+    /** Returns the circuit breaker of an address, or <code>null</code> if
+        circuit breakers are disabled. */
+    private synchronized CircuitBreaker breakerOf(InetSocketAddress address) {
+        if (breakerThreshold == 0) {
+            return null;
+        }
+        return breakers.computeIfAbsent(address, a -> new CircuitBreaker(a, breakerThreshold, breakerCoolDown));
+    }
+
+    /** Returns the number of connections currently open to the given
+        address, for calls of all priority classes. */
+    public synchronized int openConnections(InetSocketAddress address) {
+        int open = 0;
+        for (PriorityClass priority : PriorityClass.values()) {
+            open += openConnections(address, priority);
+        }
+        return open;
+    }
+
+    /** Returns the number of connections currently open to the given address
+        for calls of one priority class. */
+    public synchronized int openConnections(InetSocketAddress address, PriorityClass priority) {
+        Endpoint endpoint = endpoints.get(new Route(address, priority));
+        return endpoint == null ? 0 : endpoint.connections.size() + endpoint.opening;
+    }
+
+    /** Closes every connection in the pool that carries no calls. */
+    public synchronized void closeIdle() {
+        for (Endpoint endpoint : endpoints.values()) {
+            Iterator<Connection> iterator = endpoint.connections.iterator();
+            while (iterator.hasNext()) {
+                Connection connection = iterator.next();
+                if (connection.inFlight == 0) {
+                    iterator.remove();
+                    connection.close();
+                }
+            }
+        }
+        notifyAll();
+    }
+
+    /** Sends a request to the skeleton at the given address and returns the
+        response without waiting for it.
+
+        <p>
+        The request is sent on a pooled connection, which may be shared with
+        calls made concurrently by other threads. A stopping skeleton answers
+        requests with <code>SERVICE_STOP</code> without executing them; such a
+        request is retried once on another connection. A connection that has
+        served calls before may also have been closed by the skeleton while it
+        was idle, for example because the skeleton was restarted. A request
+        which fails on such a connection is retried once only if it cannot
+        have been run twice: if it was not completely written before the
+        connection failed, or if its method is idempotent. Any other call
+        whose connection fails after it was sent fails, since the skeleton may
+        have run it, and is left to the stub's retry policy.
+
+        <p>
+        If the request has a timeout, the call fails with a
+        <code>CallTimeoutException</code> once the timeout has elapsed, whether
+        the pool is still waiting for a connection or the skeleton has not yet
+        answered. Each time the request is sent, its timeout is set to the time
+        remaining. When a call that has been sent is cancelled or times out,
+        the skeleton is told to cancel it.
+
+        <p>
+        The calling thread blocks only while the pool waits for a free call
+        slot, when the bounds on connections and calls per connection have
+        been reached. With adaptive limiting, a call over the limit of its
+        address is queued without blocking the calling thread, and is sent
+        from another thread once the limit lets it through. The returned
+        future is completed by the connection's reader thread. Cancelling it
+        abandons the call.
+
+        @param priority The priority class of the call, which selects the
+                        connections the request may be sent on.
+        @param idempotent Whether the request may be run more than once.
+        @return A future completed with the response, or completed
+                exceptionally with an <code>RMIException</code> if the
+                request could not be delivered or answered.
+     */
+    CompletableFuture<MessagePackage> call(InetSocketAddress address, PriorityClass priority, MessagePackage request,
+                                           boolean idempotent) {
+        Route route = new Route(address, priority);
+        Call result = new Call();
+        int timeout = request.getTimeout();
+        long deadline = 0;
+        if (timeout > 0) {
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            ScheduledFuture<?> timer = deadlines.schedule(
+                () -> result.completeExceptionally(timedOut(timeout)), timeout, TimeUnit.MILLISECONDS);
+            result.whenComplete((message, failure) -> timer.cancel(false));
+        }
+        CircuitBreaker breaker = breakerOf(address);
+        if (breaker != null && !admit(breaker, result)) {
+            return result;
+        }
+        ConcurrencyLimiter limiter = limiterOf(route);
+        if (limiter == null) {
+            attempt(route, request, idempotent, timeout, deadline, result, false);
+            return result;
+        }
+        CompletableFuture<Void> place;
+        try {
+            place = limiter.acquire();
+        } catch (OverloadException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        if (place.isDone()) {
+            measure(limiter, result);
+            attempt(route, request, idempotent, timeout, deadline, result, false);
+            return result;
+        }
+        long queuedDeadline = deadline;
+        result.whenComplete((message, failure) -> place.cancel(false));
+        place.thenRun(() -> {
+            measure(limiter, result);
+            if (!result.isDone()) {
+                CompletableFuture.runAsync(() -> attempt(route, request, idempotent, timeout, queuedDeadline, result, false));
+            }
+        });
+        return result;
+    }
+
+    /** Asks the circuit breaker of an address to let a call through, and
+        arranges for the outcome of the call to be recorded once it
+        completes.
+
+        <p>
+        A call answered by the skeleton is a success. A call which could not
+        open a connection to the address, or lost its connection after its
+        request was sent, is a failure. Any other outcome counts neither way:
+        a call which timed out or was interrupted while it waited for a call
+        slot in the pool never reached the address, and a call which timed
+        out waiting for its response did reach it.
+
+        @return <code>false</code> if the call has been failed instead.
+     */
+    private static boolean admit(CircuitBreaker breaker, Call result) {
+        boolean trial;
+        try {
+            trial = breaker.allow();
+        } catch (CircuitOpenException e) {
+            result.completeExceptionally(e);
+            return false;
+        }
+        result.whenComplete((message, failure) -> {
+            if (message != null) {
+                breaker.succeeded(trial);
+            } else if (result.connectionFailed) {
+                breaker.failed(trial);
+            } else {
+                breaker.abandoned(trial);
+            }
+        });
+        return true;
+    }
+
+    /** Arranges for the place of a call under the adaptive limit to be given
+        back once the call completes.
+
+        <p>
+        A call which timed out after its request was sent, or which the
+        skeleton refused as overloaded, is a sign of congestion. A call which
+        timed out before its request was sent, while it waited for a
+        connection, says nothing about the skeleton's load.
+     */
+    private static void measure(ConcurrencyLimiter limiter, Call result) {
+        long start = System.nanoTime();
+        result.whenComplete((message, failure) -> {
+            boolean congested = (failure instanceof CallTimeoutException && result.sent)
+                || (message != null && message.getData() instanceof OverloadException);
+            limiter.release(System.nanoTime() - start, congested,
+                            failure == null || congested);
+        });
+    }
+
+    private void attempt(Route route, MessagePackage request, boolean idempotent, int timeout,
+                         long deadline, Call result, boolean retried) {
+        result.sent = false;
+        result.connectionFailed = false;
+        int remaining = 0;
+        if (timeout > 0) {
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0) {
+                result.completeExceptionally(timedOut(timeout));
+                return;
+            }
+            remaining = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+
+        Connection connection;
+        try {
+            connection = acquire(route, remaining);
+        } catch (IOException e) {
+            IOException cause = e;
+            if (e instanceof ConnectFailure) {
+                result.connectionFailed = true;
+                cause = (IOException) e.getCause();
+            }
+            if (cause instanceof SocketTimeoutException) {
+                CallTimeoutException timedOut = timedOut(timeout);
+                timedOut.initCause(cause);
+                result.completeExceptionally(timedOut);
+            } else {
+                result.completeExceptionally(new TransportFailure("Connection failed!", cause));
+            }
+            return;
+        }
+
+        request.setTimeout(remaining);
+        boolean stale = connection.hasAnswered();
+        result.sent = true;
+        CompletableFuture<MessagePackage> response = connection.send(request);
+        long id = request.getId();
+        response.whenComplete((message, failure) -> {
+            release(connection);
+            if (failure instanceof RMIException) {
+                // The request could not be encoded; sending it again would
+                // fail the same way.
+                result.completeExceptionally(failure);
+            } else if (failure != null) {
+                if (failure instanceof IOException) {
+                    result.connectionFailed = true;
+                }
+                boolean unrun = stale && (idempotent || failure instanceof Connection.UnsentException);
+                if (retried || !unrun) {
+                    result.completeExceptionally(new TransportFailure("Connection failed!", failure));
+                } else {
+                    retry(route, request, idempotent, timeout, deadline, result);
+                }
+            } else if (message.getMessageType() == MessageType.SERVICE_STOP) {
+                retire(connection);
+                if (retried) {
+                    result.completeExceptionally(new TransportFailure("Skeleton is stopping", null));
+                } else {
+                    retry(route, request, idempotent, timeout, deadline, result);
+                }
+            } else {
+                result.complete(message);
+            }
+        });
+        result.whenComplete((message, failure) -> {
+            if ((result.isCancelled() || failure instanceof CallTimeoutException) && !response.isDone()) {
+                connection.cancel(id);
+                response.cancel(false);
+            }
+        });
+    }
+
+    private static CallTimeoutException timedOut(int timeout) {
+        return new CallTimeoutException("Call timed out after " + timeout + " ms");
+    }
+
+    /** Retries a request. The retry may have to wait for a connection, so it
+        is not run on the reader thread that saw the first attempt fail. */
+    private void retry(Route route, MessagePackage request, boolean idempotent, int timeout,
+                       long deadline, Call result) {
+        if (!result.isDone()) {
+            CompletableFuture.runAsync(() -> attempt(route, request, idempotent, timeout, deadline, result, true));
+        }
+    }
+
+    /** Reserves a call slot on a connection to the given address, for calls
+        of the given priority class.
+
+        <p>
+        The least loaded open connection is chosen if it has a free slot.
+        Otherwise a new connection is opened, unless the bound for the address
+        has been reached or another connection to it is being opened, in which
+        case the caller waits. Every successful <code>acquire</code> must be matched by a
+        call to <code>release</code>.
+
+        @param timeout Maximum time, in milliseconds, to wait for a call slot
+                       and to open a connection, or zero to wait
+                       indefinitely.
+        @throws SocketTimeoutException If the timeout elapses while waiting
+                                       for a call slot.
+        @throws ConnectFailure If a new connection could not be opened. The
+                               cause is the failure, which is a
+                               <code>SocketTimeoutException</code> if the
+                               timeout elapsed while connecting.
+     */
+    Connection acquire(Route route, int timeout) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            Endpoint endpoint = endpoints.computeIfAbsent(route, r -> new Endpoint());
+            while (true) {
+                Connection best = null;
+                for (Connection connection : endpoint.connections) {
+                    if (!connection.isClosed() && (best == null || connection.inFlight < best.inFlight)) {
+                        best = connection;
+                    }
+                }
+                if (best != null && best.inFlight < maxCallsPerConnection) {
+                    best.inFlight++;
+                    return best;
+                }
+                // Only one connection to an address is opened at a time; calls
+                // arriving meanwhile wait for it and then share it.
+                if (endpoint.opening == 0 && endpoint.connections.size() < maxConnections) {
+                    endpoint.opening++;
+                    break;
+                }
+                long wait = 0;
+                if (timeout > 0) {
+                    wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SocketTimeoutException("Timed out waiting for a connection");
+                    }
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a connection", e);
+                }
+            }
+            startReaper();
+        }
+
+        Connection connection = null;
+        try {
+            int connectTimeout = 0;
+            if (timeout > 0) {
+                connectTimeout = (int) Math.max(1, deadline - System.currentTimeMillis());
+            }
+            connection = new Connection(route.address, route.priority, this,
+                                        new Codecs.Handshake(Codecs.getDefault(), Compression.isEnabled()), connectTimeout);
+        } catch (IOException e) {
+            throw new ConnectFailure(e);
+        } finally {
+            synchronized (this) {
+                Endpoint endpoint = endpoints.get(route);
+                endpoint.opening--;
+                if (connection != null && !connection.isClosed()) {
+                    connection.inFlight++;
+                    endpoint.connections.add(connection);
+                }
+                notifyAll();
+            }
+        }
+        return connection;
+    }
+
+    /** Frees the call slot reserved by <code>acquire</code>. */
+    synchronized void release(Connection connection) {
+        connection.inFlight--;
+        connection.lastUsed = System.currentTimeMillis();
+        if (connection.retired && connection.inFlight == 0) {
+            connection.close();
+        }
+        notifyAll();
+    }
+
+    /** Stops placing new calls on a connection whose skeleton is shutting
+        down. Calls already in flight on the connection are allowed to
+        complete, after which the connection is closed. */
+    synchronized void retire(Connection connection) {
+        connection.retired = true;
+        discard(connection);
+        if (connection.inFlight == 0) {
+            connection.close();
+        }
+    }
+
+    /** Removes a connection which has failed or been closed from the pool.
+        Calls made after this on the connection fail immediately. */
+    synchronized void discard(Connection connection) {
+        Endpoint endpoint = endpoints.get(new Route(connection.getAddress(), connection.getPriority()));
+        if (endpoint != null) {
+            endpoint.connections.remove(connection);
+        }
+        notifyAll();
+    }
+
+    private void startReaper() {
+        if (reaper == null) {
+            reaper = new Reaper();
+            reaper.start();
+        }
+    }
+
+    /** Closes connections that have carried no calls for longer than the
+        timeout. Returns the time to wait before the next check. */
+    private synchronized long evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Endpoint> endpointIterator = endpoints.values().iterator();
+        while (endpointIterator.hasNext()) {
+            Endpoint endpoint = endpointIterator.next();
+            Iterator<Connection> iterator = endpoint.connections.iterator();
+            while (iterator.hasNext()) {
+                Connection connection = iterator.next();
+                if (connection.inFlight == 0 && now - connection.lastUsed >= idleTimeout) {
+                    iterator.remove();
+                    connection.close();
+                }
+            }
+            if (endpoint.connections.isEmpty() && endpoint.opening == 0) {
+                endpointIterator.remove();
+            }
+        }
+        notifyAll();
+        return Math.max(idleTimeout / 2, 1);
+    }
+
+    private static ScheduledThreadPoolExecutor deadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "rmi-call-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /** Address and priority class identifying a set of pooled
+        connections. */
+    static final class Route {
+        final InetSocketAddress address;
+        final PriorityClass priority;
+
+        Route(InetSocketAddress address, PriorityClass priority) {
+            this.address = address;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Route)) {
+                return false;
+            }
+            Route route = (Route) other;
+            return address.equals(route.address) && priority == route.priority;
+        }
+
+        @Override
+        public int hashCode() {
+            return address.hashCode() * 31 + priority.hashCode();
+        }
+    }
+
+    /** The result of a call, and how far its current attempt got. */
+    private static final class Call extends CompletableFuture<MessagePackage> {
+        /** Whether the request of the current attempt has been handed to a
+            connection. */
+        volatile boolean sent;
+        /** Whether the current attempt could not open a connection, or lost
+            its connection after the request was sent. */
+        volatile boolean connectionFailed;
+    }
+
+    /** Failure to open a connection, as opposed to failing to get a call
+        slot on one. The cause is the failure itself. */
+    static final class ConnectFailure extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        ConnectFailure(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /** Failure of a call to reach the skeleton: a connection could not be
+        opened, or failed before the response arrived, or the skeleton was
+        stopping. Only calls failed this way may be retried by the stub;
+        other failures, such as a request which cannot be encoded or a call
+        refused by the pool's limiter, would fail the same way again. */
+    static final class TransportFailure extends RMIException {
+
+        private static final long serialVersionUID = 1L;
+
+        TransportFailure(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /** Per-route pool state. */
+    private static class Endpoint {
+        private final ArrayList<Connection> connections = new ArrayList<>();
+        private int opening = 0;
+    }
+
+    /** Background thread evicting idle connections. */
+    private class Reaper extends Thread {
+
+        Reaper() {
+            super("rmi-connection-reaper");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(evictIdle());
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package rmi;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Collection;
+import java.util.HashMap;
+
+/** Method dispatch table of a skeleton.
+
+    <p>
+    The dispatcher is built once, when the skeleton is constructed. It maps
+    each method ID of the remote interface to a method handle already bound to
+    the skeleton's server object, so that servicing a call involves one table
+    lookup, an argument type check and a direct handle invocation. For
+    interfaces with a dispatcher generated at build time, targets call the
+    generated dispatcher instead of a method handle. Each target
+    also carries the call statistics of its method and, for idempotent
+    methods which ask for it, the invocations currently running, with which
+    identical calls are coalesced. The dispatcher also holds the window of
+    request tokens in which retries of calls to other methods are
+    recognized.
+ */
+class Dispatcher
+{
+    /** The remote interface. */
+    final Class<?> c;
+    private final HashMap<Integer, Target> targets;
+    /** Tokens of recent calls to non-idempotent methods. */
+    final RequestTokens tokens;
+
+    Dispatcher(Class<?> c, Object server)
+    {
+        MethodTable table = MethodTable.of(c);
+        this.c = c;
+        this.targets = new HashMap<>();
+        this.tokens = new RequestTokens();
+        GeneratedDispatcher.Instance generated = GeneratedDispatcher.of(c);
+        if (generated != null) {
+            for (int i = 0; i < generated.entries.length; i++) {
+                MethodTable.Entry entry = generated.entries[i];
+                targets.put(entry.id, new Target(entry, null, generated.dispatcher, server, i));
+            }
+            return;
+        }
+        for (MethodTable.Entry entry : table.entries()) {
+            targets.put(entry.id, new Target(entry, entry.invoker.bindTo(server), null, null, 0));
+        }
+    }
+
+    /** Returns the target for a method ID, or <code>null</code> if the
+        interface has no method with that ID. */
+    Target get(int id)
+    {
+        return targets.get(id);
+    }
+
+    /** Returns the targets of all methods of the interface. */
+    Collection<Target> targets()
+    {
+        return targets.values();
+    }
+
+    /** A remote method bound to the server object. */
+    static class Target
+    {
+        final MethodTable.Entry entry;
+        final MethodStats stats;
+        /** Running invocations, or <code>null</code> if calls to the method
+            are not coalesced. */
+        final SingleFlight flights;
+        /** The bound method handle, or <code>null</code> if the method is
+            called through a generated dispatcher. */
+        private final MethodHandle handle;
+        private final GeneratedDispatcher<Object> generated;
+        private final Object server;
+        private final int index;
+
+        private Target(MethodTable.Entry entry, MethodHandle handle,
+                       GeneratedDispatcher<Object> generated, Object server, int index)
+        {
+            this.entry = entry;
+            this.stats = new MethodStats(entry.signature);
+            this.flights = entry.coalesce ? new SingleFlight(stats) : null;
+            this.handle = handle;
+            this.generated = generated;
+            this.server = server;
+            this.index = index;
+        }
+
+        /** Invokes the method. Exceptions thrown by the server object are
+            propagated unchanged.
+
+            @param arguments Arguments, already checked with
+                             <code>entry.accepts</code>.
+            @return The result of the method, boxed if primitive, or
+                    <code>null</code> for a <code>void</code> method.
+         */
+        Object invoke(Object[] arguments) throws Throwable
+        {
+            if (generated != null) {
+                return generated.invoke(server, index, arguments);
+            }
+            return (Object) handle.invokeExact(arguments == null ? new Object[0] : arguments);
+        }
+    }
+}
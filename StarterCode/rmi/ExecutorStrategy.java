@@ -0,0 +1,147 @@
+package rmi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Strategy for creating the threads that run a skeleton.
+
+    <p>
+    Each time a skeleton is started it asks its strategy for one executor for
+    each priority class, on which the method invocations of that class are
+    run. They are shut down when the skeleton stops. When an executor rejects
+    an invocation, the stub is answered with an <code>OverloadException</code>,
+    as for a call refused by admission control, unless the skeleton is
+    stopping.
+    Accepted connections are always serviced by threads of their own, so that
+    a bounded strategy limits the calls running at once and not the number of
+    clients connected. They run on platform threads unless the strategy
+    provides an unbounded executor of its own for them.
+
+    <p>
+    Three strategies are provided. <code>cached</code>, the default, reuses
+    idle threads and creates new ones without bound. <code>bounded</code> runs
+    tasks on a fixed number of platform threads with a bounded queue.
+    <code>virtualThreads</code> runs every task, and every connection, on its
+    own virtual thread, and is available only on Java 21 and later.
+ */
+public interface ExecutorStrategy
+{
+    /** Creates an executor.
+
+        @param name Name prefix for threads created by the executor.
+        @return The new executor.
+     */
+    ExecutorService create(String name);
+
+    /** Creates the executor on which the skeleton services accepted
+        connections. A connection holds its thread for as long as it is open,
+        so the executor must not bound the number of tasks it runs. By
+        default connections run on an unbounded pool of platform threads.
+
+        @param name Name prefix for threads created by the executor.
+        @return The new executor.
+     */
+    default ExecutorService createConnectionExecutor(String name)
+    {
+        return cached().create(name);
+    }
+
+    /** Returns a strategy creating unbounded pools that reuse idle threads. */
+    static ExecutorStrategy cached()
+    {
+        return name -> Executors.newCachedThreadPool(new NamedThreadFactory(name));
+    }
+
+    /** Returns a strategy creating pools with a fixed number of platform
+        threads, each with a bounded queue of waiting tasks. Idle threads exit
+        after one minute. Tasks submitted while all threads are busy and the
+        queue is full are rejected.
+
+        @param threads Maximum number of threads in each pool.
+        @param queueCapacity Maximum number of tasks waiting in each pool.
+        @throws IllegalArgumentException If <code>threads</code> is not
+                                         positive or <code>queueCapacity</code>
+                                         is negative.
+     */
+    static ExecutorStrategy bounded(int threads, int queueCapacity)
+    {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Queue capacity must not be negative.");
+        }
+        return name -> {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    queueCapacity == 0 ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(queueCapacity),
+                    new NamedThreadFactory(name));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        };
+    }
+
+    /** Returns a strategy that starts a new virtual thread for every task.
+
+        @throws UnsupportedOperationException If the running JVM does not
+                                              support virtual threads.
+     */
+    static ExecutorStrategy virtualThreads()
+    {
+        if (!virtualThreadsSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later.");
+        }
+        return new ExecutorStrategy() {
+            @Override
+            public ExecutorService create(String name)
+            {
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new UnsupportedOperationException("Virtual threads are not available.", e);
+                }
+            }
+
+            @Override
+            public ExecutorService createConnectionExecutor(String name)
+            {
+                return create(name);
+            }
+        };
+    }
+
+    /** Returns <code>true</code> if the running JVM supports virtual
+        threads. */
+    static boolean virtualThreadsSupported()
+    {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /** Thread factory naming threads with a prefix and a sequence number. */
+    class NamedThreadFactory implements ThreadFactory
+    {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable task)
+        {
+            return new Thread(task, name + "-" + count.incrementAndGet());
+        }
+    }
+}
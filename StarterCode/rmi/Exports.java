@@ -0,0 +1,71 @@
+package rmi;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Remote interfaces served by a skeleton, by interface ID.
+
+    <p>
+    A skeleton serves the interface it was created for, and any further
+    interfaces exported on it, on a single port. Requests carry the ID of the
+    interface whose method they call, and are dispatched by that interface's
+    dispatch table. A request without an interface ID calls the skeleton's
+    own interface.
+ */
+class Exports
+{
+    private final Dispatcher primary;
+    private final ConcurrentHashMap<Integer, Dispatcher> dispatchers;
+
+    Exports(Dispatcher primary)
+    {
+        this.primary = primary;
+        this.dispatchers = new ConcurrentHashMap<>();
+        dispatchers.put(MethodTable.of(primary.c).interfaceId, primary);
+    }
+
+    /** Returns the dispatcher of the skeleton's own interface. */
+    Dispatcher primary()
+    {
+        return primary;
+    }
+
+    /** Adds the dispatcher of an exported interface.
+
+        @throws IllegalArgumentException If the interface is already served, or
+                                         has the same ID as an interface which
+                                         is.
+     */
+    synchronized void add(Dispatcher dispatcher)
+    {
+        int id = MethodTable.of(dispatcher.c).interfaceId;
+        Dispatcher existing = dispatchers.get(id);
+        if (existing != null) {
+            throw new IllegalArgumentException(existing.c == dispatcher.c
+                ? dispatcher.c.getName() + " is already served by the skeleton"
+                : dispatcher.c.getName() + " and " + existing.c.getName() + " have the same interface ID");
+        }
+        dispatchers.put(id, dispatcher);
+    }
+
+    /** Returns the dispatcher for an interface ID, or <code>null</code> if no
+        interface with that ID is served. */
+    Dispatcher get(int interfaceId)
+    {
+        return interfaceId == 0 ? primary : dispatchers.get(interfaceId);
+    }
+
+    /** Returns the dispatcher of an interface, or <code>null</code> if the
+        interface is not served. */
+    Dispatcher get(Class<?> c)
+    {
+        Dispatcher dispatcher = dispatchers.get(MethodTable.of(c).interfaceId);
+        return dispatcher != null && dispatcher.c == c ? dispatcher : null;
+    }
+
+    /** Returns the dispatchers of all interfaces served. */
+    Collection<Dispatcher> all()
+    {
+        return dispatchers.values();
+    }
+}
@@ -0,0 +1,310 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/** Length-prefixed framing of RMI messages.
+
+    <p>
+    After the handshake, every message on a connection is sent as a frame. A
+    frame starts with an eight-byte header: the length of the message as
+    encoded by the connection's codec - the envelope - and the total length of
+    the frame's attachments. The envelope follows, and then the attachments.
+    The lengths let a non-blocking transport collect a complete message before
+    decoding it, and let a blocking transport decode directly from the stream.
+
+    <p>
+    Attachments carry large <code>byte[]</code> values, such as the data read
+    from and written to storage servers, outside the envelope. A codec that
+    supports attachments writes only the length of such an array into the
+    envelope and hands the array itself to the frame. The array is then
+    written to the connection directly from the caller's memory, rather than
+    being copied into the envelope first. On the receiving side, the codec
+    allocates the destination array while decoding the envelope, and the
+    attachment is read from the connection straight into it. The lengths the
+    envelope gives for its attachments must add up to the attachment length
+    in the header, and are checked against it before each array is
+    allocated; other lengths stored in the envelope cannot exceed the
+    envelope itself.
+
+    <p>
+    On a connection with compression, arrays of at least the compression
+    threshold are instead compressed into the envelope, unless that does not
+    make them smaller.
+
+    <p>
+    A frame whose envelope and attachments together are longer than the
+    maximum frame length is refused before anything is allocated for it, and
+    the connection it arrived on is closed. The maximum is a setting of the
+    receiving JVM, so peers exchanging large values must agree on it.
+ */
+final class Frames
+{
+    /** Size of the frame header. */
+    static final int HEADER_LENGTH = 8;
+
+    /** Default size, in bytes, from which arrays are sent as attachments. */
+    static final int DEFAULT_ATTACHMENT_THRESHOLD = 4096;
+
+    /** Default maximum length, in bytes, of a frame received. */
+    static final int DEFAULT_MAX_FRAME_LENGTH = 64 << 20;
+
+    private static volatile int attachmentThreshold = DEFAULT_ATTACHMENT_THRESHOLD;
+    private static volatile int maxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
+
+    private Frames()
+    {
+    }
+
+    /** Returns the size from which arrays are sent as attachments. */
+    static int getAttachmentThreshold()
+    {
+        return attachmentThreshold;
+    }
+
+    static void setAttachmentThreshold(int threshold)
+    {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Attachment threshold must not be negative.");
+        }
+        attachmentThreshold = threshold;
+    }
+
+    /** Returns the maximum length of a frame received. */
+    static int getMaxFrameLength()
+    {
+        return maxFrameLength;
+    }
+
+    static void setMaxFrameLength(int length)
+    {
+        if (length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Maximum frame length must be at least " + HEADER_LENGTH + ".");
+        }
+        maxFrameLength = length;
+    }
+
+    /** Encodes a message as a complete frame, ready to be written to a
+        channel. The first buffer holds the header and the envelope; each
+        further buffer wraps an attached array without copying it.
+
+        @param compress <code>true</code> if large arrays may be compressed.
+     */
+    static ByteBuffer[] encode(Codec codec, MessagePackage message,
+                               boolean compress) throws IOException
+    {
+        Output output = new Output(compress);
+        codec.writeMessage(output, message);
+        return output.finish();
+    }
+
+    /** Writes a message as a frame. The stream is not flushed. */
+    static void write(DataOutputStream output, Codec codec,
+                      MessagePackage message, boolean compress)
+        throws IOException
+    {
+        write(output, encode(codec, message, compress));
+    }
+
+    /** Writes a frame returned by <code>encode</code>. The stream is not
+        flushed. */
+    static void write(DataOutputStream output, ByteBuffer[] frame)
+        throws IOException
+    {
+        for (ByteBuffer buffer : frame) {
+            output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+    }
+
+    /** Reads a frame from a stream and decodes its message. */
+    static MessagePackage read(Input input, Codec codec) throws IOException
+    {
+        int envelopeLength = input.readInt();
+        int attachmentLength = input.readInt();
+        checkHeader(envelopeLength, attachmentLength);
+        input.begin(envelopeLength, attachmentLength);
+        long start = System.nanoTime();
+        MessagePackage message = codec.readMessage(input);
+        input.decodeNanos = System.nanoTime() - start;
+        input.checkAttachments();
+        for (byte[] attachment : input.pending) {
+            input.readFully(attachment);
+        }
+        return message;
+    }
+
+    /** Decodes the envelope of a frame.
+
+        @param codec The codec of the connection.
+        @param envelope The envelope bytes.
+        @param attachmentLength The attachment length given in the frame
+                                header.
+        @param attachments List to which the destination arrays of the frame's
+                           attachments are added, in the order in which they
+                           follow the envelope. The arrays must be filled
+                           before the message is used.
+        @return The message.
+     */
+    static MessagePackage decode(Codec codec, byte[] envelope,
+                                 int attachmentLength,
+                                 ArrayList<byte[]> attachments)
+        throws IOException
+    {
+        Input input = new Input(new ByteArrayInputStream(envelope));
+        input.begin(envelope.length, attachmentLength);
+        MessagePackage message = codec.readMessage(input);
+        input.checkAttachments();
+        attachments.addAll(input.pending);
+        return message;
+    }
+
+    /** Checks the lengths read from a frame header.
+
+        @throws IOException If either length is negative, or the frame is
+                            longer than the maximum frame length.
+     */
+    static void checkHeader(int envelopeLength, int attachmentLength)
+        throws IOException
+    {
+        if (envelopeLength < 0 || attachmentLength < 0) {
+            throw new IOException("Negative frame length");
+        }
+        long length = HEADER_LENGTH + (long) envelopeLength + attachmentLength;
+        int max = maxFrameLength;
+        if (length > max) {
+            throw new IOException("Frame of " + length + " bytes exceeds the maximum of " + max);
+        }
+    }
+
+    /** Returns the longest length that a value decoded from a stream can
+        take up in the stream: the length of the envelope being decoded, or
+        the maximum frame length for a stream which is not a frame. */
+    static int envelopeLength(DataInputStream input)
+    {
+        return input instanceof Input ? ((Input) input).envelopeLength : maxFrameLength;
+    }
+
+    /** Stream into which an envelope is encoded. Space for the frame header is
+        reserved up front and filled in once the envelope is complete. */
+    static class Output extends DataOutputStream
+    {
+        private final ArrayList<byte[]> attachments;
+        private final boolean compress;
+        private long attachmentLength;
+
+        private Output(boolean compress)
+        {
+            super(new EnvelopeBuffer());
+            this.attachments = new ArrayList<>();
+            this.compress = compress;
+            this.attachmentLength = 0;
+        }
+
+        /** Returns <code>true</code> if large arrays may be compressed. */
+        boolean compresses()
+        {
+            return compress;
+        }
+
+        /** Attaches an array to the frame. The array must not be modified
+            until the frame has been written. */
+        void attach(byte[] array) throws IOException
+        {
+            attachmentLength += array.length;
+            if (attachmentLength > Integer.MAX_VALUE) {
+                throw new IOException("Frame attachments too large");
+            }
+            attachments.add(array);
+        }
+
+        private ByteBuffer[] finish()
+        {
+            EnvelopeBuffer envelope = (EnvelopeBuffer) out;
+            ByteBuffer[] buffers = new ByteBuffer[attachments.size() + 1];
+            buffers[0] = envelope.finish((int) attachmentLength);
+            for (int i = 0; i < attachments.size(); i++) {
+                buffers[i + 1] = ByteBuffer.wrap(attachments.get(i));
+            }
+            return buffers;
+        }
+    }
+
+    /** Stream from which an envelope is decoded. */
+    static class Input extends DataInputStream
+    {
+        private final ArrayList<byte[]> pending;
+        private int envelopeLength;
+        private int attachmentsLeft;
+        private long decodeNanos;
+
+        Input(InputStream input)
+        {
+            super(input);
+            this.pending = new ArrayList<>();
+        }
+
+        /** Starts decoding the envelope of a frame with the given header. */
+        private void begin(int envelopeLength, int attachmentLength)
+        {
+            pending.clear();
+            this.envelopeLength = envelopeLength;
+            this.attachmentsLeft = attachmentLength;
+        }
+
+        /** Allocates the destination array of an attachment of the current
+            frame. The array is filled once the envelope has been decoded.
+
+            @throws IOException If the attachment is longer than what remains
+                                of the attachment length in the header.
+         */
+        byte[] expect(int length) throws IOException
+        {
+            if (length < 0 || length > attachmentsLeft) {
+                throw new IOException("Frame attachments do not match header");
+            }
+            attachmentsLeft -= length;
+            byte[] array = new byte[length];
+            pending.add(array);
+            return array;
+        }
+
+        /** Checks that the attachments expected while decoding the envelope
+            take up the whole attachment length in the header. */
+        private void checkAttachments() throws IOException
+        {
+            if (attachmentsLeft != 0) {
+                throw new IOException("Frame attachments do not match header");
+            }
+        }
+
+        /** Returns the time spent decoding the envelope of the last frame
+            read, in nanoseconds. */
+        long getDecodeNanos()
+        {
+            return decodeNanos;
+        }
+    }
+
+    private static class EnvelopeBuffer extends ByteArrayOutputStream
+    {
+        EnvelopeBuffer()
+        {
+            super(256);
+            count = HEADER_LENGTH;
+        }
+
+        ByteBuffer finish(int attachmentLength)
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(buf, 0, count);
+            buffer.putInt(0, count - HEADER_LENGTH);
+            buffer.putInt(4, attachmentLength);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package rmi;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/** Lookup of the classes generated at build time for a remote interface.
+
+    <p>
+    The class generated for interface <code>I</code> is named after it, with
+    a suffix, and lists the signatures of the methods it handles in a static
+    field <code>SIGNATURES</code>. It is used only if those are exactly the
+    methods of the interface. Otherwise, or if there is no generated class,
+    the caller falls back to reflection.
+ */
+final class Generated
+{
+    /** A generated class and the entries of the methods it handles, in the
+        order of their indices. */
+    static final class Binding
+    {
+        final Class<?> generated;
+        final MethodTable.Entry[] entries;
+
+        private Binding(Class<?> generated, MethodTable.Entry[] entries)
+        {
+            this.generated = generated;
+            this.entries = entries;
+        }
+    }
+
+    private Generated()
+    {
+    }
+
+    /** Finds the class generated for a remote interface.
+
+        @param c The remote interface.
+        @param suffix The suffix of the generated class's name.
+        @param base The class the generated class must extend.
+        @return The binding, or <code>null</code> if there is no usable
+                generated class.
+     */
+    static Binding find(Class<?> c, String suffix, Class<?> base)
+    {
+        Class<?> generated;
+        try {
+            generated = Class.forName(c.getName() + suffix, true, c.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+        if (!base.isAssignableFrom(generated) || !Modifier.isPublic(generated.getModifiers())) {
+            return null;
+        }
+        String[] signatures;
+        try {
+            Field field = generated.getField("SIGNATURES");
+            if (!Modifier.isStatic(field.getModifiers())) {
+                return null;
+            }
+            signatures = (String[]) field.get(null);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return null;
+        }
+        MethodTable table = MethodTable.of(c);
+        if (signatures == null || signatures.length != table.entries().size()) {
+            return null;
+        }
+        MethodTable.Entry[] entries = new MethodTable.Entry[signatures.length];
+        for (int i = 0; i < signatures.length; i++) {
+            entries[i] = table.get(signatures[i]);
+            if (entries[i] == null) {
+                return null;
+            }
+        }
+        return new Binding(generated, entries);
+    }
+}
@@ -0,0 +1,88 @@
+package rmi;
+
+/** Base class of skeleton dispatchers generated at build time.
+
+    <p>
+    The build generates, for each remote interface <code>I</code> of the
+    principal packages, a class <code>I_Dispatcher</code> in the same package,
+    which extends this class. Its <code>invoke</code> method calls the method
+    with the given index on the server object directly, in a
+    <code>switch</code> statement, instead of through a method handle which
+    spreads the argument array.
+
+    <p>
+    Skeletons use the generated dispatcher of an interface that has one, and
+    method handles for others. As for generated stubs, the generated class
+    lists the signatures of its methods in a static field
+    <code>SIGNATURES</code>, and is not used if they do not match the methods
+    of the interface.
+
+    @see GeneratedStub
+ */
+public abstract class GeneratedDispatcher<T>
+{
+    /** Generated dispatchers of remote interfaces, or <code>null</code> for
+        interfaces without a usable generated dispatcher. */
+    private static final ClassValue<Generated.Binding> bindings = new ClassValue<Generated.Binding>() {
+        @Override
+        protected Generated.Binding computeValue(Class<?> c)
+        {
+            return Generated.find(c, "_Dispatcher", GeneratedDispatcher.class);
+        }
+    };
+
+    protected GeneratedDispatcher()
+    {
+    }
+
+    /** Invokes a method on the server object.
+
+        @param server The server object.
+        @param method The index of the method in <code>SIGNATURES</code>.
+        @param arguments The arguments, already checked against the method's
+                         parameter types, with primitive values boxed.
+        @return The result of the method, boxed if primitive, or
+                <code>null</code> for a <code>void</code> method.
+        @throws Throwable The exception thrown by the method, unchanged.
+     */
+    protected abstract Object invoke(T server, int method, Object[] arguments) throws Throwable;
+
+    /** Creates the generated dispatcher of an interface.
+
+        @return The dispatcher and the entries of the methods it handles, or
+                <code>null</code> if the interface has no usable generated
+                dispatcher.
+     */
+    static Instance of(Class<?> c)
+    {
+        Generated.Binding binding = bindings.get(c);
+        if (binding == null) {
+            return null;
+        }
+        try {
+            // Generated.find has checked that the class extends this one, and
+            // skeletons only pass it server objects implementing the
+            // interface it was generated for.
+            @SuppressWarnings("unchecked")
+            GeneratedDispatcher<Object> dispatcher =
+                (GeneratedDispatcher<Object>) binding.generated.getConstructor().newInstance();
+            return new Instance(dispatcher, binding.entries);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** A generated dispatcher and the entries of its methods, in the order of
+        their indices. */
+    static final class Instance
+    {
+        final GeneratedDispatcher<Object> dispatcher;
+        final MethodTable.Entry[] entries;
+
+        private Instance(GeneratedDispatcher<Object> dispatcher, MethodTable.Entry[] entries)
+        {
+            this.dispatcher = dispatcher;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/** Base class of stubs generated at build time.
+
+    <p>
+    The build generates, for each remote interface <code>I</code> of the
+    principal packages, a class <code>I_Stub</code> in the same package, which
+    extends this class and implements <code>I</code>. Each of its methods
+    passes its index and arguments to <code>invoke</code>, and makes the call
+    exactly like a stub created with <code>java.lang.reflect.Proxy</code>, but
+    without looking the method up, without copying its parameter types, and
+    without comparing its name with those of the methods of
+    <code>Object</code>.
+
+    <p>
+    <code>Stub</code> creates generated stubs for interfaces that have them,
+    and proxy stubs for others. A generated class lists the signatures of
+    the methods it implements in a static field <code>SIGNATURES</code>, in
+    the order of their indices. A generated class whose signatures do not
+    match the methods of the interface, because the interface has changed
+    since the class was generated, is not used.
+
+    <p>
+    Generated stubs and proxy stubs for the same interface and skeleton are
+    equal, and can be used interchangeably.
+ */
+public abstract class GeneratedStub implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final MethodType CONSTRUCTOR_TYPE =
+        MethodType.methodType(void.class, StubInvocationHandler.class);
+
+    /** Generated stubs of remote interfaces, or <code>null</code> for
+        interfaces without a usable generated stub. */
+    private static final ClassValue<Factory> factories = new ClassValue<Factory>() {
+        @Override
+        protected Factory computeValue(Class<?> c)
+        {
+            Generated.Binding binding = Generated.find(c, "_Stub", GeneratedStub.class);
+            if (binding == null || !c.isAssignableFrom(binding.generated)) {
+                return null;
+            }
+            try {
+                return new Factory(MethodHandles.publicLookup().findConstructor(binding.generated, CONSTRUCTOR_TYPE),
+                                   binding.entries);
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+    };
+
+    private final StubInvocationHandler handler;
+    private transient MethodTable.Entry[] entries;
+
+    /** Creates a stub making its calls through the given handler. */
+    protected GeneratedStub(StubInvocationHandler handler)
+    {
+        this.handler = handler;
+        this.entries = entriesOf(handler.getInterface());
+    }
+
+    /** Calls a remote method.
+
+        @param method The index of the method in <code>SIGNATURES</code>.
+        @param arguments The arguments, with primitive values boxed.
+        @return The result of the method, boxed if primitive.
+        @throws Throwable The exception thrown by the remote method, or an
+                          <code>RMIException</code> if the call could not be
+                          completed.
+     */
+    protected final Object invoke(int method, Object[] arguments) throws Throwable
+    {
+        return handler.call(entries[method], arguments);
+    }
+
+    StubInvocationHandler getHandler()
+    {
+        return handler;
+    }
+
+    /** Creates the generated stub of an interface, or returns
+        <code>null</code> if the interface has no usable generated stub. */
+    static Object create(Class<?> c, StubInvocationHandler handler)
+    {
+        Factory factory = factories.get(c);
+        if (factory == null) {
+            return null;
+        }
+        try {
+            return factory.constructor.invoke(handler);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Error("Cannot create generated stub for " + c.getName(), t);
+        }
+    }
+
+    /** Returns the entries of the methods of the generated stub of an
+        interface, in the order of their indices. */
+    private static MethodTable.Entry[] entriesOf(Class<?> c)
+    {
+        Factory factory = factories.get(c);
+        if (factory == null) {
+            throw new IllegalStateException("Generated stub for " + c.getName() + " does not match the interface");
+        }
+        return factory.entries;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        StubInvocationHandler otherHandler = other == null ? null : Stub.findHandler(other);
+        return otherHandler != null && handler.sameRemote(otherHandler);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return handler.remoteHashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return handler.describe();
+    }
+
+    private void readObject(ObjectInputStream input)
+        throws IOException, ClassNotFoundException
+    {
+        input.defaultReadObject();
+        try {
+            entries = entriesOf(handler.getInterface());
+        } catch (IllegalStateException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    /** Constructor of a generated stub class and the entries of its
+        methods. */
+    private static final class Factory
+    {
+        final MethodHandle constructor;
+        final MethodTable.Entry[] entries;
+
+        Factory(MethodHandle constructor, MethodTable.Entry[] entries)
+        {
+            this.constructor = constructor;
+            this.entries = entries;
+        }
+    }
+}
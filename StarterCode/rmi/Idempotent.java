@@ -0,0 +1,42 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a remote method as idempotent: calling it several times with the
+    same arguments has the same effect, and returns the same result, as
+    calling it once.
+
+    <p>
+    A skeleton can coalesce concurrent calls to an idempotent method with equal
+    arguments, if the annotation asks for it with <code>coalesce</code>. While
+    one call is running, calls with arguments equal to its own do not run the
+    method again; they wait for the running call and are answered with its
+    result, or the exception the method threw. Arguments are compared with
+    <code>equals</code>, and arrays by their contents. A call answered this way
+    may not observe changes completed after the running call started, even if
+    they were completed before the call itself was made, so coalescing is only
+    suitable for methods whose results do not depend on state modified by
+    other calls.
+
+    <p>
+    Stubs retry calls to idempotent methods which fail to reach the skeleton
+    by sending them again. Calls to other methods are retried with a request
+    token, by which the skeleton recognizes retries of calls it has already
+    run; see <code>RetryPolicy</code>.
+
+    <p>
+    The annotation may be placed on a method of a remote interface, or on the
+    interface itself to apply to every method.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Idempotent
+{
+    /** Whether concurrent calls with equal arguments are coalesced. */
+    boolean coalesce() default false;
+}
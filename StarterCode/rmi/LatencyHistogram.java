@@ -0,0 +1,161 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Histogram of latencies, in nanoseconds.
+
+    <p>
+    Latencies are counted in fixed buckets. Values below 16 have a bucket each;
+    above that, every power of two is split into eight buckets of equal width,
+    so that a value is known to within one eighth of itself. The buckets cover
+    every non-negative <code>long</code>, so the histogram never overflows or
+    needs to grow.
+
+    <p>
+    Recording a latency updates a few atomic counters and does not allocate, so
+    histograms can be updated on every call. Reading a histogram while it is
+    being updated gives a consistent view of each counter, but not necessarily
+    of all counters together.
+ */
+public final class LatencyHistogram
+{
+    /** Number of buckets. */
+    public static final int BUCKETS = 488;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.total = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /** Records a latency. Negative latencies are recorded as zero. */
+    void record(long nanos)
+    {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /** Returns the number of latencies recorded. */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /** Returns the sum of all latencies recorded. */
+    public long getTotalNanos()
+    {
+        return total.get();
+    }
+
+    /** Returns the largest latency recorded, or zero if there is none. */
+    public long getMaxNanos()
+    {
+        return max.get();
+    }
+
+    /** Returns the mean latency, or zero if none has been recorded. */
+    public double getMeanNanos()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /** Returns an estimate of a percentile of the recorded latencies: the
+        upper bound of the bucket in which the percentile falls, or the largest
+        latency recorded if that is lower.
+
+        @param percentile The percentile, between 0 and 100.
+        @return The estimate, or zero if no latency has been recorded.
+        @throws IllegalArgumentException If <code>percentile</code> is out of
+                                         range.
+     */
+    public long getPercentileNanos(double percentile)
+    {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        long[] snapshot = getBuckets();
+        long n = 0;
+        for (long bucket : snapshot) {
+            n += bucket;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** Returns a copy of the bucket counts. The count at index
+        <code>i</code> is the number of latencies of at least
+        <code>getBucketLowerBound(i)</code> and less than
+        <code>getBucketUpperBound(i)</code> nanoseconds. */
+    public long[] getBuckets()
+    {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /** Returns the smallest latency, in nanoseconds, counted in a bucket. */
+    public static long getBucketLowerBound(int bucket)
+    {
+        if (bucket < 0 || bucket >= BUCKETS) {
+            throw new IndexOutOfBoundsException("No bucket " + bucket);
+        }
+        if (bucket < 8) {
+            return bucket;
+        }
+        int exponent = bucket / 8 + 2;
+        return (long) (8 + bucket % 8) << (exponent - 3);
+    }
+
+    /** Returns the latency, in nanoseconds, above the largest counted in a
+        bucket. The last bucket's bound is <code>Long.MAX_VALUE</code>. */
+    public static long getBucketUpperBound(int bucket)
+    {
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return getBucketLowerBound(bucket + 1);
+    }
+
+    private static int bucketOf(long nanos)
+    {
+        if (nanos < 8) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return (exponent - 2) * 8 + (int) ((nanos >>> (exponent - 3)) & 7);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d mean=%.0fns p50=%dns p99=%dns max=%dns",
+                             getCount(), getMeanNanos(), getPercentileNanos(50),
+                             getPercentileNanos(99), getMaxNanos());
+    }
+}
@@ -0,0 +1,37 @@
+package rmi;
+
+/** Listening thread of a started skeleton.
+
+    <p>
+    The listening socket is bound by <code>Skeleton.start</code> before the
+    thread is started. When the skeleton is stopped, <code>shutdown</code>
+    closes the socket, which wakes the thread. The thread then waits for the
+    requests it has already received to be answered, for at most the drain
+    timeout, closes the remaining connections and reports to the skeleton that
+    it has stopped.
+ */
+abstract class Listener extends Thread
+{
+    final CallTracker calls;
+    final long drainTimeout;
+
+    Listener(String name, CallTracker calls, long drainTimeout)
+    {
+        super(name);
+        this.calls = calls;
+        this.drainTimeout = drainTimeout;
+    }
+
+    /** Closes the listening socket and wakes the listening thread. Called
+        after the skeleton's status has been set to stopping. */
+    abstract void shutdown();
+
+    /** Waits for the requests already received to be answered, for at most
+        the drain timeout. */
+    void drain()
+    {
+        if (!calls.awaitIdle(drainTimeout)) {
+            System.out.println("Stopping skeleton: " + calls.outstanding() + " requests abandoned");
+        }
+    }
+}
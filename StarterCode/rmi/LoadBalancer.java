@@ -0,0 +1,93 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Choice of the endpoint of each call made through a stub with several
+    endpoints.
+
+    <p>
+    Each call goes to the better of two endpoints picked at random: the one
+    with fewer calls outstanding from this JVM through stubs with several
+    endpoints. Picking two at random, rather than the least loaded of all,
+    keeps stubs which look at the same counts at the same time from all
+    choosing the same endpoint, while still steering calls away from slow
+    endpoints, on which calls accumulate.
+
+    <p>
+    Endpoints whose circuit breaker is open are ejected: they are not
+    chosen while any endpoint with a closed or half-open breaker remains.
+    An ejected endpoint rejoins once its breaker's cool-down has elapsed and
+    a trial call to it has been answered.
+ */
+final class LoadBalancer
+{
+    private static final ConcurrentHashMap<InetSocketAddress, AtomicInteger> outstanding =
+        new ConcurrentHashMap<>();
+
+    private LoadBalancer()
+    {
+    }
+
+    /** Chooses the endpoint of a call. */
+    static InetSocketAddress choose(InetSocketAddress[] endpoints)
+    {
+        InetSocketAddress[] candidates = healthy(endpoints);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+        int first = random.nextInt(candidates.length);
+        int second = random.nextInt(candidates.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        return outstanding(candidates[second]) < outstanding(candidates[first])
+            ? candidates[second] : candidates[first];
+    }
+
+    /** Returns the endpoints whose circuit breaker is not open, or all of
+        them if every breaker is open. */
+    private static InetSocketAddress[] healthy(InetSocketAddress[] endpoints)
+    {
+        ConnectionPool pool = ConnectionPool.getDefault();
+        InetSocketAddress[] healthy = new InetSocketAddress[endpoints.length];
+        int count = 0;
+        for (InetSocketAddress endpoint : endpoints) {
+            CircuitBreaker breaker = pool.getCircuitBreaker(endpoint);
+            if (breaker == null || breaker.isAvailable()) {
+                healthy[count++] = endpoint;
+            }
+        }
+        if (count == 0) {
+            return endpoints;
+        }
+        if (count == endpoints.length) {
+            return healthy;
+        }
+        InetSocketAddress[] trimmed = new InetSocketAddress[count];
+        System.arraycopy(healthy, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /** Returns the number of calls outstanding to an endpoint. */
+    static int outstanding(InetSocketAddress endpoint)
+    {
+        AtomicInteger count = outstanding.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /** Called when a call is sent to an endpoint. */
+    static void started(InetSocketAddress endpoint)
+    {
+        outstanding.computeIfAbsent(endpoint, e -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /** Called when a call to an endpoint has completed. */
+    static void finished(InetSocketAddress endpoint)
+    {
+        outstanding.get(endpoint).decrementAndGet();
+    }
+}
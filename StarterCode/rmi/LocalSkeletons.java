@@ -0,0 +1,158 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import common.Path;
+
+/** Registry of the skeletons running in this JVM, through which stubs call
+    them without going through the network.
+
+    <p>
+    A running skeleton is registered under its port. A stub whose address
+    names that port on a local address invokes the server object directly, on
+    the calling thread, with no socket and no serialization. The call still
+    goes through the skeleton's dispatch table, is counted in its statistics
+    and is waited for by a stopping skeleton.
+
+    <p>
+    Remote calls pass arguments and results by value, so they are copied
+    where the server or the caller could otherwise observe changes made by
+    the other side: arrays are cloned, and other mutable objects are copied
+    by serializing them. Strings, paths, boxed primitives, enums and stubs are
+    immutable, and are passed as they are. Exceptions thrown by the server
+    object are rethrown as they are.
+ */
+final class LocalSkeletons
+{
+    private static final ConcurrentHashMap<Integer, Skeleton<?>> skeletons =
+        new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<InetAddress, Boolean> localAddresses =
+        new ConcurrentHashMap<>();
+
+    private LocalSkeletons()
+    {
+    }
+
+    /** Registers a skeleton which has started listening on a port. */
+    static void register(int port, Skeleton<?> skeleton)
+    {
+        skeletons.put(port, skeleton);
+    }
+
+    /** Removes a skeleton which has stopped listening on a port. */
+    static void unregister(int port, Skeleton<?> skeleton)
+    {
+        skeletons.remove(port, skeleton);
+    }
+
+    /** Invokes a method on the skeleton listening at an address, if it runs in
+        this JVM.
+
+        @param address The address of the skeleton.
+        @param request The request, carrying the method invocation and the
+                       call's trace context. Its arguments are copied as
+                       needed.
+        @return The response, or <code>null</code> if the call must be sent
+                over the network: because no skeleton in this JVM listens at
+                the address, or because it is stopping or has no spare
+                capacity.
+        @throws RMIException If the arguments or the result cannot be
+                             copied.
+     */
+    static MessagePackage invoke(InetSocketAddress address, MessagePackage request)
+        throws RMIException
+    {
+        Skeleton<?> skeleton = skeletons.get(address.getPort());
+        if (skeleton == null || !isLocal(address.getAddress())) {
+            return null;
+        }
+        MethodPack methodPack = (MethodPack) request.getData();
+        Object[] arguments = methodPack.getParas();
+        Object[] copies = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            copies[i] = copy(arguments[i]);
+        }
+        MessagePackage response = skeleton.invokeLocally(methodPack.getMethodId(), copies, request);
+        if (response != null && response.getMessageType() == MessageType.INVOKE_SUCCESS) {
+            response = new MessagePackage<>(MessageType.INVOKE_SUCCESS, (Serializable) copy(response.getData()));
+        }
+        return response;
+    }
+
+    /** Returns <code>true</code> if an address belongs to this host. */
+    static boolean isLocal(InetAddress address)
+    {
+        if (address == null) {
+            return false;
+        }
+        return localAddresses.computeIfAbsent(address, a -> {
+            if (a.isAnyLocalAddress() || a.isLoopbackAddress()) {
+                return true;
+            }
+            try {
+                return NetworkInterface.getByInetAddress(a) != null;
+            } catch (SocketException e) {
+                return false;
+            }
+        });
+    }
+
+    private static boolean isStub(Object value)
+    {
+        if (value instanceof GeneratedStub) {
+            return true;
+        }
+        if (!Proxy.isProxyClass(value.getClass())) {
+            return false;
+        }
+        Object handler = Proxy.getInvocationHandler(value);
+        return handler instanceof StubInvocationHandler
+            || handler instanceof AsyncStubInvocationHandler;
+    }
+
+    /** Returns a value that behaves as a copy of <code>value</code> sent over
+        the network. */
+    static Object copy(Object value) throws RMIException
+    {
+        if (value == null || value instanceof String || value instanceof Path
+            || value instanceof Integer || value instanceof Long
+            || value instanceof Boolean || value instanceof Character
+            || value instanceof Byte || value instanceof Short
+            || value instanceof Float || value instanceof Double
+            || value instanceof Enum || isStub(value)) {
+            return value;
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        if (value instanceof String[]) {
+            return ((String[]) value).clone();
+        }
+        if (value instanceof Path[]) {
+            return ((Path[]) value).clone();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+                stream.writeObject(value);
+            }
+            try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return stream.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RMIException("Unable to copy " + value.getClass().getName(), e);
+        }
+    }
+}
@@ -5,7 +5,13 @@ import java.io.Serializable;
 public class MessagePackage<T extends Serializable> implements Serializable {
 
     private static final long serialVersionUID = 1L;
+    private long id;
     private MessageType messageType;
+    private int timeout;
+    private long traceId;
+    private long spanId;
+    private long token;
+    private int interfaceId;
     private T data;
 
     public MessagePackage(MessageType messageType) {
@@ -17,6 +23,96 @@ public class MessagePackage<T extends Serializable> implements Serializable {
         this.data = data;
     }
 
+    /** Returns the correlation ID of the message.
+
+        <p>
+        Requests are tagged by the stub connection with an ID that is unique on
+        that connection. The skeleton tags the response to a request with the
+        same ID, so that several requests can be in flight on one connection and
+        their responses can be returned in any order.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    /** Returns the time, in milliseconds, that the caller still waits for the
+        response to the request, or zero if it waits indefinitely.
+
+        <p>
+        The stub sets the time remaining each time it sends the request, rather
+        than an absolute deadline, so that the skeleton does not depend on its
+        clock agreeing with the stub's. The skeleton computes the deadline
+        from the time the request was received.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /** Returns the ID of the trace the request belongs to, or zero if it is
+        not traced.
+
+        @see Tracing
+     */
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public void setTraceId(long traceId) {
+        this.traceId = traceId;
+    }
+
+    /** Returns the ID of the client span of a traced request, which is the
+        parent of the server span. */
+    public long getSpanId() {
+        return spanId;
+    }
+
+    public void setSpanId(long spanId) {
+        this.spanId = spanId;
+    }
+
+    /** Returns the request token of a call to a non-idempotent method, or
+        zero if the request has none.
+
+        <p>
+        The stub sends the same token with every attempt of a call, so that
+        the skeleton runs the call at most once however many attempts reach
+        it.
+
+        @see RetryPolicy
+     */
+    public long getToken() {
+        return token;
+    }
+
+    public void setToken(long token) {
+        this.token = token;
+    }
+
+    /** Returns the ID of the remote interface whose method a request calls,
+        or zero for the interface the skeleton was created for.
+
+        <p>
+        A skeleton may serve several interfaces on one port. Stubs always
+        send the ID of their interface, so that their requests reach the
+        right server object whichever interface the skeleton was created for.
+     */
+    public int getInterfaceId() {
+        return interfaceId;
+    }
+
+    public void setInterfaceId(int interfaceId) {
+        this.interfaceId = interfaceId;
+    }
+
     public MessageType getMessageType() {
         return messageType;
     }
@@ -6,7 +6,10 @@ public enum MessageType {
     METHOD_INVOKE,
     SERVICE_STOP,
     INVOKE_SUCCESS,
-    INVOKE_FAILED;
+    INVOKE_FAILED,
+    BATCH_INVOKE,
+    BATCH_RESULT,
+    CANCEL;
 
 
 }
@@ -4,20 +4,26 @@ import java.io.Serializable;
 import java.util.Arrays;
 
 public class MethodPack implements Serializable {
-    private String methodName;
+    private int methodId;
     private Object[] paras;
 
-    public MethodPack(String methodName, Object[] paras) {
-        this.methodName = methodName;
+    /** Creates a method invocation request.
+
+        @param methodId The ID of the method, as assigned by the remote
+                        interface's method table.
+        @param paras The arguments of the call.
+     */
+    public MethodPack(int methodId, Object[] paras) {
+        this.methodId = methodId;
         this.paras = paras;
     }
 
-    public String getMethodName() {
-        return methodName;
+    public int getMethodId() {
+        return methodId;
     }
 
-    public void setMethodName(String methodName) {
-        this.methodName = methodName;
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
     }
 
     public Object[] getParas() {
@@ -31,7 +37,7 @@ public class MethodPack implements Serializable {
     @Override
     public String toString() {
         return "MethodPack{" +
-                ", methodName='" + methodName + '\'' +
+                ", methodId=" + methodId +
                 ", paras=" + Arrays.toString(paras) +
                 '}';
     }
@@ -0,0 +1,188 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Call statistics of one remote method of a skeleton.
+
+    <p>
+    A skeleton keeps one instance for each method of its remote interface, for
+    as long as the skeleton exists; statistics are kept across restarts. The
+    latency of each call is split into four phases, each with its own
+    histogram:
+
+    <ul>
+    <li><em>deserialize</em>: decoding the request message;</li>
+    <li><em>queue wait</em>: waiting for a worker thread once the request has
+        been decoded;</li>
+    <li><em>invoke</em>: checking the arguments and running the method on the
+        server object;</li>
+    <li><em>serialize</em>: encoding the response and handing it to the
+        connection.</li>
+    </ul>
+
+    <p>
+    Calls to an idempotent method which are answered with the result of an
+    identical call already running, rather than by invoking the method, are
+    counted as coalesced calls, and are not counted as invocations. Likewise,
+    retries of calls to a non-idempotent method which the skeleton has
+    already run are counted as duplicates.
+
+    <p>
+    Calls made as part of a batch are counted, and their invoke latency
+    recorded, individually. The other phases belong to the batch as a whole and
+    are not recorded for its calls.
+ */
+public final class MethodStats
+{
+    private final String signature;
+    private final AtomicLong calls;
+    private final AtomicLong errors;
+    private final AtomicLong rejected;
+    private final AtomicLong coalesced;
+    private final AtomicLong duplicates;
+    private final AtomicLong inFlight;
+    private final LatencyHistogram deserialize;
+    private final LatencyHistogram queueWait;
+    private final LatencyHistogram invoke;
+    private final LatencyHistogram serialize;
+
+    MethodStats(String signature)
+    {
+        this.signature = signature;
+        this.calls = new AtomicLong();
+        this.errors = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.coalesced = new AtomicLong();
+        this.duplicates = new AtomicLong();
+        this.inFlight = new AtomicLong();
+        this.deserialize = new LatencyHistogram();
+        this.queueWait = new LatencyHistogram();
+        this.invoke = new LatencyHistogram();
+        this.serialize = new LatencyHistogram();
+    }
+
+    /** Called when a call is received. */
+    void enter()
+    {
+        inFlight.incrementAndGet();
+    }
+
+    /** Called when a call has been answered, or abandoned. */
+    void exit()
+    {
+        inFlight.decrementAndGet();
+    }
+
+    /** Called when the method has been invoked.
+
+        @param failed <code>true</code> if the method threw an exception or its
+                      arguments were rejected.
+        @param nanos The invoke latency.
+     */
+    void invoked(boolean failed, long nanos)
+    {
+        calls.incrementAndGet();
+        if (failed) {
+            errors.incrementAndGet();
+        }
+        invoke.record(nanos);
+    }
+
+    /** Called when a call is refused by admission control. */
+    void rejected()
+    {
+        rejected.incrementAndGet();
+    }
+
+    /** Called when a call is answered with the result of an identical call
+        already running. */
+    void coalesced()
+    {
+        coalesced.incrementAndGet();
+    }
+
+    /** Called when a retry is answered with the response to an earlier
+        attempt of the same call. */
+    void duplicate()
+    {
+        duplicates.incrementAndGet();
+    }
+
+    /** Returns the signature of the method, such as
+        <code>read(common.Path,long,int)</code>. */
+    public String getSignature()
+    {
+        return signature;
+    }
+
+    /** Returns the number of times the method has been invoked. */
+    public long getCalls()
+    {
+        return calls.get();
+    }
+
+    /** Returns the number of invocations that threw an exception or were
+        rejected for having arguments of the wrong types. */
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    /** Returns the number of calls refused, without being run, because the
+        skeleton was overloaded. Refused calls are not counted by
+        <code>getCalls</code>. */
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    /** Returns the number of calls answered with the result of an identical
+        call that was already running, without invoking the method. */
+    public long getCoalesced()
+    {
+        return coalesced.get();
+    }
+
+    /** Returns the number of retries answered with the response to an
+        earlier attempt of the same call, without invoking the method
+        again. */
+    public long getDuplicates()
+    {
+        return duplicates.get();
+    }
+
+    /** Returns the number of calls received and not yet answered. */
+    public long getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    public LatencyHistogram getDeserialize()
+    {
+        return deserialize;
+    }
+
+    public LatencyHistogram getQueueWait()
+    {
+        return queueWait;
+    }
+
+    public LatencyHistogram getInvoke()
+    {
+        return invoke;
+    }
+
+    public LatencyHistogram getSerialize()
+    {
+        return serialize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return signature + ": calls=" + getCalls() + " errors=" + getErrors()
+            + " rejected=" + getRejected() + " coalesced=" + getCoalesced()
+            + " duplicates=" + getDuplicates()
+            + " inFlight=" + getInFlight() + " invoke[" + invoke + "]";
+    }
+}
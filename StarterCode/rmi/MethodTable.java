@@ -0,0 +1,247 @@
+package rmi;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Index of the methods of a remote interface.
+
+    <p>
+    Stubs identify the method being called by a numeric method ID rather than
+    by its name. The ID of a method is derived from its signature - its name
+    and the names of its parameter types - so stubs and skeletons compute the
+    same IDs independently, and a stub calling a method the skeleton's
+    interface does not have is rejected rather than dispatched to an unrelated
+    method.
+
+    <p>
+    An interface is identified by an interface ID, derived in the same way
+    from its name, so that a skeleton serving several interfaces on one port
+    can tell which of them a request is for.
+
+    <p>
+    Tables are built once per interface and shared by all stubs and skeletons
+    for it. A table also holds, for each method, a method handle and the boxed
+    parameter types used to check incoming arguments, so that skeletons do not
+    repeat any reflective lookup per call.
+ */
+class MethodTable
+{
+    private static final ConcurrentHashMap<Class<?>, MethodTable> tables =
+        new ConcurrentHashMap<>();
+
+    private static final MethodType INVOKER_TYPE =
+        MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private final Class<?> c;
+    /** ID of the interface, which is never zero. */
+    final int interfaceId;
+    private final HashMap<Method, Integer> ids;
+    private final HashMap<Integer, Entry> entries;
+
+    private MethodTable(Class<?> c)
+    {
+        this.c = c;
+        int interfaceId = c.getName().hashCode();
+        this.interfaceId = interfaceId == 0 ? 1 : interfaceId;
+        this.ids = new HashMap<>();
+        this.entries = new HashMap<>();
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Method method : c.getMethods()) {
+            String signature = signature(method);
+            int id = signature.hashCode();
+            Entry existing = entries.get(id);
+            if (existing != null) {
+                // Overridden methods redeclared in a subinterface share a
+                // signature; any one of them dispatches to the same
+                // implementation.
+                if (existing.signature.equals(signature)) {
+                    ids.put(method, id);
+                    continue;
+                }
+                throw new Error("Methods " + existing.signature + " and " + signature + " of " + c.getName() + " have the same method ID");
+            }
+
+            MethodHandle invoker;
+            try {
+                invoker = unreflect(lookup, method)
+                              .asSpreader(Object[].class, method.getParameterCount())
+                              .asType(INVOKER_TYPE);
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new Error("Method " + signature + " of " + c.getName() + " is not accessible", e);
+            }
+
+            ids.put(method, id);
+            entries.put(id, new Entry(id, method, signature, invoker));
+        }
+    }
+
+    /** Returns the table for the given remote interface. */
+    static MethodTable of(Class<?> c)
+    {
+        return tables.computeIfAbsent(c, MethodTable::new);
+    }
+
+    /** Returns the ID of a method of the interface.
+
+        @throws IllegalArgumentException If the method is not a method of the
+                                         interface.
+     */
+    int idOf(Method method)
+    {
+        Integer id = ids.get(method);
+        if (id == null) {
+            throw new IllegalArgumentException(method + " is not a method of " + c.getName());
+        }
+        return id;
+    }
+
+    /** Returns the entry for a method of the interface.
+
+        @throws IllegalArgumentException If the method is not a method of the
+                                         interface.
+     */
+    Entry entryOf(Method method)
+    {
+        return entries.get(idOf(method));
+    }
+
+    /** Returns the entry for a method ID, or <code>null</code> if the
+        interface has no method with that ID. */
+    Entry get(int id)
+    {
+        return entries.get(id);
+    }
+
+    /** Returns the entry for a method signature, or <code>null</code> if
+        the interface has no method with that signature. */
+    Entry get(String signature)
+    {
+        Entry entry = entries.get(signature.hashCode());
+        return entry != null && entry.signature.equals(signature) ? entry : null;
+    }
+
+    /** Returns the entries of all methods of the interface. */
+    Collection<Entry> entries()
+    {
+        return entries.values();
+    }
+
+    /** Returns a handle for the method. Methods of interfaces that are not
+        public are made accessible first. */
+    private static MethodHandle unreflect(MethodHandles.Lookup lookup, Method method)
+        throws IllegalAccessException
+    {
+        try {
+            return lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        }
+    }
+
+    private static String signature(Method method)
+    {
+        StringBuilder signature = new StringBuilder(method.getName()).append('(');
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            signature.append(types[i].getTypeName());
+        }
+        return signature.append(')').toString();
+    }
+
+    private static Class<?> box(Class<?> type)
+    {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    /** Dispatch information for one method. */
+    static class Entry
+    {
+        final int id;
+        final Method method;
+        final String signature;
+        /** Invokes the method with the target object and the spread argument
+            array, returning the boxed result. */
+        final MethodHandle invoker;
+        final Class<?>[] parameterTypes;
+        final boolean[] primitive;
+        /** Timeout, in milliseconds, set by a <code>Timeout</code> annotation
+            on the method or its interface, or <code>-1</code> if there is
+            none. */
+        final long timeout;
+        /** Priority class set by a <code>Priority</code> annotation on the
+            method or its interface. */
+        final PriorityClass priority;
+        /** Whether the method or its interface is marked
+            <code>Idempotent</code>. */
+        final boolean idempotent;
+        /** Whether concurrent calls with equal arguments are coalesced, as
+            set by an <code>Idempotent</code> annotation on the method or, if
+            it has none, on its interface. */
+        final boolean coalesce;
+
+        private Entry(int id, Method method, String signature, MethodHandle invoker)
+        {
+            this.id = id;
+            this.method = method;
+            this.signature = signature;
+            this.invoker = invoker;
+
+            Class<?>[] types = method.getParameterTypes();
+            this.parameterTypes = new Class<?>[types.length];
+            this.primitive = new boolean[types.length];
+            for (int i = 0; i < types.length; i++) {
+                parameterTypes[i] = box(types[i]);
+                primitive[i] = types[i].isPrimitive();
+            }
+
+            Timeout annotation = method.getAnnotation(Timeout.class);
+            if (annotation == null) {
+                annotation = method.getDeclaringClass().getAnnotation(Timeout.class);
+            }
+            this.timeout = annotation == null ? -1 : annotation.value();
+
+            Priority priority = method.getAnnotation(Priority.class);
+            if (priority == null) {
+                priority = method.getDeclaringClass().getAnnotation(Priority.class);
+            }
+            this.priority = priority == null ? PriorityClass.CONTROL : priority.value();
+
+            Idempotent idempotent = method.getAnnotation(Idempotent.class);
+            if (idempotent == null) {
+                idempotent = method.getDeclaringClass().getAnnotation(Idempotent.class);
+            }
+            this.idempotent = idempotent != null;
+            this.coalesce = idempotent != null && idempotent.coalesce();
+        }
+
+        /** Returns <code>true</code> if the arguments can be passed to the
+            method without conversion errors. */
+        boolean accepts(Object[] arguments)
+        {
+            int count = arguments == null ? 0 : arguments.length;
+            if (count != parameterTypes.length) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                Object argument = arguments[i];
+                if (argument == null ? primitive[i] : !parameterTypes[i].isInstance(argument)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
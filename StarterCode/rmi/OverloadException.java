@@ -0,0 +1,20 @@
+package rmi;
+
+/** Thrown by a stub when the skeleton refused a call because it was
+    overloaded.
+
+    <p>
+    A skeleton with admission limits answers a call with this exception at
+    once, without running it, when it is already running and queueing as many
+    calls as its limits allow. The call has not been executed, so it is safe
+    to retry, preferably after backing off.
+ */
+public class OverloadException extends RMIException
+{
+    /** Creates an <code>OverloadException</code> with the given message
+        string. */
+    public OverloadException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,24 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Priority class of calls to a remote method.
+
+    <p>
+    The annotation may be placed on a method of a remote interface, or on the
+    interface itself to apply to every method without an annotation of its
+    own. Methods without an annotation are in the <code>CONTROL</code> class.
+
+    @see PriorityClass
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Priority
+{
+    PriorityClass value();
+}
@@ -0,0 +1,21 @@
+package rmi;
+
+/** Priority classes of remote methods.
+
+    <p>
+    Calls of different classes do not share resources that would let one
+    class hold up the other. Stubs send them on separate pooled connections,
+    so a small call is never queued behind a large transfer in a socket
+    buffer, and skeletons run them on separate worker executors with separate
+    admission limits.
+ */
+public enum PriorityClass
+{
+    /** Short, latency-sensitive calls, such as metadata queries. The class of
+        methods without a <code>Priority</code> annotation. */
+    CONTROL,
+
+    /** Calls transferring large amounts of data, such as file reads and
+        writes. */
+    BULK
+}
@@ -0,0 +1,116 @@
+package rmi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/** Window of the request tokens of recent calls to non-idempotent methods,
+    with their responses.
+
+    <p>
+    Stubs tag calls to non-idempotent methods with a random token, and send
+    the same token when they retry a call. The first call with a token runs
+    the method; a call arriving later with the same token, while the first
+    is still running or once it has completed, waits for the first and is
+    answered with its response. The window holds the tokens of a bounded
+    number of the most recent calls; older tokens are forgotten, oldest
+    first.
+ */
+class RequestTokens
+{
+    /** Default number of tokens remembered. */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final LinkedHashMap<Long, CompletableFuture<MessagePackage<?>>> requests;
+    private int capacity;
+
+    RequestTokens()
+    {
+        this.requests = new LinkedHashMap<>();
+        this.capacity = DEFAULT_CAPACITY;
+    }
+
+    /** Returns a new request token. Tokens are never zero. */
+    static long next()
+    {
+        long token;
+        do {
+            token = ThreadLocalRandom.current().nextLong();
+        } while (token == 0);
+        return token;
+    }
+
+    synchronized int getCapacity()
+    {
+        return capacity;
+    }
+
+    /** Sets the number of tokens remembered, forgetting the oldest ones if
+        there are more. Zero disables deduplication. */
+    synchronized void setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+        trim();
+    }
+
+    /** Runs a call, unless a call with the same token has already been run.
+
+        @param token The request token of the call.
+        @param stats The statistics of the method called, in which a
+                     duplicate call is counted.
+        @param invocation Runs the method and returns the response.
+        @return The response.
+     */
+    MessagePackage<?> run(long token, MethodStats stats, Supplier<MessagePackage<?>> invocation)
+    {
+        CompletableFuture<MessagePackage<?>> request = new CompletableFuture<>();
+        CompletableFuture<MessagePackage<?>> first;
+        synchronized (this) {
+            first = capacity == 0 ? null : requests.putIfAbsent(token, request);
+            if (first == null && capacity != 0) {
+                trim();
+            }
+        }
+        if (first != null) {
+            stats.duplicate();
+            return join(first);
+        }
+
+        try {
+            MessagePackage<?> response = invocation.get();
+            request.complete(response);
+            return response;
+        } catch (RuntimeException | Error e) {
+            request.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void trim()
+    {
+        Iterator<CompletableFuture<MessagePackage<?>>> oldest = requests.values().iterator();
+        while (requests.size() > capacity) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    /** Waits for the first call with a token and returns a copy of its
+        response, which is tagged with the correlation ID of each request it
+        answers. */
+    private static MessagePackage<?> join(CompletableFuture<MessagePackage<?>> first)
+    {
+        try {
+            MessagePackage<?> response = first.get();
+            return new MessagePackage<>(response.getMessageType(), response.getData());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new MessagePackage<>(MessageType.INVOKE_FAILED, new CallTimeoutException("Call cancelled while waiting for its first attempt"));
+        } catch (ExecutionException e) {
+            return new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("First attempt of call failed", e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package rmi;
+
+/** Sends responses back on the connection a request arrived on. */
+interface Responder
+{
+    /** Returns the calls received on the connection and not yet answered. */
+    ActiveCalls getActiveCalls();
+
+    /** Sends a response tagged with the given correlation ID. A
+        <code>null</code> response is not sent, but still marks the request as
+        answered. Implementations must allow concurrent calls. */
+    void respond(long id, MessagePackage response);
+}
@@ -0,0 +1,114 @@
+package rmi;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Policy by which a stub retries calls that fail to reach the skeleton.
+
+    <p>
+    A call is retried only when it fails because the connection to the
+    skeleton could not be opened or failed before the response arrived, or
+    because the skeleton was stopping. Calls which the skeleton answered,
+    including those answered with an exception thrown by the server object
+    or with an <code>OverloadException</code>, calls which timed out, calls
+    failed at once by an open circuit breaker or refused by the stub's
+    concurrency limit, and calls whose request could not be encoded, are not
+    retried. A retry is never made past the call's deadline.
+
+    <p>
+    Before each retry the stub waits for a random delay of up to the base
+    delay, doubled for every previous retry, but never more than the maximum
+    delay. The random delays keep clients which failed together from
+    retrying together.
+
+    <p>
+    Retries are enabled for a stub with <code>Stub.withRetryPolicy</code>.
+    They are not enabled by default, since a call without a timeout which is
+    retried against a skeleton that accepts connections but does not answer
+    them waits indefinitely, where it would otherwise fail.
+
+    <p>
+    Calls to idempotent methods are simply sent again. Calls to other methods
+    made through a stub which retries carry a request token, which is the
+    same for every attempt, and a skeleton which has already run a call with
+    that token answers the retry with the response of the first attempt
+    instead of running the method a second time. Skeletons remember a bounded
+    number of recent tokens, and forget them when the JVM exits, so a
+    non-idempotent call is guaranteed to run at most once only if the
+    skeleton that received it keeps running.
+
+    <p>
+    Policies are immutable.
+ */
+public final class RetryPolicy implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Policy under which calls are never retried, which is the policy of
+        stubs that have not been given another. */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /** Creates a retry policy.
+
+        @param maxAttempts The maximum number of times a call is sent,
+                           including the first attempt.
+        @param baseDelay The upper bound, in milliseconds, on the delay
+                         before the first retry.
+        @param maxDelay The upper bound, in milliseconds, on the delay before
+                        any retry.
+        @throws IllegalArgumentException If <code>maxAttempts</code> is not
+                                         positive, or either delay is
+                                         negative.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay)
+    {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Attempt count must be positive.");
+        }
+        if (baseDelay < 0 || maxDelay < 0) {
+            throw new IllegalArgumentException("Retry delay must not be negative.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    public long getBaseDelay()
+    {
+        return baseDelay;
+    }
+
+    public long getMaxDelay()
+    {
+        return maxDelay;
+    }
+
+    /** Returns the delay, in milliseconds, before a retry.
+
+        @param retry The number of the retry, starting from one.
+     */
+    long delay(int retry)
+    {
+        long bound = baseDelay << Math.min(retry - 1, 30);
+        if (bound < 0 || bound > maxDelay) {
+            bound = maxDelay;
+        }
+        return bound == 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RetryPolicy[maxAttempts=" + maxAttempts + " baseDelay="
+            + baseDelay + "ms maxDelay=" + maxDelay + "ms]";
+    }
+}
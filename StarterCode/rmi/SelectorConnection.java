@@ -0,0 +1,247 @@
+package rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/** Connection served by the selector transport.
+
+    <p>
+    A connection is read only by the event loop it is registered with. Bytes
+    are collected until the handshake, and then each complete frame, has
+    arrived; each complete request is then passed to the skeleton's handler.
+    Responses are written by whichever thread completes the request: the
+    frame is written directly if the socket accepts it, and otherwise queued
+    and written by the event loop once the socket becomes writable. Frames are
+    written with gathering writes, so that attached arrays go to the socket
+    straight from the memory of the value returned by the server.
+ */
+class SelectorConnection implements Responder
+{
+    private final SocketChannel channel;
+    private final SelectorListener<?> listener;
+    private final SelectorListener.EventLoop loop;
+    private final ArrayDeque<ByteBuffer[]> writes;
+    private final ActiveCalls active;
+    private SelectionKey key;
+    private Codec codec;
+    private boolean compress;
+    private ByteBuffer header;
+    private ByteBuffer envelope;
+    private int attachmentLength;
+    private MessagePackage request;
+    private long decodeNanos;
+    private ByteBuffer[] attachments;
+    private int next;
+    private volatile boolean closed;
+
+    SelectorConnection(SocketChannel channel, SelectorListener<?> listener,
+                       SelectorListener.EventLoop loop)
+    {
+        this.channel = channel;
+        this.listener = listener;
+        this.loop = loop;
+        this.writes = new ArrayDeque<>();
+        this.active = new ActiveCalls();
+        this.header = ByteBuffer.allocate(Codecs.HANDSHAKE_LENGTH);
+        this.envelope = null;
+        this.attachments = null;
+        this.closed = false;
+    }
+
+    /** Called by the event loop once the channel has been registered. */
+    void attach(SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    /** Reads everything currently available on the channel, handling each
+        request as soon as it is complete. The attachments of a frame are read
+        directly into the arrays allocated for them while the envelope was
+        decoded. */
+    void onReadable() throws IOException
+    {
+        while (!closed) {
+            if (attachments != null) {
+                if (channel.read(attachments, next, attachments.length - next) < 0) {
+                    close();
+                    return;
+                }
+                while (next < attachments.length && !attachments[next].hasRemaining()) {
+                    next++;
+                }
+                if (next < attachments.length) {
+                    return;
+                }
+                attachments = null;
+                MessagePackage complete = request;
+                request = null;
+                if (!dispatch(complete)) {
+                    return;
+                }
+                continue;
+            }
+
+            ByteBuffer target = envelope != null ? envelope : header;
+            if (channel.read(target) < 0) {
+                close();
+                return;
+            }
+            if (target.hasRemaining()) {
+                return;
+            }
+
+            if (envelope == null) {
+                if (codec == null) {
+                    Codecs.Handshake handshake = Codecs.readHandshake(new DataInputStream(new ByteArrayInputStream(header.array())));
+                    codec = handshake.codec;
+                    compress = handshake.compression && Compression.isEnabled();
+                    header = ByteBuffer.allocate(Frames.HEADER_LENGTH);
+                } else {
+                    header.flip();
+                    int envelopeLength = header.getInt();
+                    attachmentLength = header.getInt();
+                    Frames.checkHeader(envelopeLength, attachmentLength);
+                    envelope = ByteBuffer.allocate(envelopeLength);
+                    header.clear();
+                }
+                continue;
+            }
+
+            ArrayList<byte[]> arrays = new ArrayList<>();
+            long start = System.nanoTime();
+            MessagePackage message = Frames.decode(codec, envelope.array(), attachmentLength, arrays);
+            decodeNanos = System.nanoTime() - start;
+            envelope = null;
+            if (arrays.isEmpty()) {
+                if (!dispatch(message)) {
+                    return;
+                }
+                continue;
+            }
+            request = message;
+            attachments = new ByteBuffer[arrays.size()];
+            for (int i = 0; i < attachments.length; i++) {
+                attachments[i] = ByteBuffer.wrap(arrays.get(i));
+            }
+            next = 0;
+        }
+    }
+
+    /** Passes a complete request to the skeleton's handler.
+
+        @return <code>false</code> if the connection has been closed.
+     */
+    private boolean dispatch(MessagePackage message)
+    {
+        if (!listener.handler.handle(message, decodeNanos, this)) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /** Writes queued responses until the queue is empty or the socket stops
+        accepting data. */
+    void onWritable() throws IOException
+    {
+        synchronized (writes) {
+            while (!writes.isEmpty()) {
+                ByteBuffer[] frame = writes.peek();
+                channel.write(frame);
+                if (hasRemaining(frame)) {
+                    return;
+                }
+                writes.poll();
+                listener.calls.exit();
+            }
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    @Override
+    public ActiveCalls getActiveCalls()
+    {
+        return active;
+    }
+
+    /** Writes a response, or queues it if the socket does not accept all of
+        it. The request is exited from the call tracker once the response has
+        been written completely, or dropped. */
+    @Override
+    public void respond(long id, MessagePackage response)
+    {
+        boolean queued = false;
+        try {
+            if (response == null || closed) {
+                return;
+            }
+            response.setId(id);
+            ByteBuffer[] frame = SkeletonMethodHandler.encode(codec, response, compress);
+            synchronized (writes) {
+                if (closed) {
+                    return;
+                }
+                boolean idle = writes.isEmpty();
+                if (idle) {
+                    channel.write(frame);
+                }
+                if (hasRemaining(frame)) {
+                    writes.add(frame);
+                    queued = true;
+                    if (idle) {
+                        loop.execute(() -> {
+                            if (key.isValid()) {
+                                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            }
+                        });
+                    }
+                }
+            }
+        } catch (IOException e) {
+            close();
+        } finally {
+            if (!queued) {
+                listener.calls.exit();
+            }
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] frame)
+    {
+        for (ByteBuffer buffer : frame) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Closes the connection. Responses still queued are dropped, and calls
+        still running are cancelled. */
+    void close()
+    {
+        closed = true;
+        active.cancelAll();
+        synchronized (writes) {
+            while (writes.poll() != null) {
+                listener.calls.exit();
+            }
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+        listener.connections.remove(this);
+    }
+}
@@ -0,0 +1,242 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Listening thread of a skeleton using the selector transport.
+
+    <p>
+    The listener accepts connections with a non-blocking server channel and
+    distributes them round-robin over a fixed number of event loops. A
+    skeleton's Unix domain socket, if it has one, is accepted from in the
+    same way. Each event
+    loop multiplexes the reads and writes of all of its connections on one
+    selector, so no thread is tied to an idle connection. Method invocations run
+    on the skeleton's worker executor, as with the blocking transport.
+
+    <p>
+    Errors while accepting a connection are reported to
+    <code>listen_error</code>, which decides whether the listener keeps
+    running. A connection that fails, or carries data that cannot be decoded,
+    is closed. Unexpected errors in an event loop are reported to
+    <code>service_error</code>.
+ */
+class SelectorListener<T> extends Listener
+{
+    private final ServerSocketChannel server;
+    private final ServerSocketChannel unix;
+    private final Selector selector;
+    private final StatusController controller;
+    private final Skeleton<T> skeleton;
+    private final EventLoop[] loops;
+    final SkeletonMethodHandler<T> handler;
+    final Set<SelectorConnection> connections;
+
+    SelectorListener(Class<T> c, Exports exports, ServerSocketChannel server, ServerSocketChannel unix, StatusController controller, Skeleton<T> skeleton, Admission[] workers, int eventLoops, CallTracker calls, long drainTimeout)
+        throws IOException
+    {
+        super("rmi-selector-" + c.getSimpleName(), calls, drainTimeout);
+        this.server = server;
+        this.unix = unix;
+        this.selector = Selector.open();
+        this.controller = controller;
+        this.skeleton = skeleton;
+        this.loops = new EventLoop[eventLoops];
+        this.handler = new SkeletonMethodHandler<>(c, controller, exports, workers, calls);
+        this.connections = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public void run()
+    {
+        Throwable cause = null;
+        try {
+            System.out.println("The port of this skeleton: " + server.socket().getLocalPort());
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            if (unix != null) {
+                unix.configureBlocking(false);
+                unix.register(selector, SelectionKey.OP_ACCEPT);
+            }
+
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(getName() + "-loop-" + i, skeleton);
+                loops[i].start();
+            }
+
+            int next = 0;
+            while (!controller.isStopping()) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ServerSocketChannel listening = (ServerSocketChannel) key.channel();
+                    while (!controller.isStopping()) {
+                        SocketChannel channel;
+                        try {
+                            channel = listening.accept();
+                        } catch (IOException e) {
+                            if (controller.isStopping()) {
+                                break;
+                            }
+                            if (!listening.isOpen() || !skeleton.listen_error(e)) {
+                                cause = e;
+                                controller.stop();
+                            }
+                            break;
+                        }
+                        if (channel == null) {
+                            break;
+                        }
+                        accept(channel, loops[next]);
+                        next = (next + 1) % loops.length;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            if (!controller.isStopping()) {
+                cause = e;
+                controller.stop();
+            }
+        }
+        shutdown();
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+
+        drain();
+        for (SelectorConnection connection : connections) {
+            connection.close();
+        }
+        System.out.println("Stopping skeleton: all connections closed");
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+        skeleton.finish(cause);
+    }
+
+    @Override
+    void shutdown()
+    {
+        try {
+            server.close();
+        } catch (IOException e) {
+        }
+        if (unix != null) {
+            UnixSockets.close(unix);
+        }
+        selector.wakeup();
+    }
+
+    /** Hands a new connection to an event loop. */
+    private void accept(SocketChannel channel, EventLoop loop)
+    {
+        try {
+            channel.configureBlocking(false);
+            if (channel.getRemoteAddress() instanceof InetSocketAddress) {
+                InetSocketAddress client = (InetSocketAddress) channel.getRemoteAddress();
+                System.out.println("Connection from " + client.getAddress().getHostAddress());
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } else {
+                System.out.println("Connection from local process");
+            }
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+
+        SelectorConnection connection = new SelectorConnection(channel, this, loop);
+        connections.add(connection);
+        loop.execute(() -> {
+            try {
+                connection.attach(channel.register(loop.selector, SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException e) {
+                connection.close();
+            }
+        });
+    }
+
+    /** Event loop serving the reads and writes of a set of connections. */
+    static class EventLoop extends Thread
+    {
+        final Selector selector;
+        private final Skeleton<?> skeleton;
+        private final ConcurrentLinkedQueue<Runnable> tasks;
+        private volatile boolean running;
+
+        EventLoop(String name, Skeleton<?> skeleton) throws IOException
+        {
+            super(name);
+            this.skeleton = skeleton;
+            setDaemon(true);
+            this.selector = Selector.open();
+            this.tasks = new ConcurrentLinkedQueue<>();
+            this.running = true;
+        }
+
+        /** Runs a task on the event loop thread. */
+        void execute(Runnable task)
+        {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown()
+        {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                while (running) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        SelectorConnection connection = (SelectorConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        } catch (RuntimeException e) {
+                            connection.close();
+                            skeleton.service_error(new RMIException("Malformed request", e));
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                skeleton.service_error(new RMIException("Event loop failed", e));
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
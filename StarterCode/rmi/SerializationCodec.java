@@ -0,0 +1,93 @@
+package rmi;
+
+import java.io.*;
+
+/** Codec encoding message payloads with Java serialization.
+
+    <p>
+    Each message is written as its type, its correlation ID, its timeout, its
+    trace context, request token and interface ID, and its payload, where the payload is serialized on its own into a
+    length-prefixed block. Any <code>Serializable</code> value can be carried,
+    at the cost of writing full class descriptors with every message. The binary codec falls back to
+    this encoding for values it has no compact form for.
+ */
+public class SerializationCodec implements Codec
+{
+    /** Codec ID used in the connection handshake. */
+    public static final byte ID = 1;
+
+    /** Shared instance of the codec. */
+    public static final SerializationCodec INSTANCE = new SerializationCodec();
+
+    @Override
+    public byte getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public void writeMessage(DataOutputStream output, MessagePackage message)
+        throws IOException
+    {
+        output.writeByte(message.getMessageType().ordinal());
+        output.writeLong(message.getId());
+        output.writeInt(message.getTimeout());
+        BinaryCodec.writeContext(output, message);
+        writeObject(output, message.getData());
+    }
+
+    @Override
+    public MessagePackage readMessage(DataInputStream input) throws IOException
+    {
+        MessageType type = BinaryCodec.readMessageType(input);
+        long id = input.readLong();
+        int timeout = input.readInt();
+        int flags = input.readUnsignedByte();
+        long traceId = 0;
+        long spanId = 0;
+        long token = 0;
+        int interfaceId = 0;
+        if ((flags & BinaryCodec.TRACED) != 0) {
+            traceId = input.readLong();
+            spanId = input.readLong();
+        }
+        if ((flags & BinaryCodec.TOKEN) != 0) {
+            token = input.readLong();
+        }
+        if ((flags & BinaryCodec.INTERFACE) != 0) {
+            interfaceId = input.readInt();
+        }
+        MessagePackage message = new MessagePackage<>(type, (Serializable) readObject(input));
+        message.setId(id);
+        message.setTimeout(timeout);
+        message.setTraceId(traceId);
+        message.setSpanId(spanId);
+        message.setToken(token);
+        message.setInterfaceId(interfaceId);
+        return message;
+    }
+
+    /** Writes an object as a length-prefixed block of serialized bytes. */
+    static void writeObject(DataOutputStream output, Object value)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(value);
+        }
+        output.writeInt(bytes.size());
+        bytes.writeTo(output);
+    }
+
+    /** Reads an object written by <code>writeObject</code>. */
+    static Object readObject(DataInputStream input) throws IOException
+    {
+        byte[] bytes = new byte[BinaryCodec.readLength(input)];
+        input.readFully(bytes);
+        try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return stream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in message", e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package rmi;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/** Coalesces concurrent invocations of an idempotent method with equal
+    arguments.
+
+    <p>
+    The first invocation with given arguments runs the method. Invocations
+    with equal arguments arriving while it runs wait for it instead, and are
+    each answered with a response of their own carrying the same result. Once
+    the running invocation completes, the next invocation with those
+    arguments runs the method again, so results are never served from a
+    cache.
+
+    <p>
+    The result is shared only if the method returned, or threw an exception
+    of its own. If the running invocation was instead cancelled, or failed
+    because it was interrupted or ran out of time, the result says nothing
+    about what the method would return to the invocations waiting for it,
+    which have deadlines of their own; one of them runs the method again.
+ */
+class SingleFlight
+{
+    private final ConcurrentHashMap<Key, CompletableFuture<MessagePackage<?>>> flights;
+    private final MethodStats stats;
+
+    SingleFlight(MethodStats stats)
+    {
+        this.flights = new ConcurrentHashMap<>();
+        this.stats = stats;
+    }
+
+    /** Runs an invocation, or waits for a running invocation with equal
+        arguments.
+
+        @param arguments The arguments of the invocation.
+        @param invocation Runs the method and returns the response.
+        @return The response.
+     */
+    MessagePackage<?> run(Object[] arguments, Supplier<MessagePackage<?>> invocation)
+    {
+        Key key = new Key(arguments);
+        while (true) {
+            CompletableFuture<MessagePackage<?>> flight = new CompletableFuture<>();
+            CompletableFuture<MessagePackage<?>> running = flights.putIfAbsent(key, flight);
+            if (running == null) {
+                return lead(key, flight, invocation);
+            }
+            MessagePackage<?> response = join(running);
+            if (response != null) {
+                return response;
+            }
+        }
+    }
+
+    /** Runs an invocation, and hands its response to the invocations
+        waiting for it if it can be shared. The flight is completed with
+        <code>null</code> if it cannot, so that they run again. */
+    private MessagePackage<?> lead(Key key, CompletableFuture<MessagePackage<?>> flight,
+                                Supplier<MessagePackage<?>> invocation)
+    {
+        MessagePackage<?> response = null;
+        try {
+            response = invocation.get();
+            return response;
+        } finally {
+            flights.remove(key, flight);
+            flight.complete(response != null && !abandoned(response) ? response : null);
+        }
+    }
+
+    /** Waits for a running invocation and returns a copy of its response. The
+        response is copied because it is tagged with the correlation ID of
+        each request it answers.
+
+        @return The copy, or <code>null</code> if the running invocation's
+                response cannot be shared.
+     */
+    private MessagePackage<?> join(CompletableFuture<MessagePackage<?>> running)
+    {
+        MessagePackage<?> response;
+        try {
+            response = running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new MessagePackage<>(MessageType.INVOKE_FAILED, new CallTimeoutException("Call cancelled while waiting for an identical call"));
+        } catch (ExecutionException e) {
+            return null;
+        }
+        if (response == null) {
+            return null;
+        }
+        stats.coalesced();
+        return new MessagePackage<>(response.getMessageType(), response.getData());
+    }
+
+    /** Returns <code>true</code> if a failed invocation failed because it
+        was cancelled, interrupted, or ran out of time, rather than because of
+        the method itself. The worker thread of a cancelled call is
+        interrupted, and a method may pass the interrupt on as an exception
+        of its own, which is searched for among the causes of the failure. */
+    private static boolean abandoned(MessagePackage<?> response)
+    {
+        if (response.getMessageType() == MessageType.INVOKE_SUCCESS) {
+            return false;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        Object data = response.getData();
+        for (Throwable t = data instanceof Throwable ? (Throwable) data : null; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedException || t instanceof InterruptedIOException
+                    || t instanceof ClosedByInterruptException || t instanceof CallTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Arguments of an invocation, compared by their contents. */
+    private static final class Key
+    {
+        private final Object[] arguments;
+        private final int hash;
+
+        Key(Object[] arguments)
+        {
+            this.arguments = arguments == null ? new Object[0] : arguments;
+            this.hash = Arrays.deepHashCode(this.arguments);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Key && Arrays.deepEquals(arguments, ((Key) other).arguments);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
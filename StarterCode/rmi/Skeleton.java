@@ -1,8 +1,15 @@
 package rmi;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 
 /** RMI skeleton
 
@@ -25,15 +32,50 @@ import java.net.*;
     The skeleton's response to these exceptions can be customized by deriving
     a class from <code>Skeleton</code> and overriding <code>listen_error</code>
     or <code>service_error</code>.
+
+    <p>
+    The skeleton keeps call counts and latency histograms for each remote
+    method, which can be read at any time through
+    <code>getMethodStats</code>.
+
+    <p>
+    A skeleton may serve further interfaces, each forwarded to its own
+    object, on the same port: see <code>export</code>. The interfaces then
+    share the skeleton's connections, worker threads, admission limits and
+    call tracking.
+
+    <p>
+    Stubs in the same JVM as a running skeleton call its server object
+    directly, without a socket or serialization, unless the call has a
+    timeout or the skeleton's admission limits would make it wait.
 */
 public class Skeleton<T>
 {
 
     private Class<T> c;
     private T server;
-    private InetSocketAddress address;
+    private Dispatcher dispatcher;
+    private Exports exports;
+    private volatile InetSocketAddress address;
     private StatusController controller;
-    private SkeletonListener skeletonListener;
+    private Listener skeletonListener;
+    private ExecutorStrategy executorStrategy;
+    private SkeletonTransport transport;
+    private boolean unixSocket;
+    private int eventLoops;
+    private long drainTimeout;
+    private final int[] maxConcurrentCalls;
+    private final int[] maxQueuedCalls;
+    private volatile Admission[] admission;
+    private volatile CallTracker calls;
+    private ExecutorService connections;
+    private ExecutorService[] workers;
+
+    /** Default time, in milliseconds, that a stopping skeleton waits for
+        requests already received to complete. */
+    public static final long DEFAULT_DRAIN_TIMEOUT = 1000;
+
+    private static volatile SkeletonTransport defaultTransport = SkeletonTransport.BLOCKING;
 
     private static String defaultHost="localhost";
     private static Integer defaultPort=8080;
@@ -73,8 +115,18 @@ public class Skeleton<T>
 
         this.c = c;
         this.server = server;
+        this.dispatcher = new Dispatcher(c, server);
+        this.exports = new Exports(dispatcher);
         this.address = null;
         this.controller = new StatusController();
+        this.executorStrategy = ExecutorStrategy.cached();
+        this.transport = defaultTransport;
+        this.unixSocket = false;
+        this.eventLoops = defaultEventLoops();
+        this.drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+        this.maxConcurrentCalls = new int[PriorityClass.values().length];
+        this.maxQueuedCalls = new int[PriorityClass.values().length];
+        Arrays.fill(this.maxConcurrentCalls, Integer.MAX_VALUE);
     }
 
     /** Creates a <code>Skeleton</code> with the given initial server address.
@@ -109,22 +161,73 @@ public class Skeleton<T>
 
         this.c = c;
         this.server = server;
+        this.dispatcher = new Dispatcher(c, server);
+        this.exports = new Exports(dispatcher);
         if (address != null) {
             this.address = address;
         } else {
             this.address = new InetSocketAddress(defaultHost, defaultPort);
         }
         this.controller = new StatusController();
+        this.executorStrategy = ExecutorStrategy.cached();
+        this.transport = defaultTransport;
+        this.unixSocket = false;
+        this.eventLoops = defaultEventLoops();
+        this.drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+        this.maxConcurrentCalls = new int[PriorityClass.values().length];
+        this.maxQueuedCalls = new int[PriorityClass.values().length];
+        Arrays.fill(this.maxConcurrentCalls, Integer.MAX_VALUE);
     }
 
 
-    private boolean isRemoteInterface(Class<T> c) {
+    /** Serves a further remote interface on the skeleton's port, forwarding
+        calls to its methods to the given object.
+
+        <p>
+        Stubs for the interface are created from the skeleton's address like
+        stubs for the skeleton's own interface, and are told apart from them
+        by the interface ID their requests carry. An interface may be
+        exported while the skeleton is running; calls to it are accepted from
+        then on. The skeleton's deduplication window applies to the new
+        interface too.
+
+        @param c The remote interface.
+        @param server An object implementing the interface.
+        @throws Error If <code>c</code> does not represent a remote interface.
+        @throws NullPointerException If either of <code>c</code> or
+                                     <code>server</code> is <code>null</code>.
+        @throws IllegalArgumentException If the skeleton already serves
+                                         <code>c</code>, or an interface with
+                                         the same interface ID.
+     */
+    public synchronized <U> void export(Class<U> c, U server) {
+        if (c == null || server == null) {
+            throw new NullPointerException("Input parameter should not be null");
+        }
+        if (!c.isInterface()) {
+            throw new Error("Input class should be an interface");
+        }
+        if (!isRemoteInterface(c)) {
+            throw new Error("Input interface must be a remote interface");
+        }
+        Dispatcher exported = new Dispatcher(c, server);
+        exported.tokens.setCapacity(dispatcher.tokens.getCapacity());
+        exports.add(exported);
+    }
+
+    /** Returns <code>true</code> if the skeleton serves the interface, as its
+        own or exported on it. */
+    boolean serves(Class<?> c) {
+        return exports.get(c) != null;
+    }
+
+    private static boolean isRemoteInterface(Class<?> c) {
         Method[] methods = c.getMethods();
 
         for (Method method:methods) {
-            Class[] exceptions = method.getExceptionTypes();
+            Class<?>[] exceptions = method.getExceptionTypes();
             boolean hasRmiException = false;
-            for (Class exception:exceptions) {
+            for (Class<?> exception:exceptions) {
                 if (exception.getTypeName().equals("rmi.RMIException")) {
                     hasRmiException = true;
                     break;
@@ -182,8 +285,6 @@ public class Skeleton<T>
      */
     protected void stopped(Throwable cause)
     {
-        cause.printStackTrace();
-        controller.stop();
     }
 
     /** Called when an exception occurs at the top level in the listening
@@ -222,10 +323,20 @@ public class Skeleton<T>
     /** Starts the skeleton server.
 
         <p>
-        A thread is created to listen for connection requests, and the method
-        returns immediately. Additional threads are created when connections are
-        accepted. The network address used for the server is determined by which
-        constructor was used to create the <code>Skeleton</code> object.
+        The listening socket is bound before this method returns, so the
+        skeleton accepts connections as soon as it has started. A thread is
+        then created to accept connection requests. With the blocking
+        transport, each accepted connection is serviced by a thread of its
+        own, without bound; with the selector transport, they are
+        served by a fixed number of event loop threads. In both cases method
+        invocations run on worker executors created by the strategy, so that
+        requests sent concurrently on one connection do not wait for each
+        other. Each priority class has its own worker executor, so that bulk
+        calls cannot occupy every worker while control calls wait.
+        The network address used for the server is determined by which
+        constructor was used to create the <code>Skeleton</code> object. A
+        skeleton created without an address is bound to a port chosen by the
+        system, and keeps that address across restarts.
 
         @throws RMIException When the listening socket cannot be created or
                              bound, when the listening thread cannot be created,
@@ -234,68 +345,477 @@ public class Skeleton<T>
      */
     public synchronized void start() throws RMIException
     {
-        if (controller.isStopped()) {
-            System.out.println("Starting skeleton...");
-            printService();
+        while (controller.isStopping()) {
+            System.out.println("Waiting for stop...");
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new RMIException("Interrupted while waiting for skeleton to stop", e);
+            }
+        }
+        if (controller.isRunning()) {
+            System.out.println("This skeleton is running!");
+            return;
+        }
+
+        System.out.println("Starting skeleton...");
+        printService();
+        int port = address == null ? 0 : address.getPort();
+        String name = "rmi-skeleton-" + c.getSimpleName();
+        CallTracker calls = new CallTracker();
+        Closeable socket = null;
+        ServerSocketChannel unix = null;
+        try {
+            if (transport == SkeletonTransport.SELECTOR) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                socket = channel;
+                channel.socket().setReuseAddress(true);
+                channel.bind(new InetSocketAddress(port));
+                port = channel.socket().getLocalPort();
+                unix = unixSocket ? UnixSockets.bind(port) : null;
+                createWorkers(name);
+                this.connections = null;
+                this.skeletonListener = new SelectorListener<T>(this.c, this.exports, channel, unix, this.controller, this, this.admission, this.eventLoops, calls, this.drainTimeout);
+            } else {
+                ServerSocket serverSocket = new ServerSocket();
+                socket = serverSocket;
+                serverSocket.setReuseAddress(true);
+                serverSocket.bind(new InetSocketAddress(port));
+                port = serverSocket.getLocalPort();
+                unix = unixSocket ? UnixSockets.bind(port) : null;
+                createWorkers(name);
+                this.connections = executorStrategy.createConnectionExecutor(name + "-connection");
+                this.skeletonListener = new SkeletonListener<T>(this.c, this.exports, serverSocket, unix, this.controller, this, this.connections, this.admission, calls, this.drainTimeout);
+            }
+            if (address == null) {
+                address = new InetSocketAddress(port);
+            }
+            this.calls = calls;
             controller.start();
-            this.skeletonListener = new SkeletonListener<T>(this.c, this.server, this.address, this.controller, this);
+            LocalSkeletons.register(port, this);
             skeletonListener.start();
-
-            System.out.println("Skeleton started.");
-            System.out.println("============================================================");
-        } else if (controller.isRunning()) {
-            System.out.println("This skeleton is running!");
-        } else if (controller.isStopping()) {
-            System.out.println("Waiting for stop...");
-            while (controller.isStopping()) {
+        } catch (IOException | RuntimeException | Error e) {
+            LocalSkeletons.unregister(port, this);
+            controller.stopped();
+            if (socket != null) {
                 try {
-                    wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    socket.close();
+                } catch (IOException ignored) {
                 }
             }
-            this.start();
+            if (unix != null) {
+                UnixSockets.close(unix);
+            }
+            shutdownExecutors();
+            throw new RMIException("Unable to start skeleton on port " + port, e);
         }
+
+        System.out.println("Skeleton started.");
+        System.out.println("============================================================");
     }
 
     /** Stops the skeleton server, if it is already running.
 
         <p>
-        The listening thread terminates. Threads created to service connections
-        may continue running until their invocations of the <code>service</code>
-        method return. The server stops at some later time; the method
-        <code>stopped</code> is called at that point. The server may then be
-        restarted.
+        The listening socket is closed at once, so no new connections are
+        accepted, and requests arriving on open connections are answered as if
+        the skeleton were stopped. Requests already received are allowed to
+        complete for at most the drain timeout. As soon as they have all been
+        answered, or the timeout expires, the remaining connections are closed,
+        the method <code>stopped</code> is called and this method returns. The
+        server may then be restarted.
      */
     public synchronized void stop()
     {
         if (this.controller.isStopped()) {
             System.out.println("This skeleton is stopped");
-        } else if (this.controller.isStopping()) {
-            System.out.println("This skeleton is stopping");
-        } else {
+            return;
+        }
+        if (this.controller.isRunning()) {
             System.out.println("Stopping skeleton...");
             this.controller.stop();
-            Socket stoppingConnection = new Socket();
+            skeletonListener.shutdown();
+        }
+        while (this.controller.isStopping()) {
             try {
-                stoppingConnection.connect(address);
-            } catch (IOException e) {
-                e.printStackTrace();
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
-            while (this.controller.isStopping()) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        }
+        System.out.println("Skeleton stopped");
+        System.out.println("============================================================");
+    }
+
+    /** Called by the listening thread once it has drained and closed its
+        connections. Shuts the executors down, marks the skeleton as stopped
+        and calls <code>stopped</code>. */
+    synchronized void finish(Throwable cause)
+    {
+        LocalSkeletons.unregister(address.getPort(), this);
+        shutdownExecutors();
+        controller.stopped();
+        try {
+            stopped(cause);
+        } finally {
+            notifyAll();
+        }
+    }
+
+    /** Invokes a method on the server object for a stub in the same JVM, on
+        the calling thread.
+
+        <p>
+        The call is counted in the method's statistics and waited for by a
+        stopping skeleton, like a call received over the network. It is run
+        only if a call of its priority class could start at once; calls that
+        would have to wait, and calls arriving while the skeleton is stopping,
+        are left to the network path, which queues or refuses them.
+
+        @param id The ID of the method, in the interface whose ID the request
+                  carries.
+        @param arguments The arguments, already copied.
+        @param request The request the stub would have sent, which carries
+                       the call's trace context.
+        @return The response, or <code>null</code> if the call was not run.
+     */
+    MessagePackage<?> invokeLocally(int id, Object[] arguments, MessagePackage<?> request)
+    {
+        Admission[] admission = this.admission;
+        CallTracker calls = this.calls;
+        Dispatcher exported = exports.get(request.getInterfaceId());
+        Dispatcher.Target target = exported == null ? null : exported.get(id);
+        if (admission == null || calls == null || target == null) {
+            return null;
+        }
+        Admission lane = admission[target.entry.priority.ordinal()];
+        calls.enter();
+        try {
+            if (!controller.isRunning() || !lane.tryEnter()) {
+                return null;
+            }
+            target.stats.enter();
+            Tracing.Active span = Tracing.startServer(request, target.entry.signature);
+            MessagePackage<?> response = null;
+            try {
+                response = SkeletonMethodHandler.traced(span, () -> SkeletonMethodHandler.invoke(target, arguments));
+                return response;
+            } finally {
+                target.stats.exit();
+                lane.exit();
+                if (span != null) {
+                    span.finish(response == null || response.getMessageType() != MessageType.INVOKE_SUCCESS);
                 }
             }
-            System.out.println("Skeleton stopped");
+        } finally {
+            calls.exit();
+        }
+    }
+
+    /** Creates the worker executor and admission control of each priority
+        class. */
+    private void createWorkers(String name)
+    {
+        PriorityClass[] priorities = PriorityClass.values();
+        ExecutorService[] workers = new ExecutorService[priorities.length];
+        Admission[] admission = new Admission[priorities.length];
+        for (PriorityClass priority : priorities) {
+            int lane = priority.ordinal();
+            workers[lane] = executorStrategy.create(name + "-worker-" + priority.name().toLowerCase());
+            admission[lane] = new Admission(workers[lane], maxConcurrentCalls[lane], maxQueuedCalls[lane]);
+        }
+        this.workers = workers;
+        this.admission = admission;
+    }
+
+    private void shutdownExecutors()
+    {
+        if (connections != null) {
+            connections.shutdown();
+            connections = null;
+        }
+        if (workers != null) {
+            for (ExecutorService lane : workers) {
+                lane.shutdown();
+            }
+            workers = null;
+        }
+        admission = null;
+    }
+
+    /** Sets the strategy used to create the executors that run method
+        invocations and, with the blocking transport, service connections.
+        The strategy takes effect the next time the skeleton is started.
+
+        @param executorStrategy The new strategy.
+        @throws NullPointerException If <code>executorStrategy</code> is
+                                     <code>null</code>.
+     */
+    public synchronized void setExecutorStrategy(ExecutorStrategy executorStrategy) {
+        if (executorStrategy == null) {
+            throw new NullPointerException("Executor strategy should not be null");
+        }
+        this.executorStrategy = executorStrategy;
+    }
+
+    public synchronized ExecutorStrategy getExecutorStrategy() {
+        return executorStrategy;
+    }
+
+    /** Sets whether the skeleton also listens on a Unix domain socket, through
+        which stubs in other processes on the same host connect without going
+        through TCP. The setting takes effect the next time the skeleton is
+        started.
+
+        @see UnixSockets
+     */
+    public synchronized void setUnixSocket(boolean unixSocket) {
+        this.unixSocket = unixSocket;
+    }
+
+    public synchronized boolean getUnixSocket() {
+        return unixSocket;
+    }
+
+    /** Sets the transport used to serve connections. The transport takes
+        effect the next time the skeleton is started.
+
+        @param transport The new transport.
+        @throws NullPointerException If <code>transport</code> is
+                                     <code>null</code>.
+     */
+    public synchronized void setTransport(SkeletonTransport transport) {
+        if (transport == null) {
+            throw new NullPointerException("Transport should not be null");
+        }
+        this.transport = transport;
+    }
+
+    public synchronized SkeletonTransport getTransport() {
+        return transport;
+    }
+
+    /** Sets the transport of skeletons created from now on. The default is
+        <code>BLOCKING</code>.
+
+        @param transport The new default transport.
+        @throws NullPointerException If <code>transport</code> is
+                                     <code>null</code>.
+     */
+    public static void setDefaultTransport(SkeletonTransport transport) {
+        if (transport == null) {
+            throw new NullPointerException("Transport should not be null");
+        }
+        defaultTransport = transport;
+    }
+
+    public static SkeletonTransport getDefaultTransport() {
+        return defaultTransport;
+    }
+
+    /** Sets the number of event loop threads used by the selector transport.
+        The number takes effect the next time the skeleton is started.
+
+        @param eventLoops The number of event loops.
+        @throws IllegalArgumentException If <code>eventLoops</code> is not
+                                         positive.
+     */
+    public synchronized void setEventLoops(int eventLoops) {
+        if (eventLoops <= 0) {
+            throw new IllegalArgumentException("Event loop count must be positive.");
+        }
+        this.eventLoops = eventLoops;
+    }
+
+    public synchronized int getEventLoops() {
+        return eventLoops;
+    }
+
+    /** Sets the time for which a stopping skeleton waits for requests already
+        received to complete before closing their connections. The timeout
+        takes effect the next time the skeleton is started.
+
+        @param drainTimeout The timeout, in milliseconds.
+        @throws IllegalArgumentException If <code>drainTimeout</code> is
+                                         negative.
+     */
+    public synchronized void setDrainTimeout(long drainTimeout) {
+        if (drainTimeout < 0) {
+            throw new IllegalArgumentException("Drain timeout must not be negative.");
+        }
+        this.drainTimeout = drainTimeout;
+    }
+
+    public synchronized long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /** Sets the number of recent calls to non-idempotent methods whose
+        request tokens the skeleton remembers. A retry of one of these calls
+        is answered with the response to the call instead of being run again.
+        The window applies at once, and is kept when the skeleton is stopped
+        and restarted.
+
+        @param requests The number of calls remembered, or zero to run every
+                        retry.
+        @throws IllegalArgumentException If <code>requests</code> is
+                                         negative.
+        @see RetryPolicy
+     */
+    public synchronized void setDeduplicationWindow(int requests) {
+        if (requests < 0) {
+            throw new IllegalArgumentException("Deduplication window must not be negative.");
+        }
+        for (Dispatcher exported : exports.all()) {
+            exported.tokens.setCapacity(requests);
+        }
+    }
+
+    public synchronized int getDeduplicationWindow() {
+        return dispatcher.tokens.getCapacity();
+    }
+
+    /** Sets the admission limits of every priority class of the skeleton.
 
-            System.out.println("============================================================");
+        <p>
+        At most <code>maxConcurrentCalls</code> method invocations and batches
+        run at the same time. Up to <code>maxQueuedCalls</code> further calls
+        wait, in the order they arrived, for a running call to complete. A call
+        arriving when the queue is full as well is not run: the stub throws an
+        <code>OverloadException</code> at once, so that the client can back
+        off. By default the number of concurrent calls is unlimited. The
+        limits take effect the next time the skeleton is started.
+
+        <p>
+        The limits apply to each priority class separately, so the skeleton
+        as a whole may run up to <code>maxConcurrentCalls</code> calls of each
+        class at once.
+
+        @param maxConcurrentCalls Maximum number of calls running at once, or
+                                  <code>Integer.MAX_VALUE</code> for no limit.
+        @param maxQueuedCalls Maximum number of calls waiting to run.
+        @throws IllegalArgumentException If <code>maxConcurrentCalls</code> is
+                                         not positive or
+                                         <code>maxQueuedCalls</code> is
+                                         negative.
+     */
+    public synchronized void setAdmissionLimits(int maxConcurrentCalls, int maxQueuedCalls) {
+        for (PriorityClass priority : PriorityClass.values()) {
+            setAdmissionLimits(priority, maxConcurrentCalls, maxQueuedCalls);
+        }
+    }
+
+    /** Sets the admission limits of one priority class of the skeleton.
+
+        @param priority The priority class.
+        @param maxConcurrentCalls Maximum number of calls of the class running
+                                  at once, or <code>Integer.MAX_VALUE</code>
+                                  for no limit.
+        @param maxQueuedCalls Maximum number of calls of the class waiting to
+                              run.
+        @throws IllegalArgumentException If <code>maxConcurrentCalls</code> is
+                                         not positive or
+                                         <code>maxQueuedCalls</code> is
+                                         negative.
+        @see #setAdmissionLimits(int, int)
+     */
+    public synchronized void setAdmissionLimits(PriorityClass priority, int maxConcurrentCalls, int maxQueuedCalls) {
+        if (maxConcurrentCalls <= 0) {
+            throw new IllegalArgumentException("Concurrent call limit must be positive.");
+        }
+        if (maxQueuedCalls < 0) {
+            throw new IllegalArgumentException("Queued call limit must not be negative.");
+        }
+        this.maxConcurrentCalls[priority.ordinal()] = maxConcurrentCalls;
+        this.maxQueuedCalls[priority.ordinal()] = maxQueuedCalls;
+    }
+
+    public synchronized int getMaxConcurrentCalls(PriorityClass priority) {
+        return maxConcurrentCalls[priority.ordinal()];
+    }
+
+    public synchronized int getMaxQueuedCalls(PriorityClass priority) {
+        return maxQueuedCalls[priority.ordinal()];
+    }
+
+    /** Returns the number of method invocations and batches currently
+        running, or zero if the skeleton is not running. */
+    public int getRunningCalls() {
+        int running = 0;
+        for (PriorityClass priority : PriorityClass.values()) {
+            running += getRunningCalls(priority);
         }
+        return running;
+    }
+
+    /** Returns the number of method invocations and batches of one priority
+        class currently running, or zero if the skeleton is not running. */
+    public int getRunningCalls(PriorityClass priority) {
+        Admission[] current = admission;
+        return current == null ? 0 : current[priority.ordinal()].running();
+    }
+
+    /** Returns the number of method invocations and batches waiting to run,
+        or zero if the skeleton is not running. */
+    public int getQueuedCalls() {
+        int queued = 0;
+        for (PriorityClass priority : PriorityClass.values()) {
+            queued += getQueuedCalls(priority);
+        }
+        return queued;
+    }
+
+    /** Returns the number of method invocations and batches of one priority
+        class waiting to run, or zero if the skeleton is not running. */
+    public int getQueuedCalls(PriorityClass priority) {
+        Admission[] current = admission;
+        return current == null ? 0 : current[priority.ordinal()].queued();
+    }
+
+    private static int defaultEventLoops() {
+        return Math.min(4, Runtime.getRuntime().availableProcessors());
     }
 
     public InetSocketAddress getAddress() {
         return address;
     }
+
+    /** Returns the call statistics of the remote methods.
+
+        <p>
+        The map has an entry for every method of the remote interface, keyed
+        by the method's signature, such as
+        <code>read(common.Path,long,int)</code>. The statistics are live: they
+        keep being updated as calls are served, and are kept when the skeleton
+        is stopped and restarted.
+
+        @return An unmodifiable map from method signatures to statistics.
+     */
+    public Map<String, MethodStats> getMethodStats() {
+        return getMethodStats(dispatcher);
+    }
+
+    /** Returns the call statistics of the methods of an interface served by
+        the skeleton, as its own or exported on it.
+
+        @throws IllegalArgumentException If the skeleton does not serve
+                                         <code>c</code>.
+        @see #getMethodStats()
+     */
+    public Map<String, MethodStats> getMethodStats(Class<?> c) {
+        Dispatcher exported = exports.get(c);
+        if (exported == null) {
+            throw new IllegalArgumentException(c.getName() + " is not served by the skeleton");
+        }
+        return getMethodStats(exported);
+    }
+
+    private static Map<String, MethodStats> getMethodStats(Dispatcher dispatcher) {
+        TreeMap<String, MethodStats> stats = new TreeMap<>();
+        for (Dispatcher.Target target : dispatcher.targets()) {
+            stats.put(target.entry.signature, target.stats);
+        }
+        return Collections.unmodifiableMap(stats);
+    }
 }
@@ -1,73 +1,155 @@
 package rmi;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.*;
-import java.util.ArrayList;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
-public class SkeletonListener<T> extends Thread {
+public class SkeletonListener<T> extends Listener {
     private Class<T> c;
-    private T server;
-    private InetSocketAddress address;
+    private Exports exports;
+    private ServerSocket serverSocket;
+    private ServerSocketChannel unix;
     private StatusController controller;
     private Skeleton skeleton;
-    ArrayList<SkeletonService> services;
+    private Executor connections;
+    private Admission[] workers;
+    final Set<SkeletonService<?>> services;
 
-    public SkeletonListener (Class<T> c, T server, InetSocketAddress address, StatusController statusController, Skeleton skeleton) {
+    /** Creates a listener.
+
+        @param unix The skeleton's Unix domain socket, in blocking mode, or
+                    <code>null</code> if it has none. Connections to it are
+                    accepted by a second thread.
+     */
+    SkeletonListener(Class<T> c, Exports exports, ServerSocket serverSocket, ServerSocketChannel unix, StatusController statusController, Skeleton skeleton, Executor connections, Admission[] workers, CallTracker calls, long drainTimeout) {
+        super("rmi-listener-" + c.getSimpleName(), calls, drainTimeout);
         this.c = c;
-        this.server = server;
-        this.address = address;
+        this.exports = exports;
+        this.serverSocket = serverSocket;
+        this.unix = unix;
         this.controller = statusController;
         this.skeleton = skeleton;
-        services = new ArrayList<>();
+        this.connections = connections;
+        this.workers = workers;
+        services = ConcurrentHashMap.newKeySet();
     }
 
     @Override
     public void run() {
-        if (address == null) {
-            System.out.println("Skeleton have not been assigned an address.");
-            return;
+        Throwable cause = null;
+        System.out.println("The port of this skeleton: " + serverSocket.getLocalPort());
+        Thread unixAcceptor = null;
+        if (unix != null) {
+            unixAcceptor = new Thread(this::acceptUnix, getName() + "-unix");
+            unixAcceptor.start();
+        }
+        while (!controller.isStopping()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (controller.isStopping()) {
+                    break;
+                }
+                if (serverSocket.isClosed() || !skeleton.listen_error(e)) {
+                    cause = e;
+                    controller.stop();
+                }
+                continue;
+            }
+            if (controller.isStopping()) {
+                close(socket);
+                break;
+            }
+            InetAddress clientInfo = socket.getInetAddress();
+            try {
+                socket.setSoLinger(true, 2);
+                socket.setTcpNoDelay(true);
+            } catch (SocketException e) {
+                close(socket);
+                continue;
+            }
+            System.out.println("Connection from " + clientInfo.getHostAddress());
+            serve(socket, clientInfo.getHostAddress());
+        }
+        shutdown();
+        if (unixAcceptor != null) {
+            try {
+                unixAcceptor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
-        try {
-            System.out.println("The port of this skeleton: " + address.getPort());
-            ServerSocket serverSocket = new ServerSocket(address.getPort());
-                while (!controller.isStopping()) {
-                    Socket socket = serverSocket.accept();
-                    if (controller.isStopping()) {
-                        socket.close();
-                        break;
-                    }
-                    socket.setSoLinger(true,2);
-                    InetAddress clientInfo = socket.getInetAddress();
-                    System.out.println("Connection from "+clientInfo.getHostAddress());
 
-                    SkeletonService service = new SkeletonService(socket, c, controller, server);
-                    service.start();
+        drain();
+        for (SkeletonService<?> service : services) {
+            close(service.getClient_socket());
+        }
+        System.out.println("Stopping skeleton: all connections closed");
+        skeleton.finish(cause);
+    }
 
-                    services.add(service);
+    /** Accepts connections to the Unix domain socket until the skeleton
+        stops. Errors are handled as for the TCP socket, except that a failed
+        Unix domain socket only stops the skeleton if
+        <code>listen_error</code> says so. */
+    private void acceptUnix() {
+        while (!controller.isStopping()) {
+            SocketChannel channel;
+            try {
+                channel = unix.accept();
+            } catch (IOException e) {
+                if (controller.isStopping() || !unix.isOpen()) {
+                    break;
                 }
-                serverSocket.close();
-
-                if (controller.isStopping()) {
-                    int count = 1;
-                    while (count != 0) {
-                        count = 0;
-                        Thread.sleep(1000);
-                        for (SkeletonService skeletonService:services) {
-                            if (skeletonService.isAlive()) {
-                                skeletonService.getClient_socket().close();
-                                count++;
-                            }
-                        }
-                        System.out.println("Stopping skeleton: " + (services.size() - count) + "/" + services.size()+ " stopped");
-                    }
-                    System.out.println("Stopping skeleton: " + (services.size() - count) + "/" + services.size()+ " stopped");
-                    synchronized (skeleton) {
-                        this.controller.stopped();
-                        skeleton.notify();
-                    }
+                if (!skeleton.listen_error(e)) {
+                    controller.stop();
+                    shutdown();
                 }
-        } catch (IOException | InterruptedException e) {
-           this.skeleton.stopped(e);
+                continue;
+            }
+            if (controller.isStopping()) {
+                close(channel);
+                break;
+            }
+            System.out.println("Connection from local process");
+            serve(channel, "local process");
+        }
+    }
+
+    /** Runs the service of an accepted connection on the connection
+        executor. */
+    private void serve(Closeable socket, String client) {
+        SkeletonService<T> service = new SkeletonService<>(socket, c, controller, exports, workers, calls, services);
+        try {
+            connections.execute(service);
+        } catch (RejectedExecutionException e) {
+            service.abandon();
+            skeleton.service_error(new RMIException("Connection from " + client + " rejected", e));
+        }
+    }
+
+    @Override
+    void shutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+        }
+        if (unix != null) {
+            UnixSockets.close(unix);
+        }
+    }
+
+    private static void close(Closeable socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
         }
     }
 }
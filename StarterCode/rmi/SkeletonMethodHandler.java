@@ -1,124 +1,442 @@
 package rmi;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.net.Socket;
-import java.util.Locale;
-
-public class SkeletonMethodHandler<T> {
-    private Socket socket;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+public class SkeletonMethodHandler<T> implements Responder {
+    private Closeable socket;
     private Class<T> c;
     private StatusController controller;
-    private T server;
+    private Exports exports;
+    private Admission[] workers;
+    private CallTracker calls;
+    private Codec codec;
+    private boolean compress;
+    private DataOutputStream output;
+    private final ActiveCalls active = new ActiveCalls();
 
 
-    public SkeletonMethodHandler(Socket socket, Class<T> c, StatusController controller, T server) {
+    SkeletonMethodHandler(Closeable socket, Class<T> c, StatusController controller, Exports exports, Admission[] workers, CallTracker calls) {
         this.socket = socket;
         this.c = c;
         this.controller = controller;
-        this.server = server;
+        this.exports = exports;
+        this.workers = workers;
+        this.calls = calls;
+    }
+
+    /** Creates a handler that only dispatches requests, for transports which
+        read requests and write responses themselves. */
+    SkeletonMethodHandler(Class<T> c, StatusController controller, Exports exports, Admission[] workers, CallTracker calls) {
+        this(null, c, controller, exports, workers, calls);
     }
 
 
+    /** Serves requests arriving on the connection until the client closes it
+        or the skeleton stops.
 
+        <p>
+        Stubs keep their connections open across calls and may have several
+        calls in flight on one connection. This thread only reads requests:
+        each method invocation is handed to the skeleton's worker threads, and
+        its response, tagged with the request's correlation ID, is written as
+        soon as the invocation completes. Responses may therefore be sent in a
+        different order than the requests arrived in.
+
+        <p>
+        The connection begins with the stub's handshake, which selects the codec
+        used for every request and response on it, and whether responses are
+        compressed. Connections with a malformed handshake are closed.
+
+        <p>
+        A request that arrives while the skeleton is stopping is answered with
+        <code>SERVICE_STOP</code> and is not executed, which allows the stub to
+        retry it elsewhere. When the client closes the connection, calls still
+        running for it are cancelled.
+     */
     public void handleMessage() {
         MessagePackage messagePackage;
-        MessageType messageType;
         try {
-            ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
-            while (!controller.isStopping() && (messagePackage = (MessagePackage) input.readObject()) != null) {
-                if (controller.isStopping()) {
-                    input.close();
-                    output.close();
-                }
-                messageType = messagePackage.getMessageType();
-                if (messageType == MessageType.GET_INTERFACE) {
-                    output.writeObject(new MessagePackage(MessageType.INTERFACE, c));
-                } else if (messageType == MessageType.METHOD_INVOKE) {
-                    MessagePackage res = invoke((MethodPack) messagePackage.getData());
-                    output.writeObject(res);
-                    output.flush();
-                } else if (messageType == MessageType.SERVICE_STOP) {
+            Frames.Input input = new Frames.Input(new BufferedInputStream(UnixSockets.input(socket)));
+            Codecs.Handshake handshake = Codecs.readHandshake(input);
+            codec = handshake.codec;
+            compress = handshake.compression && Compression.isEnabled();
+            output = new DataOutputStream(new BufferedOutputStream(UnixSockets.output(socket)));
+            while ((messagePackage = Frames.read(input, codec)) != null) {
+                if (!handle(messagePackage, input.getDecodeNanos(), this)) {
                     break;
                 }
             }
-            if (controller.isStopping()) {
-                output.writeObject(new MessagePackage(MessageType.SERVICE_STOP));
-                output.flush();
-            }
         } catch (IOException e) {
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
         } catch (Exception e) {
 
+        } finally {
+            active.cancelAll();
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
         }
     }
 
-    public MessagePackage invoke(MethodPack methodPack)  {
-        if (methodPack == null) {
-            return null;
+    /** Handles one request.
+
+        <p>
+        Method invocations and batches are handed to the skeleton's worker
+        threads; other requests are answered immediately. Every request for
+        which this method returns <code>true</code> is answered by exactly one
+        call to the responder's <code>respond</code> method, and is entered in
+        the skeleton's call tracker until the responder has written or
+        dropped the response.
+
+        <p>
+        Method invocations and batches are subject to the skeleton's admission
+        limits. A call arriving when the skeleton already runs and queues as
+        many calls as it allows is answered at once with an
+        <code>OverloadException</code>, without being run. Each priority class
+        has its own workers and limits: an invocation runs in the class of its
+        method, and a batch in the <code>BULK</code> class if any of its calls
+        is.
+
+        <p>
+        Method invocations and batches are registered with the responder's
+        active calls for as long as they run. One whose deadline has passed, or
+        which the stub has cancelled, by the time a worker thread gets to it is
+        answered without being run. A <code>CANCEL</code> request cancels the
+        call with the same correlation ID and is not answered.
+
+        <p>
+        Requests are dispatched by the interface whose ID they carry, among
+        those the skeleton serves, and requests carrying no interface ID by
+        the skeleton's own interface. A request for an interface the skeleton
+        does not serve fails with an <code>RMIException</code>.
+
+        <p>
+        A method invocation carrying a request token is run at most once: a
+        retry with the same token as an earlier call is answered with the
+        earlier call's response.
+
+        <p>
+        The phases of each method invocation are recorded in the statistics of
+        the method invoked. A traced invocation or batch runs with its server
+        span as the current trace context of the worker thread, and the span
+        is recorded once the response has been sent.
+
+        @param request The request.
+        @param decodeNanos The time spent decoding the request.
+        @param responder Where to send the response.
+        @return <code>false</code> if the client has asked to close the
+                connection.
+     */
+    boolean handle(MessagePackage request, long decodeNanos, Responder responder) {
+        long id = request.getId();
+        MessageType messageType = request.getMessageType();
+        if (messageType == MessageType.SERVICE_STOP) {
+            return false;
+        }
+        if (messageType == MessageType.CANCEL) {
+            responder.getActiveCalls().cancel(id);
+            return true;
+        }
+        calls.enter();
+        if (controller.isStopping()) {
+            responder.respond(id, new MessagePackage<>(MessageType.SERVICE_STOP));
+            return true;
         }
+        Dispatcher dispatcher = exports.get(request.getInterfaceId());
+        if (dispatcher == null) {
+            responder.respond(id, new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("No such interface (ID " + request.getInterfaceId() + ") in skeleton of " + c.getName())));
+            return true;
+        }
+        if (messageType == MessageType.GET_INTERFACE) {
+            responder.respond(id, new MessagePackage<>(MessageType.INTERFACE, dispatcher.c));
+        } else if (messageType == MessageType.METHOD_INVOKE) {
+            MethodPack methodPack = (MethodPack) request.getData();
+            Dispatcher.Target target = methodPack == null ? null : dispatcher.get(methodPack.getMethodId());
+            if (target == null) {
+                responder.respond(id, invoke(dispatcher, methodPack));
+                return true;
+            }
+            MethodStats stats = target.stats;
+            stats.enter();
+            stats.getDeserialize().record(decodeNanos);
+            ActiveCalls.Call call = responder.getActiveCalls().register(id, request.getTimeout());
+            Tracing.Active span = Tracing.startServer(request, target.entry.signature);
+            long queued = System.nanoTime();
+            Runnable task = () -> {
+                long started = System.nanoTime();
+                stats.getQueueWait().record(started - queued);
+                if (span != null) {
+                    span.queued(started - queued);
+                }
+                MessagePackage response;
+                if (call.start()) {
+                    try {
+                        response = traced(span, () -> invoke(dispatcher, target, methodPack.getParas(), request.getToken()));
+                    } finally {
+                        call.finish();
+                    }
+                } else {
+                    call.finish();
+                    response = call.skipped();
+                }
+                long invoked = System.nanoTime();
+                responder.respond(id, response);
+                stats.getSerialize().record(System.nanoTime() - invoked);
+                stats.exit();
+                if (span != null) {
+                    span.finish(response.getMessageType() != MessageType.INVOKE_SUCCESS);
+                }
+            };
+            Runnable refusal = () -> {
+                MessagePackage response = refused();
+                call.finish();
+                if (response.getMessageType() != MessageType.SERVICE_STOP) {
+                    stats.rejected();
+                }
+                stats.exit();
+                responder.respond(id, response);
+                if (span != null) {
+                    span.finish(true);
+                }
+            };
+            workers[target.entry.priority.ordinal()].execute(task, refusal);
+        } else if (messageType == MessageType.BATCH_INVOKE) {
+            BatchPack batchPack = (BatchPack) request.getData();
+            ActiveCalls.Call call = responder.getActiveCalls().register(id, request.getTimeout());
+            Tracing.Active span = Tracing.startServer(request, "batch");
+            long queued = System.nanoTime();
+            Runnable task = () -> {
+                if (span != null) {
+                    span.queued(System.nanoTime() - queued);
+                }
+                MessagePackage response;
+                if (call.start()) {
+                    try {
+                        response = traced(span, () -> invokeAll(dispatcher, batchPack));
+                    } finally {
+                        call.finish();
+                    }
+                } else {
+                    call.finish();
+                    response = call.skipped();
+                }
+                responder.respond(id, response);
+                if (span != null) {
+                    span.finish(response.getMessageType() != MessageType.BATCH_RESULT);
+                }
+            };
+            Runnable refusal = () -> {
+                call.finish();
+                responder.respond(id, refused());
+                if (span != null) {
+                    span.finish(true);
+                }
+            };
+            workers[priorityOf(dispatcher, batchPack).ordinal()].execute(task, refusal);
+        } else {
+            responder.respond(id, new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("Unexpected request (" + messageType + ")")));
+        }
+        return true;
+    }
+
+    /** Invokes a method found in the dispatch table for a request, unless
+        the request is a retry of a call which has already been run. */
+    private static MessagePackage invoke(Dispatcher dispatcher, Dispatcher.Target target, Object[] parameters, long token) {
+        if (token == 0) {
+            return invoke(target, parameters);
+        }
+        return dispatcher.tokens.run(token, target.stats, () -> invoke(target, parameters));
+    }
 
+    /** Runs an invocation with the server span of its request as the current
+        trace context, if the request is traced. */
+    static MessagePackage traced(Tracing.Active span, Supplier<MessagePackage> invocation) {
+        if (span == null) {
+            return invocation.get();
+        }
+        TraceContext previous = Tracing.enter(span.context());
         try {
+            return invocation.get();
+        } finally {
+            Tracing.exit(previous);
+        }
+    }
 
-            String methodName = methodPack.getMethodName();
-            if (methodName == null) {
-                return new MessagePackage(MessageType.INVOKE_FAILED, new RMIException("Missing method name"));
+    /** Returns the priority class a batch runs in. */
+    private static PriorityClass priorityOf(Dispatcher dispatcher, BatchPack batchPack) {
+        if (batchPack != null && batchPack.getCalls() != null) {
+            for (MethodPack methodPack : batchPack.getCalls()) {
+                Dispatcher.Target target = methodPack == null ? null : dispatcher.get(methodPack.getMethodId());
+                if (target != null && target.entry.priority == PriorityClass.BULK) {
+                    return PriorityClass.BULK;
+                }
             }
+        }
+        return PriorityClass.CONTROL;
+    }
+
+    /** Returns the response to a call refused by admission control, or
+        which no worker thread could be started for: an
+        <code>OverloadException</code>, or <code>SERVICE_STOP</code> if the
+        skeleton is stopping. */
+    private MessagePackage refused() {
+        if (controller.isStopping()) {
+            return new MessagePackage<>(MessageType.SERVICE_STOP);
+        }
+        return new MessagePackage<>(MessageType.INVOKE_FAILED, new OverloadException("Skeleton is overloaded"));
+    }
+
+    @Override
+    public ActiveCalls getActiveCalls() {
+        return active;
+    }
 
-            Object[] parameters = methodPack.getParas();
-            System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
-            System.out.println("Invoked method: " + methodName);
-            System.out.println("parameters: ");
-            if (parameters == null || parameters.length == 0) {
-                System.out.println("null");
+    /** Writes a response on the connection.
+
+        <p>
+        Worker threads complete requests concurrently, so writes are serialized
+        on the output stream. A response that cannot be written because the
+        client has gone away is dropped.
+     */
+    @Override
+    public void respond(long id, MessagePackage response) {
+        try {
+            if (response == null) {
+                return;
             }
-            for (Object para:parameters) {
-                System.out.println(para);
+            response.setId(id);
+            ByteBuffer[] frame = encode(codec, response, compress);
+            synchronized (output) {
+                Frames.write(output, frame);
+                output.flush();
+            }
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
             }
+        } finally {
+            calls.exit();
+        }
+    }
 
-            Method[] services = this.c.getMethods();
-            for (Method service:services) {
-                if (service.getName().equals(methodName)) {
-                    Class<?>[] serviceParameterTypes = service.getParameterTypes();
-                    if ((serviceParameterTypes.length == 0 && parameters == null) || serviceParameterTypes.length == parameters.length) {
-                        boolean isParametersSame = true;
-                        for (int i = 0; i < serviceParameterTypes.length; i++) {
-                            if (parameters[i] == null) {}
-                            else {
-                                String parameterType = parameters[i].getClass().getSimpleName().toLowerCase();
-                                String serviceType = serviceParameterTypes[i].getSimpleName().toLowerCase();
-
-                                if (!parameterType.contains(serviceType)) {
-                                    if (parameterType.contains("$proxy")) {
-                                        parameters[i] = serviceParameterTypes[i].cast(parameters[i]);
-                                    }else {
-                                        isParametersSame = false;
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                        if (isParametersSame) {
-                            return new MessagePackage(MessageType.INVOKE_SUCCESS, (Serializable) service.invoke(server, parameters));
-                        }
-                    }
+    /** Encodes a response as a frame. A response which cannot be encoded,
+        such as the result of a method which is not serializable, is replaced
+        by an <code>INVOKE_FAILED</code> response carrying the encoding
+        error, so that only its own call fails rather than the connection
+        which it shares with other calls. The error is described in the
+        message of the exception rather than attached as its cause, so that
+        the replacement can always be encoded.
+     */
+    static ByteBuffer[] encode(Codec codec, MessagePackage response, boolean compress) throws IOException {
+        try {
+            return Frames.encode(codec, response, compress);
+        } catch (IOException e) {
+            MessagePackage failed = new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("Unable to encode response: " + e));
+            failed.setId(response.getId());
+            return Frames.encode(codec, failed, compress);
+        }
+    }
+
+    /** Invokes the method requested by the stub on the server object.
+
+        <p>
+        The method is found by its ID in the dispatch table of the skeleton's
+        own interface. The arguments are checked against the method's
+        parameter types before the method is called.
+
+        @return A response carrying either the result of the method or the
+                exception it threw.
+     */
+    public MessagePackage invoke(MethodPack methodPack)  {
+        return invoke(exports.primary(), methodPack);
+    }
+
+    /** Invokes a method of one of the interfaces served on its server
+        object. */
+    static MessagePackage invoke(Dispatcher dispatcher, MethodPack methodPack) {
+        if (methodPack == null) {
+            return new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("Missing method call"));
+        }
+
+        Dispatcher.Target target = dispatcher.get(methodPack.getMethodId());
+        if (target == null) {
+            return new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("No such method (ID " + methodPack.getMethodId() + ") in " + dispatcher.c.getName()));
+        }
+        target.stats.enter();
+        try {
+            return invoke(target, methodPack.getParas());
+        } finally {
+            target.stats.exit();
+        }
+    }
+
+    /** Invokes a method found in the dispatch table, recording the outcome and
+        latency of the invocation in the method's statistics. Calls to a
+        method which asks for it are coalesced with an identical call already
+        running, if there is one. */
+    static MessagePackage invoke(Dispatcher.Target target, Object[] parameters) {
+        if (target.flights != null) {
+            return target.flights.run(parameters, () -> execute(target, parameters));
+        }
+        return execute(target, parameters);
+    }
+
+    /** Invokes a method found in the dispatch table. */
+    private static MessagePackage execute(Dispatcher.Target target, Object[] parameters) {
+        long start = System.nanoTime();
+        MessagePackage response;
+        if (!target.entry.accepts(parameters)) {
+            response = new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("No such method (" + target.entry.signature + ") with given parameters"));
+        } else {
+            try {
+                Object result = target.invoke(parameters);
+                if (result == null || result instanceof Serializable) {
+                    response = new MessagePackage<>(MessageType.INVOKE_SUCCESS, (Serializable) result);
+                } else {
+                    response = new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("Unable to encode result: " + result.getClass().getName() + " is not serializable"));
                 }
+            } catch (Throwable t) {
+                response = new MessagePackage<>(MessageType.INVOKE_FAILED, t);
             }
-            return new MessagePackage(MessageType.INVOKE_FAILED, new RMIException("No such method ("  + methodName + ") with given parameters"));
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            return new MessagePackage(MessageType.INVOKE_FAILED, e.getTargetException());
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            return new MessagePackage(MessageType.INVOKE_FAILED, e);
+        }
+        target.stats.invoked(response.getMessageType() != MessageType.INVOKE_SUCCESS, System.nanoTime() - start);
+        return response;
+    }
+
+    /** Invokes the methods of a batch, one after another, in order.
+
+        <p>
+        Each invocation is isolated: an exception thrown by one is recorded as
+        its result, and the remaining invocations still run.
+     */
+    public MessagePackage invokeAll(BatchPack batchPack) {
+        return invokeAll(exports.primary(), batchPack);
+    }
+
+    /** Invokes the methods of a batch of calls to one of the interfaces
+        served. */
+    static MessagePackage invokeAll(Dispatcher dispatcher, BatchPack batchPack) {
+        if (batchPack == null || batchPack.getCalls() == null) {
+            return new MessagePackage<>(MessageType.INVOKE_FAILED, new RMIException("Missing batch"));
         }
 
+        MethodPack[] calls = batchPack.getCalls();
+        Object[] values = new Object[calls.length];
+        boolean[] failed = new boolean[calls.length];
+        for (int i = 0; i < calls.length; i++) {
+            MessagePackage result = invoke(dispatcher, calls[i]);
+            if (result == null) {
+                values[i] = new RMIException("Missing method invocation");
+                failed[i] = true;
+            } else {
+                values[i] = result.getData();
+                failed[i] = result.getMessageType() != MessageType.INVOKE_SUCCESS;
+            }
+        }
+        return new MessagePackage<>(MessageType.BATCH_RESULT, new BatchResult(values, failed));
     }
 
 }
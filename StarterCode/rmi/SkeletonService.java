@@ -1,30 +1,58 @@
 package rmi;
 
 import java.io.*;
-import java.net.Socket;
+import java.util.Set;
 
-public class SkeletonService<T> extends Thread{
+/** Services one accepted connection.
 
-    private Socket client_socket;
+    <p>
+    A service is run on the skeleton's connection executor. It is added to the
+    listener's set of live services when it is created, and removes itself
+    when the connection closes, so that the set only ever holds services whose
+    connections are still open.
+ */
+public class SkeletonService<T> implements Runnable {
+
+    private Closeable client_socket;
     private Class<T> c;
     private StatusController controller;
-    private T server;
+    private Exports exports;
+    private Admission[] workers;
+    private CallTracker calls;
+    private Set<SkeletonService<?>> services;
 
-    public SkeletonService(Socket socket, Class<T> c, StatusController controller, T server) {
+    SkeletonService(Closeable socket, Class<T> c, StatusController controller, Exports exports, Admission[] workers, CallTracker calls, Set<SkeletonService<?>> services) {
         this.client_socket = socket;
         this.c = c;
         this.controller = controller;
-        this.server = server;
+        this.exports = exports;
+        this.workers = workers;
+        this.calls = calls;
+        this.services = services;
+        services.add(this);
     }
 
     @Override
     public void run(){
-            SkeletonMethodHandler<T> skeletonMethodHandler = new SkeletonMethodHandler<>(client_socket, c, controller, server);
+        try {
+            SkeletonMethodHandler<T> skeletonMethodHandler = new SkeletonMethodHandler<>(client_socket, c, controller, exports, workers, calls);
             skeletonMethodHandler.handleMessage();
+        } finally {
+            services.remove(this);
+        }
+    }
 
+    /** Closes the connection without running the service, for connections the
+        executor has rejected. */
+    void abandon() {
+        services.remove(this);
+        try {
+            client_socket.close();
+        } catch (IOException e) {
+        }
     }
 
-    public Socket getClient_socket() {
+    public Closeable getClient_socket() {
         return client_socket;
     }
 
@@ -0,0 +1,17 @@
+package rmi;
+
+/** Ways in which a skeleton can serve its connections.
+
+    <p>
+    Both transports speak the same protocol, so any stub can call a skeleton
+    using either of them.
+ */
+public enum SkeletonTransport {
+    /** One thread per connection, blocked reading requests. Suited to a
+        moderate number of busy connections. */
+    BLOCKING,
+    /** A small number of event-loop threads multiplexing all connections with
+        <code>java.nio</code> selectors. Complete requests are handed to the
+        skeleton's worker threads. Suited to many mostly idle connections. */
+    SELECTOR
+}
@@ -0,0 +1,110 @@
+package rmi;
+
+/** Timing of one side of a traced remote call.
+
+    <p>
+    The start time is taken from the wall clock, so that spans recorded by
+    different processes can be placed on one time line; durations are measured
+    with <code>System.nanoTime</code>.
+ */
+public final class Span
+{
+    /** Side of the call a span was recorded by. */
+    public enum Kind
+    {
+        /** Recorded by the stub, from sending the request to receiving the
+            response. */
+        CLIENT,
+
+        /** Recorded by the skeleton, from receiving the request to sending
+            the response. */
+        SERVER
+    }
+
+    private final long traceId;
+    private final long spanId;
+    private final long parentId;
+    private final Kind kind;
+    private final String name;
+    private final long startMicros;
+    private final long durationNanos;
+    private final long queueNanos;
+    private final boolean failed;
+
+    Span(long traceId, long spanId, long parentId, Kind kind, String name,
+         long startMicros, long durationNanos, long queueNanos, boolean failed)
+    {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.kind = kind;
+        this.name = name;
+        this.startMicros = startMicros;
+        this.durationNanos = durationNanos;
+        this.queueNanos = queueNanos;
+        this.failed = failed;
+    }
+
+    public long getTraceId()
+    {
+        return traceId;
+    }
+
+    public long getSpanId()
+    {
+        return spanId;
+    }
+
+    /** Returns the ID of the parent span, or zero for the root of a
+        trace. */
+    public long getParentId()
+    {
+        return parentId;
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /** Returns the signature of the method called, such as
+        <code>createFile(common.Path)</code>, or <code>batch</code> for a
+        batch. */
+    public String getName()
+    {
+        return name;
+    }
+
+    /** Returns the start time, in microseconds since the epoch. */
+    public long getStartMicros()
+    {
+        return startMicros;
+    }
+
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    /** Returns the part of a server span spent waiting for a worker thread,
+        or zero for a client span. */
+    public long getQueueNanos()
+    {
+        return queueNanos;
+    }
+
+    /** Returns <code>true</code> if the call failed: the method threw an
+        exception, or the call could not be completed. */
+    public boolean isFailed()
+    {
+        return failed;
+    }
+
+    @Override
+    public String toString()
+    {
+        return kind + " " + name + " trace=" + Long.toHexString(traceId)
+            + " span=" + Long.toHexString(spanId) + " parent=" + Long.toHexString(parentId)
+            + " duration=" + durationNanos + "ns" + (failed ? " failed" : "");
+    }
+}
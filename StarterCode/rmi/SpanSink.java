@@ -0,0 +1,15 @@
+package rmi;
+
+/** Receives the spans of traced calls as they complete.
+
+    <p>
+    Spans are delivered on the threads making and serving calls, so a sink
+    should return quickly, for example by queueing the span for another
+    thread. A sink must be safe for use by several threads at once.
+
+    @see Tracing#setSink
+ */
+public interface SpanSink
+{
+    void record(Span span);
+}
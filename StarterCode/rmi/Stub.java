@@ -3,6 +3,8 @@ package rmi;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.*;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 
 /** RMI stub factory.
 
@@ -15,7 +17,9 @@ import java.net.*;
     The network address of the remote server is set when a stub is created, and
     may not be modified afterwards. Two stubs are equal if they implement the
     same interface and carry the same remote server address - and would
-    therefore connect to the same skeleton. Stubs are serializable.
+    therefore connect to the same skeleton. A stub may also be created for a
+    set of identical servers, across which it spreads its calls; such stubs are
+    equal if they have the same set of addresses. Stubs are serializable.
  */
 public abstract class Stub
 {
@@ -34,7 +38,9 @@ public abstract class Stub
 
         @param c A <code>Class</code> object representing the interface
                  implemented by the remote object.
-        @param skeleton The skeleton whose network address is to be used.
+        @param skeleton The skeleton whose network address is to be used. It
+                        may serve <code>c</code> as its own interface or as
+                        one exported on it.
         @return The stub created.
         @throws IllegalStateException If the skeleton has not been assigned an
                                       address by the user and has not yet been
@@ -43,12 +49,14 @@ public abstract class Stub
                                      a port is assigned, but no address can be
                                      found for the local host.
         @throws NullPointerException If any argument is <code>null</code>.
+        @throws IllegalArgumentException If the skeleton does not serve
+                                         <code>c</code>.
         @throws Error If <code>c</code> does not represent a remote interface
                       - an interface in which each method is marked as throwing
                       <code>RMIException</code>, or if an object implementing
                       this interface cannot be dynamically created.
      */
-    public static <T> T create(Class<T> c, Skeleton<T> skeleton)
+    public static <T> T create(Class<T> c, Skeleton<?> skeleton)
         throws UnknownHostException
     {
         if (c == null) {
@@ -59,13 +67,17 @@ public abstract class Stub
             throw new Error("Input should be an interface.");
         } else if (!isRemoteInterface(c)) {
             throw new Error("Input should be a remote interface");
+        } else if (!skeleton.serves(c)) {
+            throw new IllegalArgumentException("Skeleton does not serve " + c.getName());
         } else if (skeleton.getAddress() == null){
             throw new IllegalStateException("Skeleton has not been assigned a address.");
         }else {
-            Class<?>[] interfaces = new Class[]{c};
             InetSocketAddress address = skeleton.getAddress();
+            if (address.getAddress() != null && address.getAddress().isAnyLocalAddress()) {
+                address = new InetSocketAddress(InetAddress.getLocalHost(), address.getPort());
+            }
             StubInvocationHandler stubInvocationHandler = new StubInvocationHandler(address, c);
-            return (T) Proxy.newProxyInstance(c.getClassLoader(), interfaces, stubInvocationHandler);
+            return newStub(c, stubInvocationHandler);
         }
 
 
@@ -91,18 +103,22 @@ public abstract class Stub
 
         @param c A <code>Class</code> object representing the interface
                  implemented by the remote object.
-        @param skeleton The skeleton whose port is to be used.
+        @param skeleton The skeleton whose port is to be used. It may serve
+                        <code>c</code> as its own interface or as one exported
+                        on it.
         @param hostname The hostname with which the stub will be created.
         @return The stub created.
         @throws IllegalStateException If the skeleton has not been assigned a
                                       port.
         @throws NullPointerException If any argument is <code>null</code>.
+        @throws IllegalArgumentException If the skeleton does not serve
+                                         <code>c</code>.
         @throws Error If <code>c</code> does not represent a remote interface
                       - an interface in which each method is marked as throwing
                       <code>RMIException</code>, or if an object implementing
                       this interface cannot be dynamically created.
      */
-    public static <T> T create(Class<T> c, Skeleton<T> skeleton,
+    public static <T> T create(Class<T> c, Skeleton<?> skeleton,
                                String hostname)
     {
         if (c == null) {
@@ -115,6 +131,8 @@ public abstract class Stub
             throw new Error("Input should be an interface.");
         } else if (!isRemoteInterface(c)) {
             throw new Error("Input should be a remote interface.");
+        } else if (!skeleton.serves(c)) {
+            throw new IllegalArgumentException("Skeleton does not serve " + c.getName());
         } else {
             InetSocketAddress skeletonAddress = skeleton.getAddress();
             if (skeletonAddress == null) {
@@ -122,9 +140,8 @@ public abstract class Stub
             }
             Integer port = skeletonAddress.getPort();
             InetSocketAddress address = new InetSocketAddress(hostname, port);
-            Class<?>[] interfaces = new Class[]{c};
             StubInvocationHandler stubInvocationHandler = new StubInvocationHandler(address, c);
-            return (T)Proxy.newProxyInstance(c.getClassLoader(), interfaces, stubInvocationHandler);
+            return newStub(c, stubInvocationHandler);
         }
     }
 
@@ -156,12 +173,328 @@ public abstract class Stub
         } else if (!isRemoteInterface(c)) {
             throw new Error("Input should be a remote interface.");
         } else {
-            Class<?>[] interfaces = new Class[]{c};
             StubInvocationHandler stubInvocationHandler = new StubInvocationHandler(address, c);
-            return (T)Proxy.newProxyInstance(c.getClassLoader(), interfaces, stubInvocationHandler);
+            return newStub(c, stubInvocationHandler);
+        }
+    }
+
+    /** Creates a stub which spreads its calls across several identical remote
+        servers.
+
+        <p>
+        The servers must run skeletons for the same interface, backed by
+        server objects which behave the same, such as replicas holding the
+        same data. Each call is sent to one of them, chosen by comparing the
+        calls outstanding to two servers picked at random. Servers whose
+        circuit breaker is open are left out until they answer again, and a
+        call retried under the stub's retry policy may go to another server
+        than the attempt that failed.
+
+        <p>
+        Two stubs with several servers are equal if they implement the same
+        interface and have the same set of servers, in any order. A stub
+        created with a single server is equal to one created with
+        <code>create(Class, InetSocketAddress)</code> for that server.
+        Asynchronous stubs and batches created from the stub call a single
+        server, chosen when they are created.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote object.
+        @param endpoints The network addresses of the remote skeletons.
+                         Duplicate addresses are ignored.
+        @return The stub created.
+        @throws NullPointerException If any argument, or any of the
+                                     addresses, is <code>null</code>.
+        @throws IllegalArgumentException If <code>endpoints</code> is empty.
+        @throws Error As for <code>create(Class, InetSocketAddress)</code>.
+     */
+    public static <T> T create(Class<T> c, Collection<InetSocketAddress> endpoints)
+    {
+        if (c == null) {
+            throw new NullPointerException("Input interface is empty.");
+        } else if (endpoints == null) {
+            throw new NullPointerException("Input address is empty.");
+        } else if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("Input addresses are empty.");
+        } else if (!c.isInterface()) {
+            throw new Error("Input should be an interface.");
+        } else if (!isRemoteInterface(c)) {
+            throw new Error("Input should be a remote interface.");
+        }
+        for (InetSocketAddress address : endpoints) {
+            if (address == null) {
+                throw new NullPointerException("Input address is empty.");
+            }
+        }
+        InetSocketAddress[] addresses = new LinkedHashSet<>(endpoints).toArray(new InetSocketAddress[0]);
+        StubInvocationHandler handler = new StubInvocationHandler(addresses, c, 0, RetryPolicy.NONE);
+        return newStub(c, handler);
+    }
+
+    /** Creates an asynchronous stub, given the address of a remote server.
+
+        <p>
+        An asynchronous stub implements a companion interface to the remote
+        interface. Each method of the companion interface has the same name
+        and parameter types as a method of the remote interface, but returns a
+        <code>CompletableFuture</code> of the remote method's result instead of
+        the result itself, and is not declared as throwing any exception. For
+        example, the companion of
+
+        <pre>
+        public interface Storage
+        {
+            public byte[] read(Path file, long offset, int length)
+                throws RMIException, FileNotFoundException, IOException;
+        }
+        </pre>
+
+        could declare
+
+        <pre>
+        public interface AsyncStorage
+        {
+            public CompletableFuture&lt;byte[]&gt; read(Path file, long offset,
+                                                   int length);
+        }
+        </pre>
+
+        <p>
+        Calling a method of an asynchronous stub sends the request and returns
+        immediately. Many calls may be outstanding at once, from a single
+        thread, sharing the pooled connections used by regular stubs. The
+        future is completed with the result of the remote method, or
+        exceptionally with the exception the remote method threw, or with an
+        <code>RMIException</code> if the call could not be completed. Futures
+        are completed on a thread of the common fork-join pool. Cancelling a
+        future abandons the call on the client and asks the skeleton to cancel
+        it; the server may already have executed it.
+
+        @param asyncInterface A <code>Class</code> object representing the
+                              companion interface.
+        @param c A <code>Class</code> object representing the remote
+                 interface.
+        @param address The network address of the remote skeleton.
+        @return The stub created.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface,
+                      or if <code>asyncInterface</code> is not an interface
+                      whose methods all correspond to methods of
+                      <code>c</code> and return futures.
+     */
+    public static <A, T> A createAsync(Class<A> asyncInterface, Class<T> c,
+                                       InetSocketAddress address)
+    {
+        return createAsync(asyncInterface, c, address, 0);
+    }
+
+    private static <A, T> A createAsync(Class<A> asyncInterface, Class<T> c,
+                                        InetSocketAddress address, long timeout)
+    {
+        if (asyncInterface == null || c == null) {
+            throw new NullPointerException("Input interface is empty.");
+        } else if (address == null) {
+            throw new NullPointerException("Input address is empty.");
+        } else if (!c.isInterface() || !asyncInterface.isInterface()) {
+            throw new Error("Input should be an interface.");
+        } else if (!isRemoteInterface(c)) {
+            throw new Error("Input should be a remote interface.");
         }
+        AsyncStubInvocationHandler handler = new AsyncStubInvocationHandler(address, c, asyncInterface, timeout);
+        return asyncInterface.cast(Proxy.newProxyInstance(asyncInterface.getClassLoader(), new Class[]{asyncInterface}, handler));
     }
 
+    /** Creates an asynchronous stub for the same skeleton as an existing
+        stub. The asynchronous stub has the same default timeout as the
+        existing stub.
+
+        @param asyncInterface A <code>Class</code> object representing the
+                              companion interface.
+        @param c A <code>Class</code> object representing the remote
+                 interface.
+        @param stub A stub for <code>c</code> created by this class.
+        @return The stub created.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws IllegalArgumentException If <code>stub</code> was not created
+                                         by this class.
+        @throws Error As for <code>createAsync(Class, Class,
+                      InetSocketAddress)</code>.
+        @see #createAsync(Class, Class, InetSocketAddress)
+     */
+    public static <A, T> A createAsync(Class<A> asyncInterface, Class<T> c,
+                                       T stub)
+    {
+        if (stub == null) {
+            throw new NullPointerException("Input stub is empty.");
+        }
+        StubInvocationHandler handler = handlerOf(stub);
+        return createAsync(asyncInterface, c, handler.getAddress(), handler.getTimeout());
+    }
+
+    /** Creates an empty batch of calls to the skeleton of an existing stub.
+
+        @param c A <code>Class</code> object representing the remote
+                 interface.
+        @param stub A stub for <code>c</code> created by this class.
+        @return The new batch.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws IllegalArgumentException If <code>stub</code> was not created
+                                         by this class.
+        @throws Error If <code>c</code> does not represent a remote interface.
+        @see Batch
+     */
+    public static <T> Batch<T> batch(Class<T> c, T stub)
+    {
+        if (c == null) {
+            throw new NullPointerException("Input interface is empty.");
+        } else if (stub == null) {
+            throw new NullPointerException("Input stub is empty.");
+        } else if (!c.isInterface()) {
+            throw new Error("Input should be an interface.");
+        } else if (!isRemoteInterface(c)) {
+            throw new Error("Input should be a remote interface.");
+        }
+        StubInvocationHandler handler = handlerOf(stub);
+        return new Batch<>(c, handler.getAddress(), handler.getTimeout());
+    }
+
+    /** Returns a copy of a stub with a default timeout for its calls.
+
+        <p>
+        A call made through the returned stub fails with a
+        <code>CallTimeoutException</code> if it has not completed once the
+        timeout has elapsed. The timeout is sent with the request, so that the
+        skeleton skips the call if it only gets to it after the stub has given
+        up, and interrupts it if the stub gives up while it is running. Methods
+        with a <code>Timeout</code> annotation, on the method or on the remote
+        interface, use the timeout of the annotation instead. The copy is
+        equal to the original stub.
+
+        @param stub A stub created by this class.
+        @param timeout Timeout in milliseconds, or zero for calls to wait
+                       indefinitely.
+        @return The new stub.
+        @throws NullPointerException If <code>stub</code> is <code>null</code>.
+        @throws IllegalArgumentException If <code>stub</code> was not created
+                                         by this class, or if
+                                         <code>timeout</code> is negative.
+     */
+    public static <T> T withTimeout(T stub, long timeout)
+    {
+        if (stub == null) {
+            throw new NullPointerException("Input stub is empty.");
+        } else if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative.");
+        }
+        StubInvocationHandler handler = handlerOf(stub);
+        Class<?> c = handler.getInterface();
+        StubInvocationHandler copy = new StubInvocationHandler(handler.getEndpoints(), c, timeout, handler.getRetryPolicy());
+        // The copy implements the remote interface of the stub it copies.
+        @SuppressWarnings("unchecked")
+        T result = (T) newStub(c, copy);
+        return result;
+    }
+
+    /** Returns a copy of a stub with a policy for retrying calls that fail to
+        reach the skeleton.
+
+        <p>
+        Stubs do not retry calls unless given a policy with more than one
+        attempt; <code>RetryPolicy.NONE</code> disables retries again. The
+        copy has the same default timeout as the original stub, and is equal
+        to it.
+
+        @param stub A stub created by this class.
+        @param retryPolicy The policy.
+        @return The new stub.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws IllegalArgumentException If <code>stub</code> was not created
+                                         by this class.
+        @see RetryPolicy
+     */
+    public static <T> T withRetryPolicy(T stub, RetryPolicy retryPolicy)
+    {
+        if (stub == null) {
+            throw new NullPointerException("Input stub is empty.");
+        } else if (retryPolicy == null) {
+            throw new NullPointerException("Input retry policy is empty.");
+        }
+        StubInvocationHandler handler = handlerOf(stub);
+        Class<?> c = handler.getInterface();
+        StubInvocationHandler copy = new StubInvocationHandler(handler.getEndpoints(), c, handler.getTimeout(), retryPolicy);
+        // The copy implements the remote interface of the stub it copies.
+        @SuppressWarnings("unchecked")
+        T result = (T) newStub(c, copy);
+        return result;
+    }
+
+    /** Returns <code>false</code> if calls made through a stub currently
+        fail at once, because the circuit breaker of its skeleton's address is
+        open, or, for a stub with several endpoints, the breakers of all its
+        endpoints are. Callers which can choose among several servers may use
+        this to avoid servers which are unreachable.
+
+        @param stub A stub created by this class.
+        @throws NullPointerException If <code>stub</code> is <code>null</code>.
+        @throws IllegalArgumentException If <code>stub</code> was not created
+                                         by this class.
+        @see CircuitBreaker
+     */
+    public static boolean isAvailable(Object stub)
+    {
+        if (stub == null) {
+            throw new NullPointerException("Input stub is empty.");
+        }
+        for (InetSocketAddress address : handlerOf(stub).getEndpoints()) {
+            CircuitBreaker breaker = ConnectionPool.getDefault().getCircuitBreaker(address);
+            if (breaker == null || breaker.isAvailable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Creates a stub making its calls through the given handler: an
+        instance of the interface's generated stub class if it has a usable
+        one, and otherwise a proxy.
+
+        @see GeneratedStub
+     */
+    private static <T> T newStub(Class<T> c, StubInvocationHandler handler)
+    {
+        Object generated = GeneratedStub.create(c, handler);
+        if (generated != null) {
+            return c.cast(generated);
+        }
+        return c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class[]{c}, handler));
+    }
+
+    /** Returns the invocation handler of a stub created by this class.
+
+        @throws IllegalArgumentException If <code>stub</code> was not created
+                                         by this class.
+     */
+    private static StubInvocationHandler handlerOf(Object stub)
+    {
+        StubInvocationHandler handler = findHandler(stub);
+        if (handler == null) {
+            throw new IllegalArgumentException("Input is not a stub.");
+        }
+        return handler;
+    }
+
+    /** Returns the invocation handler of a stub created by this class, or
+        <code>null</code> if the object is not such a stub. */
+    static StubInvocationHandler findHandler(Object stub)
+    {
+        if (stub instanceof GeneratedStub) {
+            return ((GeneratedStub) stub).getHandler();
+        }
+        if (!Proxy.isProxyClass(stub.getClass()) || !(Proxy.getInvocationHandler(stub) instanceof StubInvocationHandler)) {
+            return null;
+        }
+        return (StubInvocationHandler) Proxy.getInvocationHandler(stub);
+    }
 
     private static boolean isRemoteInterface(Class<?> c) {
         Method[] methods = c.getMethods();
@@ -1,26 +1,78 @@
 package rmi;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class StubInvocationHandler implements InvocationHandler, Serializable {
 
     private static final long serialVersionUID = 1L;
     private InetSocketAddress ia;
+    /** Endpoints of a stub with several, or <code>null</code> for a stub with
+        the single address <code>ia</code>. */
+    private InetSocketAddress[] endpoints;
     private Class<?> c;
+    private long timeout;
+    private RetryPolicy retryPolicy;
 
     public StubInvocationHandler(InetSocketAddress ia, Class<?> c) {
-        this.ia = ia;
+        this(new InetSocketAddress[] {ia}, c, 0, RetryPolicy.NONE);
+    }
+
+    /** Creates a handler for one or more endpoints, with a default call
+        timeout and a retry policy.
+
+        @param endpoints The addresses of the skeletons, without duplicates.
+        @param timeout Timeout, in milliseconds, for methods without a
+                       <code>Timeout</code> annotation, or zero for none.
+     */
+    StubInvocationHandler(InetSocketAddress[] endpoints, Class<?> c, long timeout, RetryPolicy retryPolicy) {
+        this.ia = endpoints[0];
+        this.endpoints = endpoints.length == 1 ? null : endpoints.clone();
         this.c = c;
+        this.timeout = timeout;
+        this.retryPolicy = retryPolicy;
+    }
+
+
+    /** Returns the address of the skeleton the stub calls. For a stub with
+        several endpoints, returns the endpoint its next call would be sent
+        to. */
+    InetSocketAddress getAddress() {
+        return endpoints == null ? ia : LoadBalancer.choose(endpoints);
+    }
+
+    /** Returns the addresses of all the skeletons the stub calls. */
+    InetSocketAddress[] getEndpoints() {
+        return endpoints == null ? new InetSocketAddress[] {ia} : endpoints.clone();
+    }
+
+    Class<?> getInterface() {
+        return c;
     }
 
+    long getTimeout() {
+        return timeout;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /** Returns the timeout of a call, in milliseconds, as carried by the
+        request: the method's <code>Timeout</code> annotation if it has one,
+        and otherwise the stub's default. */
+    static int timeoutOf(MethodTable.Entry entry, long stubTimeout) {
+        long timeout = entry.timeout >= 0 ? entry.timeout : stubTimeout;
+        return (int) Math.min(Integer.MAX_VALUE, timeout);
+    }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
@@ -30,75 +82,206 @@ public class StubInvocationHandler implements InvocationHandler, Serializable {
         {
             if(para.length != 1) throw new Error("Wrong number of input parameters for equals method!");
             if(para[0] == null) return false;
+            if (para[0] instanceof GeneratedStub) return sameRemote(((GeneratedStub) para[0]).getHandler());
             if(!Proxy.isProxyClass(para[0].getClass())) throw new Error("Wrong input for equals method!");
             else
             {
-                StubInvocationHandler comp = (StubInvocationHandler)Proxy.getInvocationHandler(para[0]);
-                return this.ia.equals(comp.ia) && this.c.equals(comp.c);
+                InvocationHandler handler = Proxy.getInvocationHandler(para[0]);
+                if (!(handler instanceof StubInvocationHandler)) return false;
+                return sameRemote((StubInvocationHandler) handler);
             }
         }
         //
         else if(method_name.equals("toString"))
         {
             if(para != null) throw new Error("Wrong number of input para for toString method!");
-            return "Interface Name: " + this.c.getName() + " Remote Address: " + this.ia.getHostName() + ":" + this.ia.getPort();
+            return describe();
         }
         else if(method_name.equals("hashCode"))
         {
             if(para != null) throw new Error("Wrong number of input para for hashCode method!");
-            int hash = 1;
-            hash = hash*17 + this.ia.hashCode();
-            hash = hash*31 + this.c.hashCode();
-            return hash;
+            return remoteHashCode();
         }
         //
-        Socket socket;
-        MessagePackage inMessagePackage;
+        Class[] paras_types = method.getParameterTypes();
+        Integer l = paras_types.length;
+        if ((l != 0 && args==null) && l != args.length) {
+            throw new RMIException("Wrong number of parameters");
+        }
+        Object[] paras = new Object[l];
+        for (int i = 0; i < l; i++) {
+            if (paras_types[i].isPrimitive()) {
+                paras[i] = args[i];
+            } else paras[i] = paras_types[i].cast(args[i]);
+        }
+        return call(MethodTable.of(c).entryOf(method), paras);
+    }
+
+    /** Returns <code>true</code> if another stub calls the same remote
+        interface on the same skeletons. */
+    boolean sameRemote(StubInvocationHandler comp) {
+        if (this.endpoints != null || comp.endpoints != null) {
+            return endpointSet().equals(comp.endpointSet()) && this.c.equals(comp.c);
+        }
+        return this.ia.equals(comp.ia) && this.c.equals(comp.c);
+    }
+
+    int remoteHashCode() {
+        int hash = 1;
+        hash = hash*17 + (endpoints == null ? this.ia.hashCode() : endpointSet().hashCode());
+        hash = hash*31 + this.c.hashCode();
+        return hash;
+    }
+
+    String describe() {
+        if (endpoints != null) {
+            return "Interface Name: " + this.c.getName() + " Remote Addresses: " + Arrays.toString(endpoints);
+        }
+        return "Interface Name: " + this.c.getName() + " Remote Address: " + this.ia.getHostName() + ":" + this.ia.getPort();
+    }
+
+    /** Calls a remote method and returns its result, or throws the
+        exception it threw.
+
+        <p>
+        Both proxy stubs and generated stubs make their calls through this
+        method; proxy stubs first look up the method's entry in the method
+        table.
+
+        @param entry The method.
+        @param paras The arguments, already checked by the caller's types.
+     */
+    Object call(MethodTable.Entry entry, Object[] paras) throws Throwable {
+        MethodPack methodPack = new MethodPack(entry.id, paras);
+        MessagePackage outMessagePackage = new MessagePackage<>(MessageType.METHOD_INVOKE, methodPack);
+        outMessagePackage.setTimeout(timeoutOf(entry, timeout));
+        outMessagePackage.setInterfaceId(MethodTable.of(c).interfaceId);
+        Tracing.Active span = Tracing.startClient(outMessagePackage, entry.signature);
+        MessagePackage inMessagePackage = null;
+        boolean failed = true;
         try {
-            socket = new Socket();
-            System.out.println("Connecting server at " + ia.toString());
-            socket.connect(ia);
-            ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
-            String methodName = method.getName();
-            Class[] paras_types = method.getParameterTypes();
-            Integer l = paras_types.length;
-            if ((l != 0 && args==null) && l != args.length) {
-                throw new RMIException("Wrong number of parameters");
+            if (outMessagePackage.getTimeout() <= 0) {
+                inMessagePackage = invokeLocally(outMessagePackage);
             }
-            Object[] paras = new Object[l];
-            for (int i = 0; i < l; i++) {
-                if (paras_types[i].isPrimitive()) {
-                    paras[i] = args[i];
-                } else paras[i] = paras_types[i].cast(args[i]);
+            if (inMessagePackage == null) {
+                if (!entry.idempotent && retryPolicy.getMaxAttempts() > 1) {
+                    outMessagePackage.setToken(RequestTokens.next());
+                }
+                inMessagePackage = call(outMessagePackage, entry);
+            }
+            failed = inMessagePackage.getMessageType() != MessageType.INVOKE_SUCCESS;
+        } finally {
+            if (span != null) {
+                span.finish(failed);
             }
-            MethodPack methodPack = new MethodPack(methodName, paras);
-            MessagePackage outMessagePackage = new MessagePackage(MessageType.METHOD_INVOKE, methodPack);
-            System.out.println(methodPack);
-            output.writeObject(outMessagePackage);
-
-            ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
-            inMessagePackage = (MessagePackage) input.readObject();
-        } catch (IOException e) {
-            throw new RMIException("Connection failed!");
         }
 
-
         MessageType messageType = inMessagePackage.getMessageType();
         Object data = inMessagePackage.getData();
-        System.out.println(data);
 
         if (messageType.equals(MessageType.INVOKE_FAILED)) {
-            System.out.println("Error occurred when invoking the method.");
-            socket.close();
-            throw  (Throwable) data;
-        } else if(messageType.equals(MessageType.INVOKE_SUCCESS)) {
-            System.out.println("Invoke successfully.");
-            socket.close();
+            throw (Throwable) data;
+        } else if (messageType.equals(MessageType.INVOKE_SUCCESS)) {
             return data;
         } else {
-            socket.close();
-            System.out.println("Unknown method");
-            return null;
+            throw new RMIException("Unexpected response (" + messageType + ")");
+        }
+    }
+
+    /** Returns the endpoints of the stub, in no particular order, as compared
+        by <code>equals</code>. */
+    private HashSet<InetSocketAddress> endpointSet() {
+        return new HashSet<>(Arrays.asList(getEndpoints()));
+    }
+
+    /** Runs a request in this JVM, if the skeleton it is for is in this JVM.
+        A stub with several endpoints chooses the endpoint as it would for a
+        call over the network, and counts the call as outstanding to it while
+        it runs.
+
+        @return The response, or <code>null</code> if the request must be sent
+                over the network.
+        @see LocalSkeletons#invoke
+     */
+    private MessagePackage invokeLocally(MessagePackage request) throws RMIException {
+        if (endpoints == null) {
+            return LocalSkeletons.invoke(ia, request);
+        }
+        InetSocketAddress address = LoadBalancer.choose(endpoints);
+        LoadBalancer.started(address);
+        try {
+            return LocalSkeletons.invoke(address, request);
+        } finally {
+            LoadBalancer.finished(address);
+        }
+    }
+
+    /** Performs a request over a pooled connection to the skeleton and waits
+        for the response, retrying it under the stub's retry policy if it does
+        not reach the skeleton.
+
+        <p>
+        The request carries the time remaining until the call's deadline, so
+        every attempt is bounded by the timeout of the call as a whole, and
+        no retry is made once the deadline has passed.
+
+        @see ConnectionPool#call
+        @see RetryPolicy
+     */
+    private MessagePackage call(MessagePackage request, MethodTable.Entry entry) throws RMIException {
+        int timeout = request.getTimeout();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(request, entry);
+            } catch (ConnectionPool.TransportFailure e) {
+                if (attempt >= retryPolicy.getMaxAttempts() || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                long delay = retryPolicy.delay(attempt);
+                if (timeout > 0) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) - delay;
+                    if (remaining <= 0) {
+                        throw e;
+                    }
+                    request.setTimeout((int) remaining);
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /** Makes one attempt of a request. A stub with several endpoints chooses
+        the endpoint of each attempt anew, so that a retry may go to another
+        endpoint than the attempt that failed. */
+    private MessagePackage attempt(MessagePackage request, MethodTable.Entry entry) throws RMIException {
+        if (endpoints == null) {
+            return attempt(ia, request, entry);
+        }
+        InetSocketAddress address = LoadBalancer.choose(endpoints);
+        LoadBalancer.started(address);
+        try {
+            return attempt(address, request, entry);
+        } finally {
+            LoadBalancer.finished(address);
+        }
+    }
+
+    private MessagePackage attempt(InetSocketAddress address, MessagePackage request, MethodTable.Entry entry) throws RMIException {
+        CompletableFuture<MessagePackage> response = ConnectionPool.getDefault().call(address, entry.priority, request, entry.idempotent);
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            throw (RMIException) e.getCause();
+        } catch (InterruptedException e) {
+            response.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted while waiting for response", e);
         }
     }
 
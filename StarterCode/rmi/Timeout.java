@@ -0,0 +1,31 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Deadline for calls to a remote method.
+
+    <p>
+    The annotation may be placed on a method of a remote interface, or on the
+    interface itself to apply to every method without an annotation of its
+    own. A stub gives up on a call once the timeout has elapsed, measured from
+    the moment the call is made, and throws <code>CallTimeoutException</code>.
+    The time remaining is sent with the request, so the skeleton can skip a
+    call whose caller has already given up, and the skeleton is told to
+    interrupt the invocation when the stub gives up while it is running.
+
+    <p>
+    A timeout set on the method or the interface takes precedence over the
+    default timeout of the stub, set with <code>Stub.withTimeout</code>.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Timeout
+{
+    /** Timeout in milliseconds. Zero means the call waits indefinitely. */
+    long value();
+}
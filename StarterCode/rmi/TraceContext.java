@@ -0,0 +1,43 @@
+package rmi;
+
+/** Identifies the span of a traced request that the current thread is
+    working on.
+
+    <p>
+    A trace is the tree of remote calls made on behalf of one request. Each
+    call contributes a client span, timed by the stub, and a server span, timed
+    by the skeleton, whose parent is the client span. Calls the server object
+    makes while serving a traced call belong to the same trace, with the
+    server span as their parent.
+
+    @see Tracing
+ */
+public final class TraceContext
+{
+    private final long traceId;
+    private final long spanId;
+
+    TraceContext(long traceId, long spanId)
+    {
+        this.traceId = traceId;
+        this.spanId = spanId;
+    }
+
+    /** Returns the ID of the trace, shared by every span in it. */
+    public long getTraceId()
+    {
+        return traceId;
+    }
+
+    /** Returns the ID of the span. */
+    public long getSpanId()
+    {
+        return spanId;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Long.toHexString(traceId) + "/" + Long.toHexString(spanId);
+    }
+}
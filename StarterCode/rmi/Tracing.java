@@ -0,0 +1,173 @@
+package rmi;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Propagation of trace contexts across remote calls, and recording of their
+    spans.
+
+    <p>
+    Each thread may have a current trace context. A stub called on a thread
+    with a current context sends the call as part of that context's trace, as
+    a child of its span. The skeleton makes the server span of the call the
+    current context of the thread running the method, so that the calls the
+    server object makes in turn are traced as its children, without any
+    change to the server object. The context is carried in the request
+    message, so a trace crosses any number of processes.
+
+    <p>
+    Spans are recorded by the sink set with <code>setSink</code>. While a sink
+    is set, each call made on a thread without a current context starts a new
+    trace. Without a sink no spans are recorded and no new traces are
+    started, but contexts received from other processes are still passed on,
+    so that a trace is not broken by a process that does not record it.
+ */
+public final class Tracing
+{
+    private static final ThreadLocal<TraceContext> current = new ThreadLocal<>();
+    private static volatile SpanSink sink = null;
+
+    private Tracing()
+    {
+    }
+
+    /** Returns the sink recording spans, or <code>null</code> if spans are not
+        recorded. */
+    public static SpanSink getSink()
+    {
+        return sink;
+    }
+
+    /** Sets the sink recording the spans of calls made and served by this
+        JVM from now on.
+
+        @param sink The sink, or <code>null</code> to stop recording spans.
+     */
+    public static void setSink(SpanSink sink)
+    {
+        Tracing.sink = sink;
+    }
+
+    /** Returns the trace context of the current thread, or <code>null</code>
+        if it has none. */
+    public static TraceContext current()
+    {
+        return current.get();
+    }
+
+    /** Makes a context the current context of the thread.
+
+        @return The previous context, to be restored with
+                <code>exit</code>.
+     */
+    static TraceContext enter(TraceContext context)
+    {
+        TraceContext previous = current.get();
+        current.set(context);
+        return previous;
+    }
+
+    /** Restores the context that was current before <code>enter</code>. */
+    static void exit(TraceContext previous)
+    {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /** Starts the client span of a call, and tags the request with it.
+
+        @return The span, or <code>null</code> if the call is not traced.
+     */
+    static Active startClient(MessagePackage request, String name)
+    {
+        TraceContext parent = current.get();
+        SpanSink sink = Tracing.sink;
+        if (parent == null && sink == null) {
+            return null;
+        }
+        long traceId = parent == null ? newId() : parent.getTraceId();
+        Active span = new Active(sink, traceId, parent == null ? 0 : parent.getSpanId(), Span.Kind.CLIENT, name);
+        request.setTraceId(traceId);
+        request.setSpanId(span.spanId);
+        return span;
+    }
+
+    /** Starts the server span of a received request.
+
+        @return The span, or <code>null</code> if the request is not part of a
+                trace.
+     */
+    static Active startServer(MessagePackage request, String name)
+    {
+        if (request.getTraceId() == 0) {
+            return null;
+        }
+        return new Active(sink, request.getTraceId(), request.getSpanId(), Span.Kind.SERVER, name);
+    }
+
+    private static long newId()
+    {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /** A span being timed. */
+    static final class Active
+    {
+        private final SpanSink sink;
+        private final long traceId;
+        private final long spanId;
+        private final long parentId;
+        private final Span.Kind kind;
+        private final String name;
+        private final long startMicros;
+        private final long startNanos;
+        private long queueNanos;
+
+        private Active(SpanSink sink, long traceId, long parentId,
+                       Span.Kind kind, String name)
+        {
+            this.sink = sink;
+            this.traceId = traceId;
+            this.spanId = newId();
+            this.parentId = parentId;
+            this.kind = kind;
+            this.name = name;
+            this.startMicros = System.currentTimeMillis() * 1000;
+            this.startNanos = System.nanoTime();
+            this.queueNanos = 0;
+        }
+
+        /** Returns the context of calls made within the span. */
+        TraceContext context()
+        {
+            return new TraceContext(traceId, spanId);
+        }
+
+        /** Records the time a server span spent waiting for a worker
+            thread. */
+        void queued(long nanos)
+        {
+            queueNanos = nanos;
+        }
+
+        /** Ends the span and hands it to the sink. Failures of the sink are
+            ignored, so that they do not affect the call. */
+        void finish(boolean failed)
+        {
+            if (sink == null) {
+                return;
+            }
+            try {
+                sink.record(new Span(traceId, spanId, parentId, kind, name, startMicros,
+                                     System.nanoTime() - startNanos, queueNanos, failed));
+            } catch (RuntimeException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package rmi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/** Unix domain socket transport between processes on the same host.
+
+    <p>
+    A skeleton with Unix domain sockets enabled listens, besides its TCP port,
+    on a socket file named after that port in the socket directory. A stub
+    connecting to a local address looks for the socket file of the port, and
+    if there is one, connects through it instead of through TCP loopback,
+    which saves the TCP stack's per-call overhead. Stubs fall back to TCP
+    when there is no socket file, or connecting to it or sending the handshake
+    through it fails, so remote callers and skeletons without Unix domain
+    sockets are served as before.
+
+    <p>
+    The socket directory is the value of the system property
+    <code>rmi.unixSocketDirectory</code>, or the directory
+    <code>rmi-</code><i>user</i> in the temporary file directory if it is not
+    set. Processes must use the same directory to find each other's sockets.
+    Since a stub trusts whatever listens on a socket file, the directory must
+    belong to the current user and must not be writable by anyone else: a
+    skeleton creates it with owner-only permissions if it does not exist, and
+    neither skeletons nor stubs use a directory that fails these checks.
+ */
+public final class UnixSockets
+{
+    /** System property naming the socket directory. */
+    public static final String DIRECTORY_PROPERTY = "rmi.unixSocketDirectory";
+
+    private static volatile Path directory = defaultDirectory();
+    private static volatile boolean preferred = true;
+
+    private UnixSockets()
+    {
+    }
+
+    /** Returns the directory holding the socket files of skeletons. */
+    public static Path getDirectory()
+    {
+        return directory;
+    }
+
+    /** Sets the directory holding the socket files of skeletons. The directory
+        applies to skeletons started and connections opened from now on.
+
+        @throws NullPointerException If <code>directory</code> is
+                                     <code>null</code>.
+     */
+    public static void setDirectory(Path directory)
+    {
+        if (directory == null) {
+            throw new NullPointerException("Directory should not be null");
+        }
+        UnixSockets.directory = directory;
+    }
+
+    /** Returns <code>true</code> if stubs connect to local skeletons through
+        their Unix domain sockets. */
+    public static boolean isPreferred()
+    {
+        return preferred;
+    }
+
+    /** Sets whether stubs connect to local skeletons through their Unix domain
+        sockets, when they have one. Stubs prefer them by default. */
+    public static void setPreferred(boolean preferred)
+    {
+        UnixSockets.preferred = preferred;
+    }
+
+    /** Returns the socket file of the skeleton listening on a port. */
+    static Path pathOf(int port)
+    {
+        return directory.resolve(fileName(port));
+    }
+
+    /** Opens the Unix domain socket of the skeleton listening on a port. A
+        socket file left behind by a skeleton that did not stop cleanly is
+        replaced, but one which still accepts connections is not.
+
+        @throws BindException If another process listens on the socket file.
+        @throws IOException If the socket directory cannot be created, is not
+                            private to the current user, or the socket cannot
+                            be opened.
+     */
+    static ServerSocketChannel bind(int port) throws IOException
+    {
+        Path path = checkDirectory(true).resolve(fileName(port));
+        if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            if (accepts(path)) {
+                throw new BindException("Unix domain socket " + path + " is in use");
+            }
+            Files.deleteIfExists(path);
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /** Closes the Unix domain socket of a skeleton and removes its socket
+        file. */
+    static void close(ServerSocketChannel channel)
+    {
+        try {
+            Path path = ((UnixDomainSocketAddress) channel.getLocalAddress()).getPath();
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+        }
+    }
+
+    /** Connects to the Unix domain socket of a skeleton, if the address is
+        local, the socket directory passes the checks described above, and the
+        skeleton has a socket file in it.
+
+        @return The connected channel, in blocking mode, or <code>null</code>
+                if the connection must be made through TCP.
+     */
+    static SocketChannel connect(InetSocketAddress address)
+    {
+        if (!preferred || !LocalSkeletons.isLocal(address.getAddress())) {
+            return null;
+        }
+        try {
+            Path path = checkDirectory(false).resolve(fileName(address.getPort()));
+            if (!Files.exists(path)) {
+                return null;
+            }
+            return SocketChannel.open(UnixDomainSocketAddress.of(path));
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /** Returns a stream reading from a TCP socket or a blocking socket
+        channel. */
+    static InputStream input(Closeable socket) throws IOException
+    {
+        if (socket instanceof Socket) {
+            return ((Socket) socket).getInputStream();
+        }
+        SocketChannel channel = (SocketChannel) socket;
+        return new InputStream() {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int offset, int length) throws IOException
+            {
+                return length == 0 ? 0 : channel.read(ByteBuffer.wrap(b, offset, length));
+            }
+        };
+    }
+
+    /** Returns a stream writing to a TCP socket or a blocking socket channel.
+
+        <p>
+        Unlike the streams of <code>java.nio.channels.Channels</code>, the
+        streams returned here do not hold the channel's blocking lock, so a
+        connection can be written to while a thread is blocked reading it.
+     */
+    static OutputStream output(Closeable socket) throws IOException
+    {
+        if (socket instanceof Socket) {
+            return ((Socket) socket).getOutputStream();
+        }
+        SocketChannel channel = (SocketChannel) socket;
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int offset, int length) throws IOException
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(b, offset, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
+    private static String fileName(int port)
+    {
+        return "rmi-" + port + ".sock";
+    }
+
+    /** Returns <code>true</code> if a socket file accepts connections. */
+    private static boolean accepts(Path path)
+    {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Returns the socket directory after checking that it is a directory,
+        not a symbolic link, owned by the current user and not writable by
+        group or others.
+
+        @param create Whether to create the directory, with owner-only
+                      permissions, if it does not exist.
+        @throws IOException If the directory does not exist and is not
+                            created, or fails the checks.
+     */
+    private static Path checkDirectory(boolean create) throws IOException
+    {
+        Path directory = UnixSockets.directory;
+        boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (create && !Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                if (posix) {
+                    Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+                } else {
+                    Files.createDirectories(directory);
+                }
+            } catch (FileAlreadyExistsException e) {
+                // Created concurrently, or not a directory; checked below.
+            }
+        }
+        if (!posix) {
+            if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+                throw new IOException("Socket directory " + directory + " is not a directory");
+            }
+            return directory;
+        }
+        PosixFileAttributes attributes = Files.readAttributes(directory, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        String user = System.getProperty("user.name");
+        if (!attributes.isDirectory()) {
+            throw new IOException("Socket directory " + directory + " is not a directory");
+        }
+        if (!attributes.owner().getName().equals(user)) {
+            throw new IOException("Socket directory " + directory + " is not owned by " + user);
+        }
+        if (attributes.permissions().contains(PosixFilePermission.GROUP_WRITE)
+                || attributes.permissions().contains(PosixFilePermission.OTHERS_WRITE)) {
+            throw new IOException("Socket directory " + directory + " is writable by other users");
+        }
+        return directory;
+    }
+
+    private static Path defaultDirectory()
+    {
+        String configured = System.getProperty(DIRECTORY_PROPERTY);
+        if (configured != null) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "rmi-" + System.getProperty("user.name"));
+    }
+}
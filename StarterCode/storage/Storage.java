@@ -3,6 +3,9 @@ package storage;
 import java.io.*;
 
 import common.*;
+import rmi.Idempotent;
+import rmi.Priority;
+import rmi.PriorityClass;
 import rmi.RMIException;
 
 /** Storage server client interface.
@@ -11,6 +14,12 @@ import rmi.RMIException;
     All methods in this interface may raise {@link NullPointerException} if
     passed <code>null</code> for arguments or {@link SecurityException} if the
     security manager on the server does not allow an operation.
+
+    <p>
+    File reads and writes are bulk calls: they are carried on their own
+    connections and served by their own workers, so that they do not delay
+    size queries. Size queries and reads are idempotent, so stubs may safely
+    send them again when they fail to reach the server.
  */
 public interface Storage
 {
@@ -23,6 +32,7 @@ public interface Storage
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public long size(Path file) throws RMIException, FileNotFoundException;
 
     /** Reads a sequence of bytes from a file.
@@ -43,6 +53,8 @@ public interface Storage
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
+    @Priority(PriorityClass.BULK)
     public byte[] read(Path file, long offset, int length)
         throws RMIException, FileNotFoundException, IOException;
 
@@ -58,6 +70,7 @@ public interface Storage
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Priority(PriorityClass.BULK)
     public void write(Path file, long offset, byte[] data)
         throws RMIException, FileNotFoundException, IOException;
 }
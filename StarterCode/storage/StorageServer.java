@@ -20,9 +20,7 @@ public class StorageServer implements Storage, Command
     private Path rootPath;
     private String rootPathStr;
     private int storagePort;
-    private int commandPort;
-    private Skeleton<Command> commandSkeleton;
-    private Skeleton<Storage> storageSkeleton;
+    private Skeleton<Storage> skeleton;
     private StorageServerStatusController controller;
 
 
@@ -44,7 +42,6 @@ public class StorageServer implements Storage, Command
             this.rootPathStr = this.rootPathStr.replace('\\', '/');
         }
         this.storagePort = 8000;
-        this.commandPort = 8001;
         this.controller = new StorageServerStatusController();
     }
 
@@ -79,13 +76,13 @@ public class StorageServer implements Storage, Command
             System.out.println("This storage server is running.");
             return;
         }
-        InetSocketAddress commandSocketAddress = new InetSocketAddress(hostname, this.commandPort);
-        this.commandSkeleton = new Skeleton<>(Command.class, this, commandSocketAddress);
+        // Clients and the naming server reach both interfaces on one port.
         InetSocketAddress storageSocketAddress = new InetSocketAddress(hostname, this.storagePort);
-        this.storageSkeleton = new Skeleton<>(Storage.class, this, storageSocketAddress);
+        this.skeleton = new Skeleton<>(Storage.class, this, storageSocketAddress);
+        this.skeleton.export(Command.class, this);
         Path[] fileList = Path.list(this.root);
-        Command commandStub = Stub.create(Command.class, this.commandSkeleton);
-        Storage storageStub = Stub.create(Storage.class, this.storageSkeleton);
+        Command commandStub = Stub.create(Command.class, this.skeleton);
+        Storage storageStub = Stub.create(Storage.class, this.skeleton);
         Path[] deleteFiles = naming_server.register(storageStub, commandStub, fileList);
         for (Path deleteFile:deleteFiles) {
             File file = new File(this.rootPathStr + deleteFile.toString());
@@ -93,8 +90,7 @@ public class StorageServer implements Storage, Command
         }
         clearEmptyDir(root);
         this.controller.start();
-        this.commandSkeleton.start();
-        this.storageSkeleton.start();
+        this.skeleton.start();
     }
 
     /** Stops the storage server.
@@ -106,8 +102,7 @@ public class StorageServer implements Storage, Command
     {
         System.out.println("Stopping storage server");
         if (this.controller.isRunning()) {
-            this.commandSkeleton.stop();
-            this.storageSkeleton.stop();
+            this.skeleton.stop();
             this.controller.stop();
         } else {
             System.out.println("Storage server already stopped.");
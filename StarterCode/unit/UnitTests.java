@@ -8,6 +8,19 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link common.SampleUnitTest}</li>
+    <li>{@link rmi.FramesTest}</li>
+    <li>{@link rmi.AdmissionTest}</li>
+    <li>{@link rmi.CircuitBreakerTest}</li>
+    <li>{@link rmi.RetryTest}</li>
+    <li>{@link rmi.EncodeFailureTest}</li>
+    <li>{@link rmi.ExecutorStrategyTest}</li>
+    <li>{@link rmi.SelectorTransportTest}</li>
+    <li>{@link rmi.AsyncStubTest}</li>
+    <li>{@link rmi.BatchTest}</li>
+    <li>{@link rmi.DeadlineTest}</li>
+    <li>{@link rmi.UnixSocketTest}</li>
+    <li>{@link rmi.CoalescingTest}</li>
+    <li>{@link rmi.LoadBalancerTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +34,20 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {common.SampleUnitTest.class};
+            new Class[] {common.SampleUnitTest.class,
+                         rmi.FramesTest.class,
+                         rmi.AdmissionTest.class,
+                         rmi.CircuitBreakerTest.class,
+                         rmi.RetryTest.class,
+                         rmi.EncodeFailureTest.class,
+                         rmi.ExecutorStrategyTest.class,
+                         rmi.SelectorTransportTest.class,
+                         rmi.AsyncStubTest.class,
+                         rmi.BatchTest.class,
+                         rmi.DeadlineTest.class,
+                         rmi.UnixSocketTest.class,
+                         rmi.CoalescingTest.class,
+                         rmi.LoadBalancerTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
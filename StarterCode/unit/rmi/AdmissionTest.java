@@ -0,0 +1,159 @@
+package rmi;
+
+import test.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for the class <code>Admission</code>.
+
+    <p>
+    The test checks that calls beyond the running limit are queued, that
+    calls arriving when the queue is full are refused on the calling thread,
+    and that calls are refused rather than lost when the worker executor
+    rejects them, both when they arrive and when they leave the queue.
+ */
+public class AdmissionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking skeleton admission control";
+
+    /** Worker executor used by the first part of the test. */
+    private ExecutorService     workers;
+
+    /** Initializes the test. */
+    @Override
+    protected void initialize()
+    {
+        workers = Executors.newCachedThreadPool();
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("checking that calls over the limit are queued, then refused");
+
+        Admission           admission = new Admission(workers, 1, 1);
+        CountDownLatch      release = new CountDownLatch(1);
+        CountDownLatch      done = new CountDownLatch(2);
+        AtomicInteger       refused = new AtomicInteger();
+
+        Runnable            blocked = () ->
+        {
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e) { }
+            done.countDown();
+        };
+
+        admission.execute(blocked, refused::incrementAndGet);
+        admission.execute(done::countDown, refused::incrementAndGet);
+        admission.execute(done::countDown, refused::incrementAndGet);
+
+        if(refused.get() != 1)
+            throw new TestFailed("call not refused when the queue is full");
+
+        if(admission.running() != 1 || admission.queued() != 1)
+            throw new TestFailed("call over the limit not queued");
+
+        task("checking that the queued call runs once a slot is free");
+
+        release.countDown();
+        await(done);
+
+        if(refused.get() != 1)
+            throw new TestFailed("queued call refused");
+
+        waitIdle(admission);
+
+        task("checking that a call rejected by the executor is refused");
+
+        Executor            rejecting = command ->
+        {
+            throw new RejectedExecutionException("test executor");
+        };
+
+        admission = new Admission(rejecting, 1, 1);
+        refused.set(0);
+
+        admission.execute(() -> { }, refused::incrementAndGet);
+
+        if(refused.get() != 1 || admission.running() != 0)
+            throw new TestFailed("rejected call not refused, or slot not freed");
+
+        task("checking that a queued call rejected by the executor is " +
+             "refused");
+
+        if(!admission.tryEnter())
+            throw new TestFailed("free slot not reserved");
+
+        admission.execute(() -> { }, refused::incrementAndGet);
+
+        if(refused.get() != 1 || admission.queued() != 1)
+            throw new TestFailed("call over the limit not queued");
+
+        admission.exit();
+
+        if(refused.get() != 2)
+            throw new TestFailed("rejected queued call not refused");
+
+        if(admission.running() != 0 || admission.queued() != 0)
+            throw new TestFailed("slot of refused queued call not freed");
+
+        task();
+    }
+
+    /** Stops the worker executor. */
+    @Override
+    protected void clean()
+    {
+        workers.shutdownNow();
+        workers = null;
+    }
+
+    /** Waits for calls to complete.
+
+        @throws TestFailed If the calls do not complete within a few seconds.
+     */
+    private void await(CountDownLatch latch) throws TestFailed
+    {
+        try
+        {
+            if(!latch.await(5, TimeUnit.SECONDS))
+                throw new TestFailed("calls did not complete");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for calls", e);
+        }
+    }
+
+    /** Waits for the worker threads to release their slots.
+
+        @throws TestFailed If the slots are not released within a few seconds.
+     */
+    private void waitIdle(Admission admission) throws TestFailed
+    {
+        long                deadline = System.currentTimeMillis() + 5000;
+
+        while(admission.running() != 0 || admission.queued() != 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("slots not released after calls");
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting for slots", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package rmi;
+
+import test.*;
+import java.io.FileNotFoundException;
+import java.util.concurrent.*;
+
+/** Unit test for asynchronous stubs.
+
+    <p>
+    The test checks that the future returned by an asynchronous stub is
+    completed with the result of the remote method, or exceptionally with the
+    exception it threw, that a call which outlasts the stub's timeout
+    completes with a <code>CallTimeoutException</code>, and that cancelling
+    a future interrupts the call on the server.
+ */
+public class AsyncStubTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking asynchronous stubs";
+
+    /** Server object of the skeleton. */
+    private TestServer          server;
+    /** Skeleton used in the test. */
+    private Skeleton<TestInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        server = new TestServer();
+        skeleton = new Skeleton<>(TestInterface.class, server);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        TestInterface           stub;
+        TestAsyncInterface      async;
+
+        try
+        {
+            stub = Stub.create(TestInterface.class, skeleton);
+            async = Stub.createAsync(TestAsyncInterface.class,
+                                     TestInterface.class, stub);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stubs", t);
+        }
+
+        task("receiving a result from an asynchronous stub");
+
+        if(!"value".equals(get(async.echo("value"))))
+            throw new TestFailed("incorrect result from asynchronous stub");
+
+        task("receiving an exception from an asynchronous stub");
+
+        expect(async.fail(), FileNotFoundException.class);
+
+        task("timing out a call made through an asynchronous stub");
+
+        TestAsyncInterface      timed =
+            Stub.createAsync(TestAsyncInterface.class, TestInterface.class,
+                             Stub.withTimeout(stub, 200));
+
+        expect(timed.sleep(10000), CallTimeoutException.class);
+        awaitInterrupted(1, "timed out call not interrupted on the server");
+
+        task("cancelling a call made through an asynchronous stub");
+
+        CompletableFuture<Void> sleeping = async.sleep(10000);
+
+        try
+        {
+            if(!server.awaitSleeping(2, 5000))
+                throw new TestFailed("call did not start on the server");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for server", e);
+        }
+
+        if(!sleeping.cancel(true))
+            throw new TestFailed("call completed before it was cancelled");
+
+        awaitInterrupted(2, "cancelled call not interrupted on the server");
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Waits for a future and returns its value.
+
+        @throws TestFailed If the future completes exceptionally or does not
+                           complete within a few seconds.
+     */
+    private Object get(CompletableFuture<?> future) throws TestFailed
+    {
+        try
+        {
+            return future.get(5, TimeUnit.SECONDS);
+        }
+        catch(ExecutionException e)
+        {
+            throw new TestFailed("asynchronous call failed", e.getCause());
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("asynchronous call not completed", t);
+        }
+    }
+
+    /** Waits for a future which should complete exceptionally.
+
+        @param type The class of the exception expected.
+        @throws TestFailed If the future completes normally or with another
+                           exception, or does not complete within a few
+                           seconds.
+     */
+    private void expect(CompletableFuture<?> future,
+                        Class<? extends Throwable> type) throws TestFailed
+    {
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+            throw new TestFailed(type.getSimpleName() + " expected but call " +
+                                 "completed normally");
+        }
+        catch(ExecutionException e)
+        {
+            if(!type.isInstance(e.getCause()))
+            {
+                throw new TestFailed(type.getSimpleName() + " expected",
+                                     e.getCause());
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("asynchronous call not completed", t);
+        }
+    }
+
+    /** Waits for calls to <code>sleep</code> to be interrupted on the server.
+
+        @throws TestFailed If the calls are not interrupted within a few
+                           seconds.
+     */
+    private void awaitInterrupted(int count, String message) throws TestFailed
+    {
+        try
+        {
+            if(!server.awaitInterrupted(count, 5000))
+                throw new TestFailed(message);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for server", e);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package rmi;
+
+import test.*;
+import java.io.FileNotFoundException;
+
+/** Unit test for batched calls.
+
+    <p>
+    The test checks that each call of a batch succeeds or fails on its own,
+    with its results returned in the order in which the calls were added, and
+    that a batch refused by an overloaded skeleton fails as a whole with an
+    <code>OverloadException</code>, which the result of every call rethrows.
+ */
+public class BatchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking batched calls";
+
+    /** Time for which the call occupying the skeleton sleeps. */
+    private static final long   SLEEP = 1000;
+
+    /** Server object of the skeleton. */
+    private TestServer          server;
+    /** Skeleton used in the test. */
+    private Skeleton<TestInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        server = new TestServer();
+        skeleton = new Skeleton<>(TestInterface.class, server);
+        skeleton.setAdmissionLimits(1, 0);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        TestInterface           stub;
+
+        try
+        {
+            stub = Stub.create(TestInterface.class, skeleton);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+
+        task("executing a batch of successful and failing calls");
+
+        Batch<TestInterface>    batch = Stub.batch(TestInterface.class, stub);
+        Batch.Result<Object>    first = batch.add(s -> s.echo("first"));
+        Batch.Result<Object>    failed = batch.add(s ->
+        {
+            s.fail();
+            return null;
+        });
+        Batch.Result<Object>    last = batch.add(s -> s.echo("last"));
+
+        if(batch.size() != 3)
+            throw new TestFailed("incorrect number of calls in batch");
+
+        try
+        {
+            batch.execute();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to execute batch", t);
+        }
+
+        if(!"first".equals(result(first)) || !"last".equals(result(last)))
+            throw new TestFailed("incorrect results of batched calls");
+
+        try
+        {
+            failed.get();
+            throw new TestFailed("exception expected but not received from " +
+                                 "batched call");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(FileNotFoundException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from batched call", t);
+        }
+
+        task("executing a batch refused by an overloaded skeleton");
+
+        Sleeper                 sleeper;
+
+        try
+        {
+            // Calls with a timeout go over the network even to a skeleton in
+            // the same JVM.
+            sleeper = new Sleeper(Stub.withTimeout(stub, 10 * SLEEP));
+            sleeper.start();
+
+            if(!server.awaitSleeping(1, 5000))
+                throw new TestFailed("call occupying skeleton did not start");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to occupy skeleton", t);
+        }
+
+        batch = Stub.batch(TestInterface.class, stub);
+        Batch.Result<Object>    refused = batch.add(s -> s.echo("refused"));
+
+        try
+        {
+            batch.execute();
+            throw new TestFailed("batch executed by overloaded skeleton");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(OverloadException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from refused batch", t);
+        }
+
+        try
+        {
+            refused.get();
+            throw new TestFailed("result of refused call returned");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(OverloadException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from refused call", t);
+        }
+
+        try
+        {
+            sleeper.join();
+        }
+        catch(InterruptedException e) { }
+
+        if(sleeper.failure != null)
+        {
+            throw new TestFailed("call occupying skeleton failed",
+                                 sleeper.failure);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Returns the value of a batched call.
+
+        @throws TestFailed If the call failed.
+     */
+    private Object result(Batch.Result<Object> result) throws TestFailed
+    {
+        try
+        {
+            return result.get();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("batched call failed", t);
+        }
+    }
+
+    /** Thread making a call which occupies the skeleton. */
+    private static class Sleeper extends Thread
+    {
+        /** Stub through which the call is made. */
+        private final TestInterface stub;
+        /** Exception with which the call failed, or <code>null</code>. */
+        volatile Throwable          failure;
+
+        Sleeper(TestInterface stub)
+        {
+            this.stub = stub;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                stub.sleep(SLEEP);
+            }
+            catch(Throwable t)
+            {
+                failure = t;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+
+/** Unit test for the class <code>CircuitBreaker</code>.
+
+    <p>
+    The test checks that the breaker opens after the given number of
+    consecutive failures, fails calls at once while it is open, lets a single
+    trial call through once the cool-down has elapsed, and closes or opens
+    again according to the outcome of the trial call.
+ */
+public class CircuitBreakerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking circuit breaker";
+
+    /** Cool-down of the breaker under test, in milliseconds. */
+    private static final long   COOL_DOWN = 200;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        CircuitBreaker  breaker =
+            new CircuitBreaker(new InetSocketAddress("localhost", 7000), 3,
+                               COOL_DOWN);
+
+        task("checking that a success resets the failure count");
+
+        breaker.failed(allow(breaker, false));
+        breaker.failed(allow(breaker, false));
+        breaker.succeeded(allow(breaker, false));
+
+        if(breaker.getState() != CircuitBreaker.State.CLOSED ||
+           breaker.getConsecutiveFailures() != 0)
+        {
+            throw new TestFailed("breaker did not stay closed after a " +
+                                 "success");
+        }
+
+        task("checking that consecutive failures open the breaker");
+
+        for(int failure = 0; failure < 3; ++failure)
+            breaker.failed(allow(breaker, false));
+
+        if(breaker.getState() != CircuitBreaker.State.OPEN)
+            throw new TestFailed("breaker not open after three failures");
+
+        reject(breaker);
+
+        if(breaker.getRejected() != 1)
+            throw new TestFailed("rejected call not counted");
+
+        if(breaker.isAvailable())
+            throw new TestFailed("open breaker reported as available");
+
+        task("checking that a half-open breaker lets one trial call through");
+
+        coolDown(breaker);
+        boolean         trial = allow(breaker, true);
+        reject(breaker);
+
+        task("checking that a failed trial call opens the breaker again");
+
+        breaker.failed(trial);
+
+        if(breaker.getState() != CircuitBreaker.State.OPEN)
+            throw new TestFailed("breaker not open after a failed trial call");
+
+        reject(breaker);
+
+        task("checking that an abandoned trial call allows another");
+
+        coolDown(breaker);
+        breaker.abandoned(allow(breaker, true));
+        trial = allow(breaker, true);
+
+        task("checking that a successful trial call closes the breaker");
+
+        breaker.succeeded(trial);
+
+        if(breaker.getState() != CircuitBreaker.State.CLOSED)
+            throw new TestFailed("breaker not closed after a successful " +
+                                 "trial call");
+
+        allow(breaker, false);
+
+        task();
+    }
+
+    /** Waits for the cool-down of an open breaker to elapse, and checks that
+        it is then reported as half-open.
+
+        @throws TestFailed If the breaker is not reported as half-open.
+     */
+    private void coolDown(CircuitBreaker breaker) throws TestFailed
+    {
+        try
+        {
+            Thread.sleep(COOL_DOWN + 50);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for cool-down", e);
+        }
+
+        if(breaker.getState() != CircuitBreaker.State.HALF_OPEN ||
+           !breaker.isAvailable())
+        {
+            throw new TestFailed("breaker not half-open after cool-down");
+        }
+    }
+
+    /** Asks the breaker to let a call through.
+
+        @param trial Whether the call is expected to be the trial call.
+        @return Whether the call is the trial call.
+        @throws TestFailed If the call is refused, or is not a trial call as
+                           expected.
+     */
+    private boolean allow(CircuitBreaker breaker, boolean trial)
+        throws TestFailed
+    {
+        boolean         allowed;
+
+        try
+        {
+            allowed = breaker.allow();
+        }
+        catch(CircuitOpenException e)
+        {
+            throw new TestFailed("call refused by breaker in state " +
+                                 breaker.getState(), e);
+        }
+
+        if(allowed != trial)
+        {
+            throw new TestFailed(trial ? "call not allowed as trial call"
+                                       : "call unexpectedly a trial call");
+        }
+
+        return allowed;
+    }
+
+    /** Checks that the breaker fails a call at once, whether it is open or
+        half-open with its trial call under way.
+
+        @throws TestFailed If the call is let through.
+     */
+    private void reject(CircuitBreaker breaker) throws TestFailed
+    {
+        try
+        {
+            breaker.allow();
+            throw new TestFailed("call let through by open breaker");
+        }
+        catch(CircuitOpenException e) { }
+    }
+}
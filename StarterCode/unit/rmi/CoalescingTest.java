@@ -0,0 +1,226 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for the coalescing of concurrent identical calls.
+
+    <p>
+    The test checks that concurrent calls with equal arguments to a method
+    annotated <code>@Idempotent(coalesce = true)</code> share a single
+    execution of the method, whose result each of them receives, and are
+    counted by the method's statistics as coalesced; and that a concurrent
+    call with different arguments runs the method on its own.
+ */
+public class CoalescingTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking coalescing of identical calls";
+
+    /** Maximum time to wait for calls to reach the server, in milliseconds. */
+    private static final long   WAIT = 5000;
+
+    /** Server object of the skeleton. */
+    private TestServer          server;
+    /** Skeleton used in the test. */
+    private Skeleton<TestInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        server = new TestServer();
+        skeleton = new Skeleton<>(TestInterface.class, server);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        TestInterface           stub;
+
+        try
+        {
+            // Calls with a timeout go over the network even to a skeleton in
+            // the same JVM.
+            stub = Stub.withTimeout(
+                Stub.create(TestInterface.class, skeleton), 10 * (int)WAIT);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+
+        MethodStats             stats =
+            skeleton.getMethodStats().get("gate(java.lang.Object)");
+
+        if(stats == null)
+            throw new TestFailed("no statistics for gate(java.lang.Object)");
+
+        task("starting a call");
+
+        Caller                  leader = new Caller(stub, "key");
+
+        leader.start();
+        awaitGated(1);
+
+        task("making identical and different calls while it runs");
+
+        Caller[]                followers = {new Caller(stub, "key"),
+                                             new Caller(stub, "key")};
+        Caller                  other = new Caller(stub, "other");
+
+        for(Caller follower : followers)
+            follower.start();
+
+        other.start();
+        awaitGated(2);
+
+        // Give the identical calls time to reach the worker threads and join
+        // the running call before the gate opens.
+        long                    deadline = System.currentTimeMillis() + WAIT;
+
+        try
+        {
+            while(stats.getInFlight() < 4)
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("calls did not reach the skeleton");
+
+                Thread.sleep(10);
+            }
+
+            Thread.sleep(200);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for calls", e);
+        }
+
+        server.openGate();
+
+        task("sharing the running call's result");
+
+        int                     shared = leader.result();
+
+        for(Caller follower : followers)
+        {
+            if(follower.result() != shared)
+            {
+                throw new TestFailed("identical call not answered with the " +
+                                     "running call's result");
+            }
+        }
+
+        if(other.result() == shared)
+            throw new TestFailed("call with different arguments coalesced");
+
+        if(server.getGated() != 2)
+        {
+            throw new TestFailed("method ran " + server.getGated() +
+                                 " times instead of twice");
+        }
+
+        if(stats.getCoalesced() != followers.length)
+        {
+            throw new TestFailed(stats.getCoalesced() + " coalesced calls " +
+                                 "counted instead of " + followers.length);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        server.openGate();
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Waits for calls to <code>gate</code> to start running on the server.
+
+        @throws TestFailed If the calls do not start within a few seconds.
+     */
+    private void awaitGated(int count) throws TestFailed
+    {
+        try
+        {
+            if(!server.awaitGated(count, WAIT))
+                throw new TestFailed("call did not start on the server");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for server", e);
+        }
+    }
+
+    /** Thread making a call to <code>gate</code>. */
+    private static class Caller extends Thread
+    {
+        /** Stub through which the call is made. */
+        private final TestInterface stub;
+        /** Key passed to the call. */
+        private final Object        key;
+        /** Result of the call. */
+        private volatile int        result;
+        /** Exception with which the call failed, or <code>null</code>. */
+        private volatile Throwable  failure;
+
+        Caller(TestInterface stub, Object key)
+        {
+            this.stub = stub;
+            this.key = key;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                result = stub.gate(key);
+            }
+            catch(Throwable t)
+            {
+                failure = t;
+            }
+        }
+
+        /** Waits for the call and returns its result.
+
+            @throws TestFailed If the call fails or does not complete within
+                               a few seconds.
+         */
+        int result() throws TestFailed
+        {
+            try
+            {
+                join(WAIT);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted while waiting for call", e);
+            }
+
+            if(isAlive())
+                throw new TestFailed("call did not complete");
+
+            if(failure != null)
+                throw new TestFailed("call failed", failure);
+
+            return result;
+        }
+    }
+}
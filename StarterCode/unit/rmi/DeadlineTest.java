@@ -0,0 +1,192 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for call deadlines and cancellation.
+
+    <p>
+    The test checks that a synchronous call which outlasts the stub's timeout
+    fails with a <code>CallTimeoutException</code>, that the server method
+    running the call is then interrupted, and that a call still queued on the
+    server when its deadline passes is answered without being run.
+ */
+public class DeadlineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking call deadlines";
+
+    /** Time for which the call occupying the skeleton sleeps. */
+    private static final long   SLEEP = 500;
+    /** Timeout of the calls expected to time out, in milliseconds. */
+    private static final int    TIMEOUT = 200;
+
+    /** Server object of the skeleton. */
+    private TestServer          server;
+    /** Skeleton used in the test. */
+    private Skeleton<TestInterface> skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        server = new TestServer();
+        skeleton = new Skeleton<>(TestInterface.class, server);
+        skeleton.setAdmissionLimits(1, 1);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        TestInterface           stub;
+        TestInterface           timed;
+
+        try
+        {
+            stub = Stub.create(TestInterface.class, skeleton);
+            // Calls with a timeout go over the network even to a skeleton in
+            // the same JVM.
+            timed = Stub.withTimeout(stub, TIMEOUT);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stubs", t);
+        }
+
+        task("timing out a call");
+
+        try
+        {
+            timed.sleep(10 * SLEEP);
+            throw new TestFailed("call returned after its timeout");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(CallTimeoutException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from timed out call", t);
+        }
+
+        task("interrupting the timed out call on the server");
+
+        try
+        {
+            if(!server.awaitInterrupted(1, 5000))
+                throw new TestFailed("timed out call not interrupted");
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for server", e);
+        }
+
+        task("skipping a queued call whose deadline has passed");
+
+        Sleeper                 sleeper;
+
+        try
+        {
+            sleeper = new Sleeper(Stub.withTimeout(stub, 10 * SLEEP));
+            sleeper.start();
+
+            if(!server.awaitSleeping(2, 5000))
+                throw new TestFailed("call occupying skeleton did not start");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to occupy skeleton", t);
+        }
+
+        try
+        {
+            timed.echo("expired");
+            throw new TestFailed("queued call returned after its timeout");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(CallTimeoutException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from queued call", t);
+        }
+
+        try
+        {
+            sleeper.join();
+        }
+        catch(InterruptedException e) { }
+
+        if(sleeper.failure != null)
+        {
+            throw new TestFailed("call occupying skeleton failed",
+                                 sleeper.failure);
+        }
+
+        MethodStats             echo = stats("echo(java.lang.Object)");
+
+        if(echo.getCalls() != 0)
+            throw new TestFailed("queued call run after its deadline");
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Returns the statistics of a method of the skeleton.
+
+        @throws TestFailed If the skeleton has no statistics for the method.
+     */
+    private MethodStats stats(String signature) throws TestFailed
+    {
+        MethodStats             stats = skeleton.getMethodStats().get(signature);
+
+        if(stats == null)
+            throw new TestFailed("no statistics for " + signature);
+
+        return stats;
+    }
+
+    /** Thread making a call which occupies the skeleton. */
+    private static class Sleeper extends Thread
+    {
+        /** Stub through which the call is made. */
+        private final TestInterface stub;
+        /** Exception with which the call failed, or <code>null</code>. */
+        volatile Throwable          failure;
+
+        Sleeper(TestInterface stub)
+        {
+            this.stub = stub;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                stub.sleep(SLEEP);
+            }
+            catch(Throwable t)
+            {
+                failure = t;
+            }
+        }
+    }
+}
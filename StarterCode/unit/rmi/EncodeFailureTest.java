@@ -0,0 +1,178 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for calls whose arguments or results cannot be encoded.
+
+    <p>
+    Calls made through one stub share a connection. The test checks that a
+    call whose argument, or whose result, cannot be encoded fails on its own,
+    while a call in flight on the same connection completes. It does so for
+    both skeleton transports.
+ */
+public class EncodeFailureTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking calls whose arguments or results cannot be encoded";
+
+    /** Time for which the concurrent call sleeps in the server. */
+    private static final long   SLEEP = 1000;
+
+    /** Skeleton used in the test. */
+    private Skeleton<TestInterface> skeleton;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(SkeletonTransport transport : SkeletonTransport.values())
+        {
+            task("checking encoding failures with the " + transport +
+                 " transport");
+
+            test(transport);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton, if it is running. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        skeleton = null;
+    }
+
+    /** Makes calls which cannot be encoded while another call on the same
+        connection is in flight.
+
+        @throws TestFailed If a call which cannot be encoded does not fail, or
+                           the call in flight fails.
+     */
+    private void test(SkeletonTransport transport) throws TestFailed
+    {
+        TestInterface           stub;
+
+        skeleton = new Skeleton<>(TestInterface.class, new TestServer());
+        skeleton.setTransport(transport);
+
+        try
+        {
+            skeleton.start();
+            // Calls with a timeout go over the network even to a skeleton in
+            // the same JVM.
+            stub = Stub.withTimeout(
+                Stub.create(TestInterface.class, skeleton), 10 * SLEEP);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+
+        Sleeper                 sleeper = new Sleeper(stub);
+        sleeper.start();
+
+        try
+        {
+            Thread.sleep(SLEEP / 4);
+        }
+        catch(InterruptedException e) { }
+
+        task("sending an argument which cannot be encoded");
+
+        try
+        {
+            stub.echo(new Object());
+            throw new TestFailed("call with unserializable argument " +
+                                 "succeeded");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(RMIException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from call with " +
+                                 "unserializable argument", t);
+        }
+
+        task("returning a result which cannot be encoded");
+
+        try
+        {
+            stub.unserializable();
+            throw new TestFailed("call with unserializable result succeeded");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(RMIException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from call with " +
+                                 "unserializable result", t);
+        }
+
+        task("checking that the concurrent call completes");
+
+        try
+        {
+            sleeper.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for call", e);
+        }
+
+        if(sleeper.failure != null)
+        {
+            throw new TestFailed("concurrent call failed with its connection",
+                                 sleeper.failure);
+        }
+
+        try
+        {
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("incorrect result after failed calls");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to call skeleton after failed calls",
+                                 t);
+        }
+
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Thread making a call which is in flight while other calls fail. */
+    private static class Sleeper extends Thread
+    {
+        /** Stub through which the call is made. */
+        private final TestInterface stub;
+        /** Exception with which the call failed, or <code>null</code>. */
+        volatile Throwable          failure;
+
+        Sleeper(TestInterface stub)
+        {
+            this.stub = stub;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                stub.sleep(SLEEP);
+            }
+            catch(Throwable t)
+            {
+                failure = t;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package rmi;
+
+import test.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for the executors a skeleton creates with its
+    <code>ExecutorStrategy</code>.
+
+    <p>
+    The test checks that the blocking transport services accepted connections
+    on the executor the strategy provides for them, and, on Java 21 and
+    later, that a skeleton using virtual threads answers calls.
+ */
+public class ExecutorStrategyTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking skeleton executor strategies";
+
+    /** Skeleton used in the test. */
+    private Skeleton<TestInterface> skeleton;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("checking that connections run on the strategy's executor");
+
+        AtomicInteger       connectionThreads = new AtomicInteger();
+        AtomicInteger       workerThreads = new AtomicInteger();
+
+        ExecutorStrategy    strategy = new ExecutorStrategy()
+        {
+            @Override
+            public ExecutorService create(String name)
+            {
+                return Executors.newCachedThreadPool(task ->
+                {
+                    workerThreads.incrementAndGet();
+                    return new Thread(task);
+                });
+            }
+
+            @Override
+            public ExecutorService createConnectionExecutor(String name)
+            {
+                return Executors.newCachedThreadPool(task ->
+                {
+                    connectionThreads.incrementAndGet();
+                    return new Thread(task);
+                });
+            }
+        };
+
+        call(strategy);
+
+        if(connectionThreads.get() == 0)
+            throw new TestFailed("connection not run on strategy's executor");
+
+        if(workerThreads.get() == 0)
+            throw new TestFailed("call not run on strategy's executor");
+
+        if(ExecutorStrategy.virtualThreadsSupported())
+        {
+            task("checking a skeleton running on virtual threads");
+
+            call(ExecutorStrategy.virtualThreads());
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton, if it is running. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        skeleton = null;
+    }
+
+    /** Starts a skeleton with the given strategy and makes a call to it over
+        the network. The blocking transport is used, since it is the one which
+        services connections on threads of their own.
+
+        @throws TestFailed If the call fails.
+     */
+    private void call(ExecutorStrategy strategy) throws TestFailed
+    {
+        skeleton = new Skeleton<>(TestInterface.class, new TestServer());
+        skeleton.setTransport(SkeletonTransport.BLOCKING);
+        skeleton.setExecutorStrategy(strategy);
+
+        try
+        {
+            skeleton.start();
+            // Calls with a timeout go over the network even to a skeleton in
+            // the same JVM.
+            TestInterface   stub = Stub.withTimeout(
+                Stub.create(TestInterface.class, skeleton), 10000);
+
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("incorrect result from skeleton");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to call skeleton", t);
+        }
+        finally
+        {
+            skeleton.stop();
+            skeleton = null;
+        }
+    }
+}
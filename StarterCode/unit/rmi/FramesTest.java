@@ -0,0 +1,222 @@
+package rmi;
+
+import test.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/** Unit test for the frame limits of the class <code>Frames</code>.
+
+    <p>
+    The test checks that frame headers with negative lengths or a total
+    length over the maximum frame length are refused, that a frame longer
+    than the maximum is not read, that an envelope whose attachments do not
+    add up to the attachment length in its header is refused, and that a
+    compressed array claiming to expand past the maximum frame length is
+    refused before any memory is allocated for it.
+ */
+public class FramesTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking frame length limits";
+
+    /** Maximum frame length used during the test. */
+    private static final int    MAX_FRAME_LENGTH = 64 * 1024;
+
+    /** Maximum frame length in effect before the test. */
+    private int                 previousMaxFrameLength;
+
+    /** Lowers the maximum frame length for the test. */
+    @Override
+    protected void initialize()
+    {
+        previousMaxFrameLength = Frames.getMaxFrameLength();
+        Frames.setMaxFrameLength(MAX_FRAME_LENGTH);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("checking frame headers against the maximum frame length");
+
+        int             longest = MAX_FRAME_LENGTH - Frames.HEADER_LENGTH;
+
+        accept(longest / 2, longest - longest / 2);
+        refuse(longest, 1);
+        refuse(-1, 0);
+        refuse(0, -1);
+        refuse(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        task("reading a frame longer than the maximum frame length");
+
+        try
+        {
+            Frames.read(new Frames.Input(new ByteArrayInputStream(
+                            frame(new byte[MAX_FRAME_LENGTH]))),
+                        BinaryCodec.INSTANCE);
+            throw new TestFailed("frame over the maximum length read");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(IOException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception reading long frame", t);
+        }
+
+        task("checking attachments against the frame header");
+
+        byte[]          data = new byte[Frames.getAttachmentThreshold()];
+        byte[]          envelope;
+        int             attachmentLength;
+
+        try
+        {
+            ByteBuffer[]    buffers =
+                Frames.encode(BinaryCodec.INSTANCE, message(data), false);
+
+            if(buffers.length != 2)
+                throw new TestFailed("large array not sent as an attachment");
+
+            ByteBuffer      header = buffers[0];
+            attachmentLength = header.getInt(4);
+            envelope = new byte[header.getInt(0)];
+            System.arraycopy(header.array(), Frames.HEADER_LENGTH, envelope,
+                             0, envelope.length);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to encode message", t);
+        }
+
+        if(attachmentLength != data.length)
+            throw new TestFailed("incorrect attachment length in header");
+
+        decode(envelope, attachmentLength, true);
+        decode(envelope, attachmentLength - 1, false);
+        decode(envelope, attachmentLength + 1, false);
+        decode(envelope, 0, false);
+
+        task("decompressing an array longer than the maximum frame length");
+
+        try
+        {
+            Compression.decompress(new DataInputStream(
+                                       new ByteArrayInputStream(new byte[16])),
+                                   16, MAX_FRAME_LENGTH + 1);
+            throw new TestFailed("compressed array over the maximum length " +
+                                 "accepted");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(IOException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception decompressing array",
+                                 t);
+        }
+
+        task();
+    }
+
+    /** Restores the maximum frame length. */
+    @Override
+    protected void clean()
+    {
+        Frames.setMaxFrameLength(previousMaxFrameLength);
+    }
+
+    /** Returns a message carrying an array. */
+    private MessagePackage<MethodPack> message(byte[] data)
+    {
+        return new MessagePackage<>(MessageType.METHOD_INVOKE,
+                                    new MethodPack(1, new Object[] {data}));
+    }
+
+    /** Encodes a message carrying an array as a complete frame. */
+    private byte[] frame(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+        DataOutputStream        output = new DataOutputStream(bytes);
+
+        Frames.write(output, BinaryCodec.INSTANCE, message(data), false);
+        output.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /** Checks that a frame header is accepted.
+
+        @throws TestFailed If the header is refused.
+     */
+    private void accept(int envelopeLength, int attachmentLength)
+        throws TestFailed
+    {
+        try
+        {
+            Frames.checkHeader(envelopeLength, attachmentLength);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("frame header refused: " + envelopeLength +
+                                 " + " + attachmentLength, e);
+        }
+    }
+
+    /** Checks that a frame header is refused.
+
+        @throws TestFailed If the header is accepted.
+     */
+    private void refuse(int envelopeLength, int attachmentLength)
+        throws TestFailed
+    {
+        try
+        {
+            Frames.checkHeader(envelopeLength, attachmentLength);
+            throw new TestFailed("frame header accepted: " + envelopeLength +
+                                 " + " + attachmentLength);
+        }
+        catch(IOException e) { }
+    }
+
+    /** Decodes an envelope with the given attachment length in its header.
+
+        @param valid Whether the attachment length is the one with which the
+                     envelope was encoded.
+        @throws TestFailed If a valid envelope is refused, or an invalid one is
+                           accepted.
+     */
+    private void decode(byte[] envelope, int attachmentLength, boolean valid)
+        throws TestFailed
+    {
+        ArrayList<byte[]>   attachments = new ArrayList<>();
+
+        try
+        {
+            Frames.decode(BinaryCodec.INSTANCE, envelope, attachmentLength,
+                          attachments);
+        }
+        catch(IOException e)
+        {
+            if(valid)
+                throw new TestFailed("valid envelope refused", e);
+
+            return;
+        }
+
+        if(!valid)
+        {
+            throw new TestFailed("envelope accepted with attachment length " +
+                                 attachmentLength);
+        }
+
+        if(attachments.size() != 1 ||
+           attachments.get(0).length != attachmentLength)
+        {
+            throw new TestFailed("attachment not expected after envelope");
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package rmi;
+
+import test.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/** Unit test for stubs with several endpoints.
+
+    <p>
+    The test checks that a stub created with several endpoints spreads its
+    calls across them, both when it calls skeletons in the same JVM directly
+    and when it calls them over the network, and that it counts calls it
+    runs directly as outstanding to their endpoint while they run. It then
+    stops one of the skeletons and checks that, once that endpoint's circuit
+    breaker has opened, every call goes to the other. Finally, it checks that
+    stubs with several endpoints are equal when they implement the same
+    interface and have the same set of endpoints, in any order.
+ */
+public class LoadBalancerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking stubs with several endpoints";
+
+    /** Number of calls made through a stub in each phase of the test. */
+    private static final int    CALLS = 40;
+    /** Time for which the call counted as outstanding sleeps. */
+    private static final long   SLEEP = 500;
+
+    /** Server objects of the skeletons. */
+    private TestServer[]        servers;
+    /** Skeletons used in the test. */
+    private ArrayList<Skeleton<TestInterface>> skeletons;
+    /** Loopback addresses of the skeletons. */
+    private InetSocketAddress[] addresses;
+
+    /** Starts the skeletons. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        servers = new TestServer[] {new TestServer(), new TestServer()};
+        skeletons = new ArrayList<>();
+        addresses = new InetSocketAddress[servers.length];
+
+        for(int index = 0; index < servers.length; ++index)
+        {
+            Skeleton<TestInterface> skeleton =
+                new Skeleton<>(TestInterface.class, servers[index]);
+
+            skeletons.add(skeleton);
+
+            try
+            {
+                skeleton.start();
+            }
+            catch(Throwable t)
+            {
+                throw new TestFailed("unable to start skeleton", t);
+            }
+
+            addresses[index] =
+                new InetSocketAddress("127.0.0.1",
+                                      skeleton.getAddress().getPort());
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        TestInterface           stub;
+        TestInterface           timed;
+
+        try
+        {
+            stub = Stub.create(TestInterface.class, Arrays.asList(addresses));
+            // Calls with a timeout go over the network even to a skeleton in
+            // the same JVM.
+            timed = Stub.withTimeout(stub, 5000);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stubs", t);
+        }
+
+        task("spreading calls to skeletons in this JVM");
+
+        spread(stub);
+
+        task("spreading calls over the network");
+
+        spread(timed);
+
+        task("counting calls run in this JVM as outstanding");
+
+        outstanding(stub);
+
+        task("ejecting an endpoint whose circuit breaker is open");
+
+        skeletons.get(1).stop();
+
+        CircuitBreaker          breaker = null;
+
+        for(int call = 0; call < CALLS; ++call)
+        {
+            try
+            {
+                timed.echo("value");
+            }
+            catch(RMIException e) { }
+
+            breaker = ConnectionPool.getDefault()
+                                    .getCircuitBreaker(addresses[1]);
+
+            if(breaker != null && !breaker.isAvailable())
+                break;
+        }
+
+        if(breaker == null || breaker.isAvailable())
+            throw new TestFailed("circuit breaker of stopped skeleton closed");
+
+        long                    before = calls(0);
+
+        for(int call = 0; call < CALLS; ++call)
+        {
+            try
+            {
+                timed.echo("value");
+            }
+            catch(Throwable t)
+            {
+                throw new TestFailed("call sent to ejected endpoint", t);
+            }
+        }
+
+        if(calls(0) - before != CALLS)
+            throw new TestFailed("calls not all sent to remaining endpoint");
+
+        task("comparing stubs with several endpoints");
+
+        TestInterface           reversed = Stub.create(TestInterface.class,
+            Arrays.asList(addresses[1], addresses[0], addresses[1]));
+        TestInterface           single = Stub.create(TestInterface.class,
+            Collections.singletonList(addresses[0]));
+        TestInterface           plain =
+            Stub.create(TestInterface.class, addresses[0]);
+
+        if(!stub.equals(reversed) || stub.hashCode() != reversed.hashCode())
+        {
+            throw new TestFailed("stubs with the same endpoints in another " +
+                                 "order are not equal");
+        }
+
+        if(stub.equals(single) || single.equals(stub))
+            throw new TestFailed("stubs with different endpoints are equal");
+
+        if(!single.equals(plain) || !plain.equals(single) ||
+           single.hashCode() != plain.hashCode())
+        {
+            throw new TestFailed("stub with a single endpoint not equal to " +
+                                 "stub created for that endpoint");
+        }
+
+        task();
+    }
+
+    /** Stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        for(Skeleton<TestInterface> skeleton : skeletons)
+            skeleton.stop();
+
+        skeletons = null;
+    }
+
+    /** Returns the number of calls to <code>echo</code> run by a
+        skeleton. */
+    private long calls(int index)
+    {
+        return skeletons.get(index).getMethodStats()
+                                   .get("echo(java.lang.Object)").getCalls();
+    }
+
+    /** Makes calls through a stub and checks that every skeleton runs some
+        of them.
+
+        @throws TestFailed If a call fails or a skeleton runs none of them.
+     */
+    private void spread(TestInterface stub) throws TestFailed
+    {
+        long[]                  before = new long[servers.length];
+
+        for(int index = 0; index < servers.length; ++index)
+            before[index] = calls(index);
+
+        for(int call = 0; call < CALLS; ++call)
+        {
+            try
+            {
+                if(!"value".equals(stub.echo("value")))
+                    throw new TestFailed("incorrect result from skeleton");
+            }
+            catch(TestFailed e) { throw e; }
+            catch(Throwable t)
+            {
+                throw new TestFailed("unexpected exception from skeleton", t);
+            }
+        }
+
+        for(int index = 0; index < servers.length; ++index)
+        {
+            if(calls(index) == before[index])
+                throw new TestFailed("skeleton " + index + " received no calls");
+        }
+    }
+
+    /** Makes a call through a stub which runs it in this JVM, and checks
+        that it is counted as outstanding to its endpoint while it runs.
+
+        @throws TestFailed If the call is not counted, or is still counted
+                           once it has returned.
+     */
+    private void outstanding(TestInterface stub) throws TestFailed
+    {
+        Thread                  sleeper = new Thread(() ->
+        {
+            try
+            {
+                stub.sleep(SLEEP);
+            }
+            catch(Throwable t) { }
+        });
+
+        sleeper.start();
+
+        try
+        {
+            long                deadline = System.currentTimeMillis() + SLEEP;
+            boolean             started = false;
+
+            while(!started && System.currentTimeMillis() < deadline)
+            {
+                for(TestServer server : servers)
+                    started = started || server.awaitSleeping(1, 10);
+            }
+
+            if(!started)
+                throw new TestFailed("call did not start on a skeleton");
+
+            if(outstanding() != 1)
+                throw new TestFailed("running call not counted as outstanding");
+
+            sleeper.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for call", e);
+        }
+
+        if(outstanding() != 0)
+            throw new TestFailed("returned call counted as outstanding");
+    }
+
+    /** Returns the number of calls outstanding to the skeletons. */
+    private int outstanding()
+    {
+        int                     count = 0;
+
+        for(InetSocketAddress address : addresses)
+            count += LoadBalancer.outstanding(address);
+
+        return count;
+    }
+}
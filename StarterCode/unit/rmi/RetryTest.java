@@ -0,0 +1,395 @@
+package rmi;
+
+import test.*;
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit test for the retry of calls to non-idempotent methods.
+
+    <p>
+    The test runs a scripted skeleton, which answers the first request on a
+    connection and then closes the connection after reading the second, as a
+    skeleton which was restarted while the connection sat in the pool would.
+    The connection pool must not send the second request again if its method
+    is not idempotent, since the skeleton may have run it, but must retry it
+    on a new connection if it is. The test also checks that the skeleton runs
+    a non-idempotent call once when a retry of it arrives with the same
+    request token, and that stubs retry calls which fail to connect but not
+    calls whose request cannot be encoded.
+ */
+public class RetryTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking retry of calls to non-idempotent methods";
+
+    /** Socket on which the scripted skeleton listens. */
+    private ServerSocket        server;
+    /** Thread running the scripted skeleton. */
+    private Thread              skeleton;
+    /** Number of requests read by the scripted skeleton. */
+    private final AtomicInteger requests = new AtomicInteger();
+    /** Number of connections accepted by the scripted skeleton. */
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /** Opens the socket of the scripted skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            server.setSoTimeout(1000);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to open server socket", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("checking that a non-idempotent call is not sent again");
+
+        script(false);
+
+        task("checking that an idempotent call is sent again");
+
+        script(true);
+
+        task("checking that a retried call is run once by the skeleton");
+
+        RequestTokens   tokens = new RequestTokens();
+        MethodStats     stats = new MethodStats("method()");
+        AtomicInteger   runs = new AtomicInteger();
+        long            token = RequestTokens.next();
+
+        for(int attempt = 0; attempt < 2; ++attempt)
+        {
+            MessagePackage<?>   response = tokens.run(token, stats, () ->
+            {
+                runs.incrementAndGet();
+                return new MessagePackage<>(MessageType.INVOKE_SUCCESS,
+                                            "result");
+            });
+
+            if(!"result".equals(response.getData()))
+                throw new TestFailed("retried call not given first response");
+        }
+
+        if(runs.get() != 1)
+            throw new TestFailed("retried call run " + runs.get() + " times");
+
+        task("checking that a call which cannot be encoded is not retried");
+
+        unencodable();
+
+        task("checking that a call which cannot connect is retried");
+
+        unreachable();
+
+        task();
+    }
+
+    /** Closes the socket of the scripted skeleton. */
+    @Override
+    protected void clean()
+    {
+        try
+        {
+            server.close();
+        }
+        catch(IOException e) { }
+
+        if(skeleton != null)
+            skeleton.interrupt();
+    }
+
+    /** Makes two calls through a new connection pool to the scripted
+        skeleton, the second of which fails after it has been sent.
+
+        @param idempotent Whether the calls are to an idempotent method.
+        @throws TestFailed If the second call is retried for a non-idempotent
+                           method, or is not retried for an idempotent one.
+     */
+    private void script(boolean idempotent) throws TestFailed
+    {
+        ConnectionPool      pool = new ConnectionPool();
+        InetSocketAddress   address =
+            (InetSocketAddress)server.getLocalSocketAddress();
+
+        requests.set(0);
+        connections.set(0);
+        skeleton = new Thread(() -> serve(idempotent));
+        skeleton.start();
+
+        try
+        {
+            if(!"first".equals(call(pool, address, idempotent)))
+                throw new TestFailed("incorrect result of first call");
+
+            try
+            {
+                Object      result = call(pool, address, idempotent);
+
+                if(!idempotent)
+                    throw new TestFailed("non-idempotent call sent again");
+
+                if(!"second".equals(result))
+                    throw new TestFailed("incorrect result of retried call");
+            }
+            catch(ExecutionException e)
+            {
+                if(idempotent)
+                    throw new TestFailed("idempotent call not retried", e);
+
+                if(!(e.getCause() instanceof RMIException))
+                {
+                    throw new TestFailed("unexpected failure of call",
+                                         e.getCause());
+                }
+            }
+
+            skeleton.join(5000);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception making calls", t);
+        }
+        finally
+        {
+            pool.closeIdle();
+        }
+
+        int                 expected = idempotent ? 3 : 2;
+
+        if(requests.get() != expected)
+        {
+            throw new TestFailed("skeleton read " + requests.get() +
+                                 " requests instead of " + expected);
+        }
+
+        if(connections.get() != expected - 1)
+        {
+            throw new TestFailed("skeleton accepted " + connections.get() +
+                                 " connections instead of " + (expected - 1));
+        }
+    }
+
+    /** Makes a call whose argument cannot be serialized through a stub which
+        retries, and checks that it fails at once instead of being retried.
+
+        @throws TestFailed If the call is retried, or does not fail.
+     */
+    private void unencodable() throws TestFailed
+    {
+        Skeleton<TestInterface> target =
+            new Skeleton<>(TestInterface.class, new TestServer());
+
+        try
+        {
+            target.start();
+
+            // The delays of four retries add up to a second or more in all
+            // but a few cases in a thousand.
+            TestInterface       stub = Stub.withRetryPolicy(
+                Stub.withTimeout(Stub.create(TestInterface.class, target),
+                                 10000),
+                new RetryPolicy(5, 2000, 2000));
+            long                start = System.currentTimeMillis();
+
+            try
+            {
+                stub.echo(new Object());
+                throw new TestFailed("unserializable argument transmitted");
+            }
+            catch(RMIException e) { }
+
+            if(System.currentTimeMillis() - start >= 1000)
+                throw new TestFailed("call which cannot be encoded retried");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception making call", t);
+        }
+        finally
+        {
+            target.stop();
+        }
+    }
+
+    /** Makes a call through a stub which retries to a port on which a
+        skeleton is started only after the call has been made, and checks
+        that the call is retried until it reaches the skeleton.
+
+        @throws TestFailed If the call is not retried.
+     */
+    private void unreachable() throws TestFailed
+    {
+        InetSocketAddress       address;
+
+        try(ServerSocket free = new ServerSocket(0))
+        {
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                            free.getLocalPort());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to find a free port", e);
+        }
+
+        Skeleton<TestInterface> target =
+            new Skeleton<>(TestInterface.class, new TestServer(), address);
+        Thread                  starter = new Thread(() ->
+        {
+            try
+            {
+                Thread.sleep(300);
+                target.start();
+            }
+            catch(Throwable t) { }
+        });
+
+        ConnectionPool          pool = ConnectionPool.getDefault();
+        int                     threshold = pool.getBreakerThreshold();
+
+        try
+        {
+            // The circuit breaker would otherwise fail the call once enough
+            // attempts have failed to connect.
+            pool.setBreakerThreshold(0);
+
+            TestInterface       stub = Stub.withRetryPolicy(
+                Stub.withTimeout(Stub.create(TestInterface.class, address),
+                                 10000),
+                new RetryPolicy(1000, 20, 20));
+
+            starter.start();
+
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("incorrect result of retried call");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("call which cannot connect not retried", t);
+        }
+        finally
+        {
+            pool.setBreakerThreshold(threshold);
+
+            try
+            {
+                starter.join();
+            }
+            catch(InterruptedException e) { }
+
+            target.stop();
+        }
+    }
+
+    /** Makes a call through a connection pool and returns its result. */
+    private Object call(ConnectionPool pool, InetSocketAddress address,
+                        boolean idempotent) throws Exception
+    {
+        MessagePackage<MethodPack>  request =
+            new MessagePackage<>(MessageType.METHOD_INVOKE,
+                                 new MethodPack(1, new Object[0]));
+
+        return pool.call(address, PriorityClass.CONTROL, request, idempotent)
+                   .get(5, TimeUnit.SECONDS).getData();
+    }
+
+    /** Runs the scripted skeleton.
+
+        <p>
+        The first connection is answered once and closed after its second
+        request is read. If the calls are idempotent, the request retried on a
+        second connection is answered. The skeleton then waits briefly for
+        any further connection, which should not come.
+     */
+    private void serve(boolean idempotent)
+    {
+        try
+        {
+            try(Socket socket = server.accept())
+            {
+                connections.incrementAndGet();
+                Connected   connected = new Connected(socket);
+
+                connected.answer("first");
+                connected.read();
+            }
+
+            if(idempotent)
+            {
+                try(Socket socket = server.accept())
+                {
+                    connections.incrementAndGet();
+                    new Connected(socket).answer("second");
+                }
+            }
+
+            server.accept().close();
+            connections.incrementAndGet();
+        }
+        catch(SocketTimeoutException e) { }
+        catch(Throwable t)
+        {
+            failure(new TestFailed("exception in scripted skeleton", t));
+        }
+    }
+
+    /** Connection accepted by the scripted skeleton. */
+    private class Connected
+    {
+        /** Stream from which requests are read. */
+        private final Frames.Input      input;
+        /** Stream to which responses are written. */
+        private final DataOutputStream  output;
+        /** Codec selected by the connection's handshake. */
+        private final Codec             codec;
+
+        /** Reads the handshake of an accepted connection. */
+        Connected(Socket socket) throws IOException
+        {
+            input = new Frames.Input(
+                new BufferedInputStream(socket.getInputStream()));
+            output = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            codec = Codecs.readHandshake(input).codec;
+        }
+
+        /** Reads a request. */
+        MessagePackage<?> read() throws IOException
+        {
+            MessagePackage<?>   request = Frames.read(input, codec);
+
+            requests.incrementAndGet();
+
+            return request;
+        }
+
+        /** Reads a request and answers it. */
+        void answer(String result) throws IOException
+        {
+            MessagePackage<?>   request = read();
+            MessagePackage<String>  response =
+                new MessagePackage<>(MessageType.INVOKE_SUCCESS, result);
+
+            response.setId(request.getId());
+            Frames.write(output, codec, response, false);
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package rmi;
+
+import test.*;
+import java.io.FileNotFoundException;
+
+/** Unit test for skeletons using the selector transport.
+
+    <p>
+    The test starts a skeleton with <code>SkeletonTransport.SELECTOR</code>
+    and checks that it answers calls over the network, reports exceptions
+    thrown by the server object to the stub, refuses calls once stopped,
+    calls <code>stopped</code> when it stops, and can be restarted on the same
+    address. The conformance tests can be run with the selector transport as
+    a whole with <code>conformance.SelectorConformanceTests</code>.
+ */
+public class SelectorTransportTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking selector skeleton transport";
+
+    /** Skeleton used in the test. */
+    private TestSkeleton        skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new TestSkeleton();
+        skeleton.setTransport(SkeletonTransport.SELECTOR);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        TestInterface           stub;
+
+        try
+        {
+            // Calls with a timeout go over the network even to a skeleton in
+            // the same JVM.
+            stub = Stub.withTimeout(
+                Stub.create(TestInterface.class, skeleton), 10000);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+
+        task("calling a skeleton using the selector transport");
+
+        call(stub);
+
+        task("stopping the skeleton");
+
+        skeleton.stop();
+
+        if(!skeleton.stopped || skeleton.cause != null)
+            throw new TestFailed("stopped not called after normal stop");
+
+        try
+        {
+            stub.echo("value");
+            throw new TestFailed("call to stopped skeleton succeeded");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(RMIException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from call to stopped " +
+                                 "skeleton", t);
+        }
+
+        task("restarting the skeleton");
+
+        skeleton.stopped = false;
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to restart skeleton", t);
+        }
+
+        call(stub);
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /** Checks that a stub receives results and exceptions from the
+        skeleton.
+
+        @throws TestFailed If a call does not have the expected outcome.
+     */
+    private void call(TestInterface stub) throws TestFailed
+    {
+        try
+        {
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("incorrect result from skeleton");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from skeleton", t);
+        }
+
+        try
+        {
+            stub.fail();
+            throw new TestFailed("exception expected but not received from " +
+                                 "skeleton");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(FileNotFoundException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from skeleton", t);
+        }
+    }
+
+    /** Skeleton recording its stops, and failing the test upon errors. */
+    private class TestSkeleton extends Skeleton<TestInterface>
+    {
+        /** Whether <code>stopped</code> has been called. */
+        volatile boolean    stopped;
+        /** The cause given to <code>stopped</code>. */
+        volatile Throwable  cause;
+
+        TestSkeleton()
+        {
+            super(TestInterface.class, new TestServer());
+        }
+
+        @Override
+        protected void stopped(Throwable cause)
+        {
+            this.cause = cause;
+            stopped = true;
+        }
+
+        /** Fails the test upon an error in the listening thread. */
+        @Override
+        protected boolean listen_error(Exception e)
+        {
+            failure(new TestFailed("exception in listening thread", e));
+
+            return false;
+        }
+
+        /** Fails the test upon an error in a service thread. */
+        @Override
+        protected void service_error(RMIException e)
+        {
+            failure(new TestFailed("exception in service thread", e));
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package rmi;
+
+import java.util.concurrent.CompletableFuture;
+
+/** Asynchronous companion of <code>TestInterface</code>.
+
+    <p>
+    Each method corresponds to the method of <code>TestInterface</code> with
+    the same name and parameter types.
+ */
+public interface TestAsyncInterface
+{
+    /** Returns its argument. */
+    public CompletableFuture<Object> echo(Object value);
+
+    /** Throws a <code>FileNotFoundException</code>. */
+    public CompletableFuture<Void> fail();
+
+    /** Sleeps for the given time, in milliseconds. */
+    public CompletableFuture<Void> sleep(long millis);
+}
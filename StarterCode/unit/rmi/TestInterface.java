@@ -0,0 +1,64 @@
+package rmi;
+
+import java.io.FileNotFoundException;
+
+/** Remote interface served by the skeletons of the RMI unit tests.
+
+    <p>
+    This interface is used in multiple tests.
+ */
+public interface TestInterface
+{
+    /** Returns its argument.
+
+        @param value The value to return.
+        @return <code>value</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error, or if the argument or result cannot be
+                             transmitted.
+     */
+    public Object echo(Object value) throws RMIException;
+
+    /** Throws an exception.
+
+        @throws FileNotFoundException Always.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void fail() throws RMIException, FileNotFoundException;
+
+    /** Returns an object which cannot be serialized.
+
+        @return A list holding a new <code>Object</code>. The list itself is
+                serializable, but its element is not.
+        @throws RMIException If the call cannot be completed due to a network
+                             error, or if the result cannot be transmitted.
+     */
+    public Object unserializable() throws RMIException;
+
+    /** Sleeps for the given time.
+
+        @param millis Time to sleep, in milliseconds.
+        @throws InterruptedException If the server thread is interrupted while
+                                     sleeping.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void sleep(long millis) throws RMIException, InterruptedException;
+
+    /** Waits until the server opens its gate.
+
+        <p>
+        Concurrent calls with equal keys are coalesced.
+
+        @param key Key identifying the call.
+        @return The number of calls to this method which had started running
+                on the server when this one started, including itself.
+        @throws InterruptedException If the server thread is interrupted while
+                                     waiting.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    @Idempotent(coalesce = true)
+    public int gate(Object key) throws RMIException, InterruptedException;
+}
@@ -0,0 +1,176 @@
+package rmi;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+
+/** Simple implementation of <code>TestInterface</code>.
+
+    <p>
+    This class is used in multiple tests.
+ */
+class TestServer implements TestInterface
+{
+    /** Number of calls to <code>sleep</code> which have started. */
+    private int         sleeping = 0;
+    /** Number of calls to <code>sleep</code> which have been interrupted. */
+    private int         interrupted = 0;
+    /** Number of calls to <code>gate</code> which have started running. */
+    private int         gated = 0;
+    /** Whether calls to <code>gate</code> may return. */
+    private boolean     open = false;
+
+    // Methods documented in TestInterface.java.
+    @Override
+    public Object echo(Object value)
+    {
+        return value;
+    }
+
+    @Override
+    public void fail() throws FileNotFoundException
+    {
+        throw new FileNotFoundException("failure");
+    }
+
+    @Override
+    public Object unserializable()
+    {
+        ArrayList<Object>   list = new ArrayList<>();
+        list.add(new Object());
+
+        return list;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException
+    {
+        synchronized(this)
+        {
+            ++sleeping;
+            notifyAll();
+        }
+
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e)
+        {
+            synchronized(this)
+            {
+                ++interrupted;
+                notifyAll();
+            }
+
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized int gate(Object key) throws InterruptedException
+    {
+        int         started = ++gated;
+
+        notifyAll();
+
+        while(!open)
+            wait();
+
+        return started;
+    }
+
+    /** Waits for calls to <code>sleep</code> to start.
+
+        @param count Number of calls to wait for, counted since the server was
+                     created.
+        @param timeout Maximum time to wait, in milliseconds.
+        @return <code>true</code> if as many calls have started,
+                <code>false</code> if the timeout elapsed first.
+        @throws InterruptedException If the waiting thread is interrupted.
+     */
+    synchronized boolean awaitSleeping(int count, long timeout)
+        throws InterruptedException
+    {
+        long        deadline = System.currentTimeMillis() + timeout;
+
+        while(sleeping < count)
+        {
+            long    remaining = deadline - System.currentTimeMillis();
+
+            if(remaining <= 0)
+                return false;
+
+            wait(remaining);
+        }
+
+        return true;
+    }
+
+    /** Waits for calls to <code>sleep</code> to be interrupted.
+
+        @param count Number of interrupted calls to wait for, counted since
+                     the server was created.
+        @param timeout Maximum time to wait, in milliseconds.
+        @return <code>true</code> if as many calls have been interrupted,
+                <code>false</code> if the timeout elapsed first.
+        @throws InterruptedException If the waiting thread is interrupted.
+     */
+    synchronized boolean awaitInterrupted(int count, long timeout)
+        throws InterruptedException
+    {
+        long        deadline = System.currentTimeMillis() + timeout;
+
+        while(interrupted < count)
+        {
+            long    remaining = deadline - System.currentTimeMillis();
+
+            if(remaining <= 0)
+                return false;
+
+            wait(remaining);
+        }
+
+        return true;
+    }
+
+    /** Waits for calls to <code>gate</code> to start running.
+
+        @param count Number of calls to wait for, counted since the server was
+                     created.
+        @param timeout Maximum time to wait, in milliseconds.
+        @return <code>true</code> if as many calls have started,
+                <code>false</code> if the timeout elapsed first.
+        @throws InterruptedException If the waiting thread is interrupted.
+     */
+    synchronized boolean awaitGated(int count, long timeout)
+        throws InterruptedException
+    {
+        long        deadline = System.currentTimeMillis() + timeout;
+
+        while(gated < count)
+        {
+            long    remaining = deadline - System.currentTimeMillis();
+
+            if(remaining <= 0)
+                return false;
+
+            wait(remaining);
+        }
+
+        return true;
+    }
+
+    /** Opens the gate, letting calls to <code>gate</code> return. */
+    synchronized void openGate()
+    {
+        open = true;
+        notifyAll();
+    }
+
+    /** Returns the number of calls to <code>gate</code> which have started
+        running. */
+    synchronized int getGated()
+    {
+        return gated;
+    }
+}
@@ -0,0 +1,280 @@
+package rmi;
+
+import test.*;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/** Unit test for the Unix domain socket transport.
+
+    <p>
+    The test checks that a skeleton creates its socket directory with
+    owner-only permissions and is reachable through its socket, that a socket
+    file which still accepts connections is not taken over while a stale one
+    is replaced, that stubs fall back to TCP when a socket file cannot be
+    connected to, and that neither skeletons nor stubs use a socket directory
+    writable by other users.
+ */
+public class UnixSocketTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking Unix domain sockets";
+
+    /** Socket directory in effect before the test. */
+    private Path                previous;
+    /** Temporary directory holding the socket directories of the test. */
+    private Path                base;
+    /** Skeleton listening on a Unix domain socket. */
+    private Skeleton<TestInterface> skeleton;
+
+    /** Creates the temporary directory and starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        previous = UnixSockets.getDirectory();
+
+        try
+        {
+            base = Files.createTempDirectory("rmi-unix");
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create temporary directory", e);
+        }
+
+        UnixSockets.setDirectory(base.resolve("sockets"));
+        skeleton = new Skeleton<>(TestInterface.class, new TestServer());
+        skeleton.setUnixSocket(true);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        int                     port = skeleton.getAddress().getPort();
+        InetSocketAddress       local = new InetSocketAddress("127.0.0.1", port);
+        Path                    directory = UnixSockets.getDirectory();
+
+        task("creating a private socket directory");
+
+        try
+        {
+            Set<PosixFilePermission>    permissions =
+                Files.getPosixFilePermissions(directory);
+
+            if(!permissions.equals(PosixFilePermissions.fromString("rwx------")))
+            {
+                throw new TestFailed("socket directory created with " +
+                                     "permissions " +
+                                     PosixFilePermissions.toString(permissions));
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to read socket directory permissions",
+                                 e);
+        }
+
+        task("calling a skeleton through its Unix domain socket");
+
+        expectUnixSocket(local, true);
+        call(local);
+
+        task("refusing to take over a live socket file");
+
+        try
+        {
+            UnixSockets.bind(port).close();
+            throw new TestFailed("live socket file taken over");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(BindException e) { }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception binding live socket",
+                                 t);
+        }
+
+        expectUnixSocket(local, true);
+
+        task("replacing a stale socket file");
+
+        int                     stalePort = port + 1;
+
+        try
+        {
+            stale(stalePort);
+            UnixSockets.close(UnixSockets.bind(stalePort));
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to replace stale socket file", t);
+        }
+
+        task("falling back to TCP when the socket file refuses connections");
+
+        skeleton.stop();
+        skeleton.setUnixSocket(false);
+
+        try
+        {
+            skeleton.start();
+            stale(port);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to restart skeleton", t);
+        }
+
+        expectUnixSocket(local, false);
+        call(local);
+
+        task("ignoring a socket directory writable by other users");
+
+        Path                    open = base.resolve("open");
+
+        try
+        {
+            Files.createDirectory(open);
+            Files.setPosixFilePermissions(open,
+                PosixFilePermissions.fromString("rwxrwxrwx"));
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create open directory", e);
+        }
+
+        UnixSockets.setDirectory(open);
+        skeleton.stop();
+        skeleton.setUnixSocket(true);
+
+        try
+        {
+            skeleton.start();
+            throw new TestFailed("skeleton bound a socket in an open " +
+                                 "directory");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(RMIException e) { }
+
+        try
+        {
+            stale(port);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to create socket file", e);
+        }
+
+        expectUnixSocket(local, false);
+
+        task();
+    }
+
+    /** Stops the skeleton, restores the socket directory and removes the
+        temporary files. */
+    @Override
+    protected void clean()
+    {
+        skeleton.stop();
+        skeleton = null;
+        UnixSockets.setDirectory(previous);
+
+        try
+        {
+            Files.walk(base).sorted((a, b) -> b.compareTo(a)).forEach(path ->
+            {
+                try
+                {
+                    Files.delete(path);
+                }
+                catch(IOException e) { }
+            });
+        }
+        catch(IOException e) { }
+    }
+
+    /** Leaves behind a socket file which refuses connections, as a skeleton
+        which did not stop cleanly would. */
+    private void stale(int port) throws IOException
+    {
+        Path                    path = UnixSockets.pathOf(port);
+
+        try(ServerSocketChannel channel =
+                ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            channel.bind(UnixDomainSocketAddress.of(path));
+        }
+    }
+
+    /** Checks whether stubs connecting to an address use a Unix domain
+        socket.
+
+        @throws TestFailed If they do not, or do, as expected.
+     */
+    private void expectUnixSocket(InetSocketAddress address, boolean expected)
+        throws TestFailed
+    {
+        SocketChannel           channel = UnixSockets.connect(address);
+
+        if(channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch(IOException e) { }
+        }
+
+        if(expected && channel == null)
+            throw new TestFailed("Unix domain socket not used");
+
+        if(!expected && channel != null)
+            throw new TestFailed("unexpected Unix domain socket used");
+    }
+
+    /** Checks that a stub connecting over the network receives a result
+        from the skeleton.
+
+        @throws TestFailed If the call fails.
+     */
+    private void call(InetSocketAddress address) throws TestFailed
+    {
+        try
+        {
+            // Calls with a timeout go over the network even to a skeleton in
+            // the same JVM.
+            TestInterface       stub = Stub.withTimeout(
+                Stub.create(TestInterface.class, address), 10000);
+
+            if(!"value".equals(stub.echo("value")))
+                throw new TestFailed("incorrect result from skeleton");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from skeleton", t);
+        }
+    }
+}